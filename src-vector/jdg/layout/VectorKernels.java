@@ -0,0 +1,183 @@
+package jdg.layout;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Exact repulsive forces computed with the vector API (jdk.incubator.vector): the vertices of a tile are processed
+ * by groups of L vertices (L lanes of the preferred vector size, e.g. 4 with AVX2 and 8 with AVX-512), with one
+ * vector division per group.
+ * <p>
+ * This class is compiled and loaded only when the incubator module is available: it lies in a separate source
+ * directory (src-vector), compiled and run with the option '--add-modules jdk.incubator.vector'.
+ * ForceKernels loads it by reflection, and uses the scalar kernels otherwise.
+ * <p>
+ * Remark: each vertex sums its tiles in the same order and reduces the lanes at the end of each tile, the results do
+ * not depend on the number of threads (they differ from the scalar kernels in the last bits)
+ */
+final class VectorKernels extends ForceKernels.Repulsion {
+	private static final VectorSpecies<Double> SPECIES=DoubleVector.SPECIES_PREFERRED;
+
+	long repulsiveForces(double[] x, double[] y, double[] z, int n, int[] rows, int start, int end, double k2, double C,
+			double[] dx, double[] dy, double[] dz) {
+		int tileSize=ForceKernels.tileSize;
+		DoubleVector zero=DoubleVector.zero(SPECIES), one=DoubleVector.broadcast(SPECIES, 1.);
+		for(int p=start;p<end;p++) {
+			int i=(rows==null) ? p : rows[p];
+			dx[i]=0.;
+			dy[i]=0.;
+			dz[i]=0.;
+		}
+		for(int first=0;first<n;first+=tileSize) {
+			int last=Math.min(n, first+tileSize);
+			int bound=first+SPECIES.loopBound(last-first); // the vertices bound..last-1 are processed one at a time
+			int p=start;
+			for(;p+2<=end;p+=2) { // two vertices of the range at a time (each group of locations is used twice)
+				int i0=(rows==null) ? p : rows[p], i1=(rows==null) ? p+1 : rows[p+1];
+				double x0=x[i0], y0=y[i0], z0=z[i0], x1=x[i1], y1=y[i1], z1=z[i1];
+				DoubleVector fx0=zero, fy0=zero, fz0=zero, fx1=zero, fy1=zero, fz1=zero;
+				for(int j=first;j<bound;j+=SPECIES.length()) {
+					DoubleVector qx=DoubleVector.fromArray(SPECIES, x, j);
+					DoubleVector qy=DoubleVector.fromArray(SPECIES, y, j);
+					DoubleVector qz=DoubleVector.fromArray(SPECIES, z, j);
+					DoubleVector ex0=qx.neg().add(x0), ey0=qy.neg().add(y0), ez0=qz.neg().add(z0);
+					DoubleVector ex1=qx.neg().add(x1), ey1=qy.neg().add(y1), ez1=qz.neg().add(z1);
+					DoubleVector d0=ex0.mul(ex0).add(ey0.mul(ey0)).add(ez0.mul(ez0));
+					DoubleVector d1=ex1.mul(ex1).add(ey1.mul(ey1)).add(ez1.mul(ez1));
+					VectorMask<Double> m0=d0.compare(VectorOperators.GT, 0.), m1=d1.compare(VectorOperators.GT, 0.);
+					DoubleVector f0=zero.blend(one.div(d0), m0), f1=zero.blend(one.div(d1), m1); // coinciding vertices are ignored
+					fx0=fx0.add(ex0.mul(f0));
+					fy0=fy0.add(ey0.mul(f0));
+					fz0=fz0.add(ez0.mul(f0));
+					fx1=fx1.add(ex1.mul(f1));
+					fy1=fy1.add(ey1.mul(f1));
+					fz1=fz1.add(ez1.mul(f1));
+				}
+				dx[i0]+=fx0.reduceLanes(VectorOperators.ADD)+scalarSum(x0, y0, z0, x, y, z, bound, last, 0);
+				dy[i0]+=fy0.reduceLanes(VectorOperators.ADD)+scalarSum(x0, y0, z0, x, y, z, bound, last, 1);
+				dz[i0]+=fz0.reduceLanes(VectorOperators.ADD)+scalarSum(x0, y0, z0, x, y, z, bound, last, 2);
+				dx[i1]+=fx1.reduceLanes(VectorOperators.ADD)+scalarSum(x1, y1, z1, x, y, z, bound, last, 0);
+				dy[i1]+=fy1.reduceLanes(VectorOperators.ADD)+scalarSum(x1, y1, z1, x, y, z, bound, last, 1);
+				dz[i1]+=fz1.reduceLanes(VectorOperators.ADD)+scalarSum(x1, y1, z1, x, y, z, bound, last, 2);
+			}
+			for(;p<end;p++) { // remaining vertex of the range
+				int i=(rows==null) ? p : rows[p];
+				double px=x[i], py=y[i], pz=z[i];
+				DoubleVector fx=zero, fy=zero, fz=zero;
+				for(int j=first;j<bound;j+=SPECIES.length()) {
+					DoubleVector ex=DoubleVector.fromArray(SPECIES, x, j).neg().add(px);
+					DoubleVector ey=DoubleVector.fromArray(SPECIES, y, j).neg().add(py);
+					DoubleVector ez=DoubleVector.fromArray(SPECIES, z, j).neg().add(pz);
+					DoubleVector d=ex.mul(ex).add(ey.mul(ey)).add(ez.mul(ez));
+					DoubleVector f=zero.blend(one.div(d), d.compare(VectorOperators.GT, 0.));
+					fx=fx.add(ex.mul(f));
+					fy=fy.add(ey.mul(f));
+					fz=fz.add(ez.mul(f));
+				}
+				dx[i]+=fx.reduceLanes(VectorOperators.ADD)+scalarSum(px, py, pz, x, y, z, bound, last, 0);
+				dy[i]+=fy.reduceLanes(VectorOperators.ADD)+scalarSum(px, py, pz, x, y, z, bound, last, 1);
+				dz[i]+=fz.reduceLanes(VectorOperators.ADD)+scalarSum(px, py, pz, x, y, z, bound, last, 2);
+			}
+		}
+		double scale=k2*C;
+		for(int p=start;p<end;p++) {
+			int i=(rows==null) ? p : rows[p];
+			dx[i]=dx[i]*scale;
+			dy[i]=dy[i]*scale;
+			dz[i]=dz[i]*scale;
+		}
+		return (long)(end-start)*(n-1);
+	}
+
+	long planarRepulsiveForces(double[] x, double[] y, int n, int[] rows, int start, int end, double k2, double C,
+			double[] dx, double[] dy, double[] dz) {
+		int tileSize=ForceKernels.tileSize;
+		DoubleVector zero=DoubleVector.zero(SPECIES), one=DoubleVector.broadcast(SPECIES, 1.);
+		for(int p=start;p<end;p++) {
+			int i=(rows==null) ? p : rows[p];
+			dx[i]=0.;
+			dy[i]=0.;
+			dz[i]=0.;
+		}
+		for(int first=0;first<n;first+=tileSize) {
+			int last=Math.min(n, first+tileSize);
+			int bound=first+SPECIES.loopBound(last-first);
+			int p=start;
+			for(;p+2<=end;p+=2) {
+				int i0=(rows==null) ? p : rows[p], i1=(rows==null) ? p+1 : rows[p+1];
+				double x0=x[i0], y0=y[i0], x1=x[i1], y1=y[i1];
+				DoubleVector fx0=zero, fy0=zero, fx1=zero, fy1=zero;
+				for(int j=first;j<bound;j+=SPECIES.length()) {
+					DoubleVector qx=DoubleVector.fromArray(SPECIES, x, j);
+					DoubleVector qy=DoubleVector.fromArray(SPECIES, y, j);
+					DoubleVector ex0=qx.neg().add(x0), ey0=qy.neg().add(y0);
+					DoubleVector ex1=qx.neg().add(x1), ey1=qy.neg().add(y1);
+					DoubleVector d0=ex0.mul(ex0).add(ey0.mul(ey0));
+					DoubleVector d1=ex1.mul(ex1).add(ey1.mul(ey1));
+					VectorMask<Double> m0=d0.compare(VectorOperators.GT, 0.), m1=d1.compare(VectorOperators.GT, 0.);
+					DoubleVector f0=zero.blend(one.div(d0), m0), f1=zero.blend(one.div(d1), m1); // coinciding vertices are ignored
+					fx0=fx0.add(ex0.mul(f0));
+					fy0=fy0.add(ey0.mul(f0));
+					fx1=fx1.add(ex1.mul(f1));
+					fy1=fy1.add(ey1.mul(f1));
+				}
+				dx[i0]+=fx0.reduceLanes(VectorOperators.ADD)+planarScalarSum(x0, y0, x, y, bound, last, 0);
+				dy[i0]+=fy0.reduceLanes(VectorOperators.ADD)+planarScalarSum(x0, y0, x, y, bound, last, 1);
+				dx[i1]+=fx1.reduceLanes(VectorOperators.ADD)+planarScalarSum(x1, y1, x, y, bound, last, 0);
+				dy[i1]+=fy1.reduceLanes(VectorOperators.ADD)+planarScalarSum(x1, y1, x, y, bound, last, 1);
+			}
+			for(;p<end;p++) {
+				int i=(rows==null) ? p : rows[p];
+				double px=x[i], py=y[i];
+				DoubleVector fx=zero, fy=zero;
+				for(int j=first;j<bound;j+=SPECIES.length()) {
+					DoubleVector ex=DoubleVector.fromArray(SPECIES, x, j).neg().add(px);
+					DoubleVector ey=DoubleVector.fromArray(SPECIES, y, j).neg().add(py);
+					DoubleVector d=ex.mul(ex).add(ey.mul(ey));
+					DoubleVector f=zero.blend(one.div(d), d.compare(VectorOperators.GT, 0.));
+					fx=fx.add(ex.mul(f));
+					fy=fy.add(ey.mul(f));
+				}
+				dx[i]+=fx.reduceLanes(VectorOperators.ADD)+planarScalarSum(px, py, x, y, bound, last, 0);
+				dy[i]+=fy.reduceLanes(VectorOperators.ADD)+planarScalarSum(px, py, x, y, bound, last, 1);
+			}
+		}
+		double scale=k2*C;
+		for(int p=start;p<end;p++) {
+			int i=(rows==null) ? p : rows[p];
+			dx[i]=dx[i]*scale;
+			dy[i]=dy[i]*scale;
+		}
+		return (long)(end-start)*(n-1);
+	}
+
+	/**
+	 * Return one coordinate (0, 1 or 2) of the sum of the repulsive forces of vertices first..last-1 on the point (px, py, pz)
+	 * (less than L vertices, at the end of the last tile)
+	 */
+	private static double scalarSum(double px, double py, double pz, double[] x, double[] y, double[] z, int first, int last, int coordinate) {
+		double sum=0.;
+		for(int j=first;j<last;j++) {
+			double ex=px-x[j], ey=py-y[j], ez=pz-z[j], d=ex*ex+ey*ey+ez*ez;
+			double f=(d>0.) ? 1./d : 0.;
+			sum+=((coordinate==0) ? ex : ((coordinate==1) ? ey : ez))*f;
+		}
+		return sum;
+	}
+
+	/**
+	 * Same as scalarSum(), for planar drawings
+	 */
+	private static double planarScalarSum(double px, double py, double[] x, double[] y, int first, int last, int coordinate) {
+		double sum=0.;
+		for(int j=first;j<last;j++) {
+			double ex=px-x[j], ey=py-y[j], d=ex*ex+ey*ey;
+			double f=(d>0.) ? 1./d : 0.;
+			sum+=((coordinate==0) ? ex : ey)*f;
+		}
+		return sum;
+	}
+
+}
@@ -0,0 +1,178 @@
+import jdg.graph.AdjacencyListGraph;
+import jdg.io.GraphReader;
+import jdg.io.GraphReader_MTX;
+import jdg.io.GraphReader_MappedMTX;
+import jdg.io.GraphReader_Snapshot;
+import jdg.io.GraphWriter_MTX;
+import jdg.layout.FR91Layout;
+import jdg.layout.FastFR91Layout;
+import jdg.layout.GridFR91Layout;
+import jdg.layout.Layout;
+import jdg.layout.MultilevelLayout;
+import jdg.layout.SpectralLayout;
+import jdg.layout.StressLayout;
+
+/**
+ * A program for computing network layouts without graphical interface (no Processing or AWT window is opened):
+ * the vertex locations are stored in a file (in MTX format, that can be read by GraphReader_MTX.readGeometry)
+ *
+ * This program requires two parameters: the input network (stored in Matrix Market format (.mtx)
+ * or in binary snapshot format (.jdgs)), and the output file storing the vertex coordinates
+ */
+public class BatchLayout {
+
+	public static double size=400.; // size of the drawing area
+
+	public static void printUsage() {
+		System.out.println("Usage:  java BatchLayout input.mtx output_coord.mtx [options]");
+		System.out.println("Options:");
+		System.out.println("  -layout fr91|fast|grid|multilevel|stress|spectral  layout method (default: fast)");
+		System.out.println("  -repulsion quadtree|octree|fmm                     approximation of repulsive forces (fast and multilevel methods, default: quadtree)");
+		System.out.println("  -threads t                                         number of threads (default: number of processors)");
+		System.out.println("  -iterations n                                      maximal number of iterations (default: 1000)");
+		System.out.println("  -converge                                          stop as soon as the layout has converged");
+		System.out.println("  -activeset                                         freeze settled vertices (force-directed methods)");
+		System.out.println("  -coordinates input_coord.mtx                       initial vertex locations (default: random locations)");
+		System.out.println("  -init random|pivotmds|spectral                     initial vertex locations, when no coordinates are given (default: random)");
+		System.out.println("Example:  java -Djava.awt.headless=true BatchLayout data/3elt.mtx 3elt_coord.mtx -layout multilevel -converge");
+	}
+
+	public static void main(String args[]) {
+		System.out.println("Network layout (batch mode)");
+		if(args.length<2) {
+			System.out.println("Error: wrong arguments, two parameters required");
+			printUsage();
+			System.exit(0);
+		}
+		String filename=args[0], output=args[1];
+		String method="fast", repulsion="quadtree", coordinates=null, init="random";
+		int threads=Runtime.getRuntime().availableProcessors();
+		int iterations=1000;
+		boolean converge=false, activeSet=false;
+		for(int i=2;i<args.length;i++) {
+			String option=args[i];
+			if(option.equals("-converge")) {
+				converge=true;
+				continue;
+			}
+			if(option.equals("-activeset")) {
+				activeSet=true;
+				continue;
+			}
+			if(i+1==args.length) {
+				System.out.println("Error: missing value for option "+option);
+				printUsage();
+				System.exit(0);
+			}
+			String value=args[++i];
+			if(option.equals("-layout"))
+				method=value;
+			else if(option.equals("-repulsion"))
+				repulsion=value;
+			else if(option.equals("-threads"))
+				threads=Integer.parseInt(value);
+			else if(option.equals("-iterations")) {
+				iterations=Integer.parseInt(value);
+				if(iterations<1) {
+					System.out.println("Error: the number of iterations must be at least 1");
+					printUsage();
+					System.exit(0);
+				}
+			}
+			else if(option.equals("-coordinates"))
+				coordinates=value;
+			else if(option.equals("-init"))
+				init=value;
+			else {
+				System.out.println("Error: unknown option "+option);
+				printUsage();
+				System.exit(0);
+			}
+		}
+
+		// read the input network
+		boolean snapshot=filename.endsWith(GraphReader_Snapshot.EXTENSION);
+		if(filename.endsWith(".mtx")==false && snapshot==false) {
+			System.out.println("Error: wrong input format (MTX and snapshot formats supported)");
+			System.exit(0);
+		}
+		GraphReader reader;
+		if(snapshot)
+			reader=new GraphReader_Snapshot();
+		else
+			reader=new GraphReader_MappedMTX(threads);
+		AdjacencyListGraph g=reader.read(filename);
+		if(coordinates!=null)
+			new GraphReader_MTX().readGeometry(g, coordinates); // coordinates are stored in MTX format
+		else if(init.equals("pivotmds"))
+			Layout.setPivotMDSPoints(g, size, size, threads);
+		else if(init.equals("spectral"))
+			Layout.setSpectralPoints(g, size, size, 50, threads);
+		else if(init.equals("random")==false) {
+			System.out.println("Error: unknown initial locations "+init);
+			printUsage();
+			System.exit(0);
+		}
+		else if(snapshot==false || ((GraphReader_Snapshot)reader).dimension==0)
+			Layout.setRandomPoints(g, size, size);
+
+		// compute the layout
+		Layout layout=createLayout(g, method, repulsion, threads);
+		layout.activeSet=activeSet;
+		if(coordinates==null && init.equals("random")==false)
+			layout.warmStart(); // the initial drawing is already unfolded
+		long startTime=System.nanoTime();
+		int count=0;
+		while(count<iterations) {
+			layout.computeLayout(); // each iteration prints its running time
+			count++;
+			if(converge && layout.hasConverged())
+				break;
+		}
+		layout.writePositions();
+		double duration=(double)(System.nanoTime()-startTime)/1000000000.;
+		String status=layout.hasConverged() ? "converged" : "not converged";
+		System.out.println("Layout computed: "+count+" iterations, "+duration+" seconds ("+(1000.*duration/count)+" ms per iteration, "+status+")");
+
+		new GraphWriter_MTX().writeGeometry(g, output);
+	}
+
+	/**
+	 * Create the force-directed layout of the network
+	 */
+	public static Layout createLayout(AdjacencyListGraph g, String method, String repulsion, int threads) {
+		if(method.equals("fr91"))
+			return new FR91Layout(g, size, size, threads);
+		if(method.equals("grid"))
+			return new GridFR91Layout(g, size, size, threads);
+		if(method.equals("multilevel")) {
+			MultilevelLayout layout=new MultilevelLayout(g, size, size, threads);
+			layout.repulsion=repulsionMethod(repulsion);
+			return layout;
+		}
+		if(method.equals("stress"))
+			return new StressLayout(g, size, size, threads);
+		if(method.equals("spectral"))
+			return new SpectralLayout(g, size, size, threads);
+		if(method.equals("fast")) {
+			FastFR91Layout layout=new FastFR91Layout(g, size, size, threads);
+			layout.repulsion=repulsionMethod(repulsion);
+			return layout;
+		}
+		throw new Error("Error: unknown layout method: "+method);
+	}
+
+	/**
+	 * Return the approximation of repulsive forces (see FastFR91Layout) corresponding to an option value
+	 */
+	public static int repulsionMethod(String repulsion) {
+		if(repulsion.equals("octree"))
+			return FastFR91Layout.OCTREE;
+		if(repulsion.equals("fmm"))
+			return FastFR91Layout.FMM;
+		if(repulsion.equals("quadtree"))
+			return FastFR91Layout.QUADTREE;
+		throw new Error("Error: unknown approximation of repulsive forces: "+repulsion);
+	}
+
+}
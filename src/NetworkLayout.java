@@ -3,12 +3,14 @@ import jdg.DrawGraph;
 import jdg.graph.AdjacencyListGraph;
 import jdg.io.GraphReader;
 import jdg.io.GraphReader_MTX;
+import jdg.io.GraphReader_Snapshot;
 import jdg.layout.Layout;
 
 /**
  * A program for computing network layouts with the "spring embedder" paradigm
  * 
  * This program requires one parameter: the input network, stored in Matrix Market format (.mtx)
+ * or in binary snapshot format (.jdgs, see GraphReader_Snapshot)
  *
  * @author Luca Castelli Aleardi (Ecole Polytechnique, INF421, 2017)
  */
@@ -24,26 +26,38 @@ public class NetworkLayout extends DrawGraph {
 			System.out.println("Error: wrong arguments, one (or two) parameter(s) required");
 			System.out.println("Usage example 1:  java -jar NetworkLayout data/network.mtx");
 			System.out.println("Usage example 2:  java -jar NetworkLayout data/network.mtx data/network_coord.mtx");
+			System.out.println("Usage example 3:  java -jar NetworkLayout data/network.jdgs");
+			System.out.println("Usage example 4:  java -jar NetworkLayout data/network.mtx -pivotmds");
 
 			System.exit(0);
 		}
-		if(args[0].endsWith(".mtx")==false) {
-			System.out.println("Error: wrong input format (MTX format supported)");
+		boolean snapshot=args[0].endsWith(GraphReader_Snapshot.EXTENSION); // binary snapshot (.jdgs)
+		if(args[0].endsWith(".mtx")==false && snapshot==false) {
+			System.out.println("Error: wrong input format (MTX and snapshot formats supported)");
 			System.exit(0);
 		}
-		if(args.length==2 && args[1].endsWith(".mtx")==false) {
+		boolean pivotMDS=args.length==2 && args[1].equals("-pivotmds"); // initial locations computed with Pivot MDS
+		if(args.length==2 && pivotMDS==false && args[1].endsWith(".mtx")==false) {
 			System.out.println("Error: wrong input format (MTX format supported)");
 			System.exit(0);			
 		}
 		
 		String filename=args[0];
-		GraphReader reader=new GraphReader_MTX(); // open networks stores in Matrix Market format (.mtx)
+		GraphReader reader;
+		if(snapshot)
+			reader=new GraphReader_Snapshot(); // open networks stored in binary snapshots (.jdgs)
+		else
+			reader=new GraphReader_MTX(); // open networks stores in Matrix Market format (.mtx)
 		AdjacencyListGraph g=reader.read(filename); // read input network from file
-		if(args.length==2) {
+		if(pivotMDS) {
+			Layout.setPivotMDSPoints(g, DrawGraph.sizeX, DrawGraph.sizeY, Runtime.getRuntime().availableProcessors());
+			DrawGraph.warmStart=true;
+		}
+		else if(args.length==2) {
 			String inputCoordinates=args[1];
-			reader.readGeometry(g, inputCoordinates);
+			new GraphReader_MTX().readGeometry(g, inputCoordinates);
 		}
-		else {
+		else if(snapshot==false || ((GraphReader_Snapshot)reader).dimension==0) {
 			
 			Layout.setRandomPoints(g, 400, 400);
 		}
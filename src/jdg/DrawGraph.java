@@ -3,7 +3,9 @@ package jdg;
 import processing.core.*;
 import jdg.clustering.CommunityDetection;
 import jdg.clustering.GreedyAlgorithm;
+import jdg.clustering.LeidenAlgorithm;
 import jdg.clustering.LouvainAlgorithm;
+import jdg.clustering.ParallelLouvainAlgorithm;
 import jdg.clustering.RandomCommunities;
 import jdg.graph.AdjacencyListGraph;
 import jdg.graph.Node;
@@ -35,13 +37,17 @@ public class DrawGraph extends PApplet {
     
     /** Layout algorithm  */
     public Layout layoutFR91, layoutFastFR91;
+    public Layout layoutMultilevel=null, layoutStress=null, layoutSpectral=null; // created on first use (see getMultilevelLayout())
+    private LayoutThread worker=null; // thread performing the iterations of the current layout (in background)
+    private int threads=1; // number of threads (layouts, clustering and modularity computation)
     
     /** Community detection methods */
-    public CommunityDetection louvain, greedy, random;
+    public CommunityDetection louvain, leiden, greedy, random;
     public Color[] randomColors=null;
 
     /** input graph to draw */
     static public AdjacencyListGraph inputGraph;
+    static public boolean warmStart=false; // say whether the initial locations are already a good drawing (e.g. Pivot MDS)
         	
    	// parameters of the 2d frame/canvas
     public static int sizeX=800; // horizontal size of the canvas (pizels)
@@ -62,6 +68,7 @@ public class DrawGraph extends PApplet {
 
 		  System.out.println("Setting Canvas size: "+sizeX+" x "+sizeY);
 		  this.size(sizeX,sizeY); // set the size of the Java Processing frame
+		  this.frameRate(60); // layouts are computed in background, and do not slow down the rendering
 		  
 		  // set drawing parameters (size and range of the drawing layout)
 		  double w2=sizeX/2.0;
@@ -79,11 +86,20 @@ public class DrawGraph extends PApplet {
 	       }
 		    	      
 	      // set the graph layout method
-	      this.layoutFR91=new FR91Layout(inputGraph, sizeX, sizeY); // force-directed method (Fruchterman Reingold)
-	      this.layoutFastFR91=new FastFR91Layout(inputGraph, sizeX, sizeY); // force-directed method (Fruchterman Reingold)
+	      this.threads=Runtime.getRuntime().availableProcessors(); // forces are computed in parallel
+	      this.layoutFR91=new FR91Layout(inputGraph, sizeX, sizeY, this.threads); // force-directed method (Fruchterman Reingold)
+	      this.layoutFastFR91=new FastFR91Layout(inputGraph, sizeX, sizeY, this.threads); // force-directed method (Fruchterman Reingold)
+	      if(warmStart) { // start with a small temperature, so that the initial drawing is not scrambled
+	    	  this.layoutFR91.warmStart();
+	    	  this.layoutFastFR91.warmStart();
+	      }
 	      
 	      // set the clustering methods
-	      this.louvain=new LouvainAlgorithm(); // Louvain algorithm
+	      if(this.threads>1)
+	    	  this.louvain=new ParallelLouvainAlgorithm(this.threads); // Louvain algorithm (parallel local moving)
+	      else
+	    	  this.louvain=new LouvainAlgorithm(); // Louvain algorithm
+	      this.leiden=new LeidenAlgorithm(); // Leiden algorithm (connected communities)
 	      this.greedy=new GreedyAlgorithm(); // Greedy algorithm
 	      this.random=new RandomCommunities(5); // random partition
 	  }
@@ -100,7 +116,22 @@ public class DrawGraph extends PApplet {
 			  u.color=this.randomColors[cluster];
 		  }
 		  
-		  System.out.println("Modularity="+this.louvain.computeModularity(this.inputGraph, communities));
+		  System.out.println("Modularity="+this.louvain.computeModularity(this.inputGraph, communities, this.threads));
+	  }
+	  
+	  /**
+	   * Run the Leiden algorithm for community detection
+	   */
+	  public void runLeidenAlgorithm() {
+		  int[] communities=this.leiden.computeClusters(this.inputGraph); // partition into communities
+
+		  // assign colors to vertices (according to the partition into communities)
+		  for(Node u: this.inputGraph.vertices) {
+			  int cluster=communities[u.index];
+			  u.color=this.randomColors[cluster];
+		  }
+		  
+		  System.out.println("Modularity="+this.leiden.computeModularity(this.inputGraph, communities, this.threads));
 	  }
 	  
 	  /**
@@ -115,7 +146,7 @@ public class DrawGraph extends PApplet {
 			  u.color=this.randomColors[cluster];
 		  }
 		  
-		  System.out.println("Modularity="+this.greedy.computeModularity(this.inputGraph, communities));
+		  System.out.println("Modularity="+this.greedy.computeModularity(this.inputGraph, communities, this.threads));
 	  }
 
 	  /**
@@ -130,13 +161,15 @@ public class DrawGraph extends PApplet {
 			  u.color=this.randomColors[cluster];
 		  }
 		  
-		  System.out.println("Modularity="+this.random.computeModularity(this.inputGraph, communities));
+		  System.out.println("Modularity="+this.random.computeModularity(this.inputGraph, communities, this.threads));
 	  }
 
 	  /**
 	   * Main method for drawing the applet
 	   */
 	  public void draw() {
+	    if(this.worker!=null)
+	    	this.worker.updateNodes(); // locations computed by the last completed iteration
 	    this.background(this.backgroundColor); // set the color of background
 	    
 	    this.display2D(); // draw all edges in gray
@@ -148,17 +181,98 @@ public class DrawGraph extends PApplet {
 	    this.drawOptions();
 	  }
 	  
+	  /**
+	   * Return the worker thread of a layout: the worker of the previous layout is terminated
+	   * (once the locations of its last iteration have been stored in the nodes)
+	   */
+	  public LayoutThread selectLayout(Layout layout) {
+		  if(this.worker!=null && this.worker.layout==layout)
+			  return this.worker;
+		  if(this.worker!=null) {
+			  this.worker.updateNodes();
+			  this.worker.terminate();
+		  }
+		  this.worker=new LayoutThread(layout); // the layout reads the current locations stored in the nodes
+		  this.inputGraph=layout.g;
+		  return this.worker;
+	  }
+
+	  /**
+	   * Return the multilevel force-directed layout (Walshaw), created on first use
+	   * <p>
+	   * Remark: each layout stores its own copy of the graph and its own worker threads,
+	   * so that the layouts which are rarely used are not created at startup
+	   */
+	  public Layout getMultilevelLayout() {
+		  if(this.layoutMultilevel==null)
+			  this.layoutMultilevel=new MultilevelLayout(inputGraph, sizeX, sizeY, this.threads);
+		  return this.layoutMultilevel;
+	  }
+
+	  /**
+	   * Return the sparse stress majorization layout (Ortmann et al.), created on first use
+	   */
+	  public Layout getStressLayout() {
+		  if(this.layoutStress==null)
+			  this.layoutStress=new StressLayout(inputGraph, sizeX, sizeY, this.threads);
+		  return this.layoutStress;
+	  }
+
+	  /**
+	   * Return the spectral layout (eigenvectors of the Laplacian, Koren), created on first use
+	   */
+	  public Layout getSpectralLayout() {
+		  if(this.layoutSpectral==null)
+			  this.layoutSpectral=new SpectralLayout(inputGraph, sizeX, sizeY, this.threads);
+		  return this.layoutSpectral;
+	  }
+
+	  /**
+	   * Perform one iteration of a layout (in background): the nodes are updated once the iteration is completed
+	   */
+	  public void runLayout(Layout layout) {
+		  this.selectLayout(layout).step();
+	  }
+
+	  /**
+	   * Perform iterations of a layout (in background) until it has converged
+	   */
+	  public void runLayoutUntilConvergence(Layout layout) {
+		  LayoutThread thread=this.selectLayout(layout);
+		  thread.stopWhenConverged=true;
+		  thread.start();
+	  }
+
+	  /**
+	   * Start (or pause) the continuous iterations of the current layout (fast FR91 by default)
+	   */
+	  public void startOrPauseLayout() {
+		  LayoutThread thread=this.selectLayout(this.worker!=null ? this.worker.layout : this.layoutFastFR91);
+		  if(thread.isRunning())
+			  thread.pause();
+		  else {
+			  thread.stopWhenConverged=false;
+			  thread.start();
+		  }
+	  }
+
 	  /**
 	   * Deal with keyboard events
 	   */
 	  public void keyPressed(){
 		  switch(key) {
 		  	case('z'):this.updateBoundingBox(); break;
-		  	case('c'):this.layoutFR91.computeLayout(); this.inputGraph = this.layoutFR91.g; break;
-		  	case('f'):this.layoutFastFR91.computeLayout(); this.inputGraph = this.layoutFastFR91.g; break;
+		  	case('c'):this.runLayout(this.layoutFR91); break;
+		  	case('f'):this.runLayout(this.layoutFastFR91); break;
+		  	case('F'):this.runLayoutUntilConvergence(this.layoutFastFR91); break;
+		  	case(' '):this.startOrPauseLayout(); break;
+		  	case('m'):this.runLayout(this.getMultilevelLayout()); break;
+		  	case('s'):this.runLayout(this.getStressLayout()); break;
+		  	case('e'):this.runLayoutUntilConvergence(this.getSpectralLayout()); break;
 		  	case('o'):this.zoom(1.2); break;
 		  	case('i'):this.zoom(0.8); break;
 		  	case('l'):this.runLouvainAlgorithm(); break;
+		  	case('L'):this.runLeidenAlgorithm(); break;
 		  	case('g'):this.runGreedyAlgorithm(); break;
 		  	case('r'):this.computeRandomCommunities(); break;
 		  	default: System.out.println("Warning: this option is not supported");
@@ -333,13 +447,19 @@ public class DrawGraph extends PApplet {
 		   */
 		  public void drawOptions() {
 			String label="press 'c' for performing one iteration of FR91\n";
-			label=label+"press 'f' for one iteration of Fast FR91 (with octrees)\n";
+			label=label+"press 'f' for one iteration of Fast FR91 (Barnes-Hut)\n";
+			label=label+"press 'm' for the multilevel layout (then one iteration of Fast FR91)\n";
 			//label=label+"press 'e' (or 'd') to enable (or to disable) cooling process\n";
 			label=label+"press 'l' to run the Louvain algorithm \n";
+			label=label+"press 'L' to run the Leiden algorithm \n";
 			label=label+"press 'g' to run the Greedy algorithm \n";
 			label=label+"press 'r' to compute a random partition \n";
 
 			String label2="press 'i' or 'o' for zoom\n"; // text to show
+			label2=label2+"press 's' for one iteration of stress majorization\n";
+			label2=label2+"press 'e' to compute the spectral layout\n";
+			label2=label2+"press 'F' to run Fast FR91 until convergence\n";
+			label2=label2+"press 'space' to start (or pause) the continuous layout\n";
 			label2=label2+"use 'left mouse click' to show vertex index\n";
 			label2=label2+"press the 'right button' of the mouse to drag the layout";
 
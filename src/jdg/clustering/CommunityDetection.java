@@ -1,9 +1,7 @@
 package jdg.clustering;
 
-import java.util.HashMap;
-import java.util.LinkedList;
-
 import jdg.graph.AdjacencyListGraph;
+import jdg.graph.CompactGraph;
 import jdg.graph.Node;
 
 /**
@@ -26,9 +24,22 @@ public abstract class CommunityDetection {
 	 */
 	public abstract int[] computeClusters(AdjacencyListGraph graph);
 	
+	/**
+	 * This method returns a partition of a network (in compact representation) into communities. <p>
+	 * <p>
+	 * Remark: by default the graph is converted to its adjacency list representation,
+	 * methods working on CSR arrays should override this method
+	 * 
+	 * @param graph  the input network (compact representation)
+	 * @return an array of size 'n' storing, for each vertex, the index of its community (a value between 0..,k-1)
+	 */
+	public int[] computeClusters(CompactGraph graph) {
+		return this.computeClusters(graph.toAdjacencyListGraph());
+	}
+	
 	/**
 	 * This method computes the modularity of a partition of the input graph whose nodes
-	 * are regrouped into 'k' communities. <p>
+	 * are regrouped into 'k' communities (in O(n+m) time, see Modularity). <p>
 	 * <p>
 	 * Remarks:<p>
 	 * -) the nodes of the networks are numbered 0..n-1
@@ -39,41 +50,32 @@ public abstract class CommunityDetection {
 	 * @return  the modularity of the partition
 	 */
 	public  double computeModularity(AdjacencyListGraph g, int[] communities) {
-		double modularity=0;
-		double L = g.sizeEdges();
-		HashMap<Integer,LinkedList<Node>> map = new HashMap<Integer,LinkedList<Node>>();
-		
-		// Organising the nodes in partition sets.
-		for(int k=0; k<communities.length; k++) {
-			if(map.keySet().contains(communities[k])) {
-				map.get(communities[k]).add(g.getNode(k));
-			}
-			else {
-				LinkedList<Node> list = new LinkedList<>(); 
-				list.add(g.getNode(k));
-				map.put(communities[k],list);
-			}
-		}
-		
-		for(LinkedList<Node> list: map.values()) {
-			
-			double Kc=0,Lc=0;
-			
-			for(Node u: list) {
-				for(Node v: u.neighbors) {	
-					
-					if(list.contains(v)) {
-						Lc = Lc + 0.5;
-					}
-				}
-				
-				Kc = Kc + u.degree();
-			}
-			
-			modularity = modularity + (Lc/L) - Math.pow( Kc/(2*L) , 2 );
-		}
-		
-		return modularity;
+		return this.computeModularity(g, communities, 1);
+	}
+	
+	/**
+	 * This method computes the modularity of a partition of the input graph, in O(n+m) time: the internal
+	 * weights of the communities are computed in parallel (see Modularity)
+	 * 
+	 * @param graph  the input network (adjacency list representation)
+	 * @param communities  an array of size 'n' storing, for each vertex, the index of its community (a value between 0..,k-1)
+	 * @param threads  number of threads
+	 * @return  the modularity of the partition
+	 */
+	public double computeModularity(AdjacencyListGraph g, int[] communities, int threads) {
+		return Modularity.compute(new CompactGraph(g), communities, threads);
+	}
+	
+	/**
+	 * This method computes the modularity of a partition of the input graph (compact representation),
+	 * in O(n+m) time (edge weights are taken into account)
+	 * 
+	 * @param graph  the input network (compact representation)
+	 * @param communities  an array of size 'n' storing, for each vertex, the index of its community (a value between 0..,k-1)
+	 * @return  the modularity of the partition
+	 */
+	public double computeModularity(CompactGraph g, int[] communities) {
+		return Modularity.compute(g, communities);
 	}
 	
 	
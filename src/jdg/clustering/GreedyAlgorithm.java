@@ -1,194 +1,505 @@
 package jdg.clustering;
 
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.LinkedList;
-import java.util.Set;
-
 import jdg.graph.AdjacencyListGraph;
-import jdg.graph.Node;
+import jdg.graph.CompactGraph;
 
 /**
  * This class provides an implementation of the Greedy algorithm for Community
- * detection
- * 
+ * detection (Newman, 2004), with the data structures of Clauset, Newman and Moore (2004)
+ * <p>
+ * Initially each vertex is a community. At each step, the two adjacent communities whose merge gives the
+ * largest modularity increase dQ are merged, until no merge increases the modularity.
+ * <p>
+ * Data structures: <p>
+ * -) a sparse row for each community, storing the values dQ of the merges with its neighboring communities
+ * (a hash map on primitive arrays), together with a max-heap of these values <p>
+ * -) a global max-heap storing the largest value of each row (updated in place) <p>
+ * -) a merge log: the partition having the largest modularity is computed at the end, by replaying the merges
+ * <p>
+ * Remark: the heaps of the rows use lazy deletion, an entry is discarded when it reaches the top and its value is no longer
+ * the current value of the merge (merging communities i and j requires O((d_i+d_j) log n) time, where d_i is the number of
+ * neighbors of community i)
+ *
  * @author Luca Castelli Aleardi (INF421, 2017)
  */
 public class GreedyAlgorithm extends CommunityDetection {
 
+	public int merges=0; // number of merges of the best partition (for statistics)
+
 	/**
-	 * Initialize the parameters of the Louvain algorithm
+	 * Initialize the parameters of the Greedy algorithm
 	 */
-
 	public GreedyAlgorithm() {
-
 	}
 
 	/**
 	 * This method returns a partition of a network of size 'n' into communities,
-	 * computed by the Louvain algorithm
+	 * computed by the Greedy algorithm
 	 * <p>
 	 * <p>
 	 * Remarks:
 	 * <p>
 	 * -) the nodes of the networks are numbered 0..n-1 -) the graph is partitioned
 	 * into 'k' communities, which have numbers 0..k-1
-	 * 
-	 * @param graph
+	 *
+	 * @param g
 	 *            the input network (adjacency list representation)
 	 * @return an array of size 'n' storing, for each vertex, the index of its
 	 *         community (a value between 0..,k-1)
 	 */
-
 	public int[] computeClusters(AdjacencyListGraph g) {
+		return this.computeClusters(new CompactGraph(g));
+	}
+
+	/**
+	 * This method returns a partition of a network (in compact representation) into communities,
+	 * computed by the Greedy algorithm
+	 * <p>
+	 * Remark: edge weights are taken into account (unit weights for unweighted graphs)
+	 *
+	 * @param g
+	 *            the input network (compact representation)
+	 * @return an array of size 'n' storing, for each vertex, the index of its
+	 *         community (a value between 0..,k-1)
+	 */
+	public int[] computeClusters(CompactGraph g) {
+		System.out.print("Computing communities (Greedy algorithm)...");
+		long startTime=System.nanoTime();
+		int n=g.sizeVertices();
+
+		// a[i]: fraction of the edge ends attached to community i
+		double m2=0.;
+		for(int i=0;i<n;i++)
+			m2=m2+g.weightedDegree(i);
+		double[] a=new double[n];
+		double modularity=0.;
+		for(int i=0;i<n;i++) {
+			a[i]=(m2==0.) ? 0. : g.weightedDegree(i)/m2;
+			modularity=modularity-a[i]*a[i];
+		}
+
+		// initial values dQ=2*(e_ij-a_i*a_j) of the merges of adjacent vertices
+		SparseRow[] rows=new SparseRow[n];
+		MaxHeap heap=new MaxHeap(n); // largest value of each row
+		for(int i=0;i<n;i++) {
+			rows[i]=new SparseRow(g.degree(i));
+			for(int e=g.offsets[i];e<g.offsets[i+1];e++) {
+				int j=g.targets[e];
+				double w=(g.weights==null) ? 1. : g.weights[e];
+				rows[i].put(j, rows[i].get(j)+2.*(w/m2-a[i]*a[j]));
+			}
+			rows[i].rebuildHeap();
+			if(rows[i].size>0)
+				heap.update(i, rows[i].maxValue(), rows[i].maxKey());
+		}
+
+		// merge log: at step t, community from[t] is merged into community into[t]
+		int[] from=new int[Math.max(n-1, 0)];
+		int[] into=new int[Math.max(n-1, 0)];
+		int steps=0, bestSteps=0;
+		double bestModularity=modularity;
+		int[] touched=new int[n]; // rows modified by a merge
+		while(heap.size>0) {
+			double dq=heap.topValue();
+			int i=heap.topRow(), j=heap.topKey(); // the best merge
+			if(dq<0.)
+				break; // the modularity cannot increase anymore
+
+			// merge the smaller row into the larger one
+			if(rows[i].size>rows[j].size) {
+				int tmp=i;
+				i=j;
+				j=tmp;
+			}
+			SparseRow ri=rows[i], rj=rows[j];
+			int count=0;
+			for(int p=0;p<ri.keys.length;p++) { // neighbors of i (possibly adjacent to j)
+				int k=ri.keys[p];
+				if(k<0 || k==j)
+					continue;
+				double value=ri.values[p];
+				if(rj.contains(k))
+					value=value+rj.get(k);
+				else
+					value=value-2.*a[j]*a[k];
+				rj.put(k, value);
+				rows[k].remove(i);
+				rows[k].put(j, value);
+				touched[count++]=k;
+			}
+			for(int p=0;p<rj.keys.length;p++) { // neighbors of j not adjacent to i
+				int k=rj.keys[p];
+				if(k<0 || k==i || ri.contains(k))
+					continue;
+				double value=rj.values[p]-2.*a[i]*a[k];
+				rj.values[p]=value;
+				rows[k].put(j, value);
+				touched[count++]=k;
+			}
+			rj.remove(i);
+			rj.rebuildHeap();
+			rows[i]=null;
+			a[j]=a[j]+a[i];
+			a[i]=0.;
 
-		System.out.println("Computing clusters.....");
-		
-		int n = g.sizeVertices();
-		int m = g.sizeEdges();
+			// update the global heap
+			heap.remove(i);
+			if(rj.size>0)
+				heap.update(j, rj.maxValue(), rj.maxKey());
+			else
+				heap.remove(j);
+			for(int p=0;p<count;p++) {
+				SparseRow rk=rows[touched[p]];
+				if(rk.size>0)
+					heap.update(touched[p], rk.maxValue(), rk.maxKey());
+				else
+					heap.remove(touched[p]);
+			}
+
+			modularity=modularity+dq;
+			from[steps]=i;
+			into[steps]=j;
+			steps++;
+			if(modularity>bestModularity) {
+				bestModularity=modularity;
+				bestSteps=steps;
+			}
+		}
 
-		HashMap<Integer, HashMap<Integer, Double>> E = new HashMap<Integer, HashMap<Integer, Double>>();
+		// replay the merges of the best partition (union-find)
+		int[] parent=new int[n];
+		for(int v=0;v<n;v++)
+			parent[v]=v;
+		for(int t=0;t<bestSteps;t++)
+			parent[from[t]]=into[t];
+		int[] communities=new int[n];
+		for(int v=0;v<n;v++) {
+			int root=v;
+			while(parent[root]!=root)
+				root=parent[root];
+			int u=v; // path compression
+			while(parent[u]!=root) {
+				int next=parent[u];
+				parent[u]=root;
+				u=next;
+			}
+			communities[v]=root;
+		}
+		int k=(n==0) ? 0 : LouvainAlgorithm.renumber(communities);
+		this.merges=bestSteps;
 
-		HashMap<Integer, Double> A = new HashMap<Integer, Double>();
+		double duration=(double)(System.nanoTime()-startTime)/1000000000.;
+		System.out.println("done ("+k+" communities, "+bestSteps+" merges, "+duration+" seconds)");
+		return communities;
+	}
+
+	/**
+	 * Sparse row of the matrix dQ: a hash map (open addressing, linear probing) between the indices of the
+	 * neighboring communities and the values dQ, together with a max-heap of the entries (with lazy deletion)
+	 */
+	private static class SparseRow {
+		int[] keys; // neighbor indices (-1 for empty slots)
+		double[] values;
+		int size=0; // number of entries
+		int[] heapKeys; // max-heap of the entries (outdated entries are discarded when they reach the top)
+		double[] heapValues;
+		int heapSize=0;
 
-		HashMap<Integer, Set<Integer>> clusters = new HashMap<Integer, Set<Integer>>();
+		SparseRow(int capacity) {
+			int length=4;
+			while(length<2*capacity)
+				length=length*2;
+			this.keys=new int[length];
+			this.values=new double[length];
+			for(int p=0;p<length;p++)
+				this.keys[p]=-1;
+			this.heapKeys=new int[Math.max(capacity, 4)];
+			this.heapValues=new double[this.heapKeys.length];
+		}
 
-		HashMap<Integer, Set<Integer>> optimalClustering = (HashMap<Integer, Set<Integer>>) clusters.clone();
+		private static int hash(int key, int mask) {
+			int h=key*0x9E3779B9;
+			return (h^(h>>>16))&mask;
+		}
 
-		// Setting up communities and clusters.
-		int[] communities = new int[n];
+		private int slot(int key) {
+			int mask=this.keys.length-1;
+			int p=hash(key, mask);
+			while(this.keys[p]>=0 && this.keys[p]!=key)
+				p=(p+1)&mask;
+			return p;
+		}
 
-		
-		double currentModularity=0, maximalModularity=0;
-		
-		
-		for (int k = 0; k < n; k++) {
-			communities[k] = k;
-			Set<Integer> set = new HashSet<Integer>();
-			set.add(k);
-			clusters.put(k, set);
+		boolean contains(int key) {
+			return this.keys[this.slot(key)]==key;
 		}
 
-		// Setting up linkedTo, E and A values
-		int N = g.sizeVertices();
+		/**
+		 * Return the value of an entry (0 if the entry does not exist)
+		 */
+		double get(int key) {
+			int p=this.slot(key);
+			return (this.keys[p]==key) ? this.values[p] : 0.;
+		}
 
-		double a =0;
-		
-		for (int k = 0; k < N; k++) {
-			HashMap<Integer, Double> map = new HashMap<Integer, Double>();
-			
-			for (int l = 0; l < N; l++) {
-				
-				if (g.getNode(k).neighbors.contains(g.getNode(l))) {
-					map.put(l, 1. / m);
-				} else {
-					map.put(l, 0.);
+		/**
+		 * Set the value of an entry, the new value is pushed on the heap
+		 */
+		void put(int key, double value) {
+			int p=this.slot(key);
+			if(this.keys[p]!=key) {
+				if(2*(this.size+1)>this.keys.length) {
+					this.resize(2*this.keys.length);
+					p=this.slot(key);
 				}
+				this.keys[p]=key;
+				this.size++;
+			}
+			this.values[p]=value;
+			this.pushHeap(key, value);
+			if(this.heapSize>4*this.size+16)
+				this.rebuildHeap(); // too many outdated entries
+		}
 
+		/**
+		 * Remove an entry (backward shift deletion)
+		 */
+		void remove(int key) {
+			int mask=this.keys.length-1;
+			int p=this.slot(key);
+			if(this.keys[p]!=key)
+				return;
+			this.size--;
+			int q=p;
+			while(true) {
+				q=(q+1)&mask;
+				if(this.keys[q]<0)
+					break;
+				int home=hash(this.keys[q], mask);
+				if(((q-home)&mask)>=((q-p)&mask)) { // the entry at q can be moved to the hole p
+					this.keys[p]=this.keys[q];
+					this.values[p]=this.values[q];
+					p=q;
+				}
 			}
+			this.keys[p]=-1;
+		}
 
-			E.put(k, map);
-			
-			a = ((double) g.getNode(k).degree()) / m;
-			currentModularity -= a;
-					
-			A.put(k,a);
-			
-		}
-
-	
-		maximalModularity = currentModularity;
-		
-		
-
-
-		
-		
-		
-		while(n>1) {
-			
-			//Searching for the optimal merge.
-			
-			double DQ = Double.NEGATIVE_INFINITY;
-			
-			double currentValue;
-			
-			int p=0,q=0;
-			for(Integer i: E.keySet()) {
-				for(Integer j: E.keySet()) {
-					currentValue = 2.*(E.get(i).get(j) - A.get(i)*A.get(j)); 
-					if(currentValue>DQ) {
-						DQ = currentValue;
-						p=i;q=j;
-					}
+		private void resize(int length) {
+			int[] oldKeys=this.keys;
+			double[] oldValues=this.values;
+			this.keys=new int[length];
+			this.values=new double[length];
+			for(int p=0;p<length;p++)
+				this.keys[p]=-1;
+			for(int p=0;p<oldKeys.length;p++) {
+				if(oldKeys[p]>=0) {
+					int q=this.slot(oldKeys[p]);
+					this.keys[q]=oldKeys[p];
+					this.values[q]=oldValues[p];
 				}
 			}
-			
-			
-			currentModularity +=DQ;
-			
-			
-			//merging the communities p and q:
-			
-			      //Step 1: changing the values in E and A.
-						
-						A.put(p,A.get(p)+A.get(q));
-						A.remove(q);
-						
-						for(Integer i: E.keySet()) {
-							
-							if(i!=p && i!=q) {
-								E.get(p).put(i, E.get(p).get(i) + E.get(q).get(i));
-								E.get(i).put(p,E.get(p).get(i));
-							}
-							
-							E.get(i).remove(q);
-							
-						}
-						
-						E.get(p).remove(q);
-						E.remove(q);
-						
-						
-				  //Step 2: changing the values of clusters.
-						
-						clusters.get(p).addAll(clusters.get(q));
-						clusters.remove(q);
-						
-						
-						if(currentModularity>=maximalModularity) {
-							
-							maximalModularity = currentModularity;
-							
-							optimalClustering = (HashMap<Integer, Set<Integer>>) clusters.clone();
-								
-						}
-						
-			n--;
-		
-		}
-		
-		
-		int k=0;
-		
-		for(Integer i: optimalClustering.keySet()) {
-			
-			for(Integer index: optimalClustering.get(i)) {
-				
-				communities[index] = k;
-				
-			}
-			
-			k++;
-			
-			
-		}
-		
-		
-		
-		System.out.println("Done!");
-	
-		return communities;
+		}
+
+		/**
+		 * Discard the outdated entries at the top of the heap
+		 */
+		private void cleanHeap() {
+			while(this.heapSize>0) {
+				int key=this.heapKeys[0];
+				int p=this.slot(key);
+				if(this.keys[p]==key && this.values[p]==this.heapValues[0])
+					return;
+				this.popHeap();
+			}
+		}
+
+		/**
+		 * Return the largest value of the row (the row is assumed to be non empty)
+		 */
+		double maxValue() {
+			this.cleanHeap();
+			return this.heapValues[0];
+		}
+
+		/**
+		 * Return the neighbor having the largest value (the row is assumed to be non empty)
+		 */
+		int maxKey() {
+			this.cleanHeap();
+			return this.heapKeys[0];
+		}
+
+		/**
+		 * Recompute the heap from the current entries (in linear time)
+		 */
+		void rebuildHeap() {
+			if(this.heapKeys.length<this.size) {
+				this.heapKeys=new int[this.size];
+				this.heapValues=new double[this.size];
+			}
+			this.heapSize=0;
+			for(int p=0;p<this.keys.length;p++) {
+				if(this.keys[p]>=0) {
+					this.heapKeys[this.heapSize]=this.keys[p];
+					this.heapValues[this.heapSize]=this.values[p];
+					this.heapSize++;
+				}
+			}
+			for(int p=this.heapSize/2-1;p>=0;p--)
+				this.siftDown(p);
+		}
+
+		private void pushHeap(int key, double value) {
+			if(this.heapSize==this.heapKeys.length) {
+				this.heapKeys=java.util.Arrays.copyOf(this.heapKeys, 2*this.heapSize);
+				this.heapValues=java.util.Arrays.copyOf(this.heapValues, 2*this.heapSize);
+			}
+			int p=this.heapSize++;
+			while(p>0) {
+				int parent=(p-1)/2;
+				if(this.heapValues[parent]>=value)
+					break;
+				this.heapKeys[p]=this.heapKeys[parent];
+				this.heapValues[p]=this.heapValues[parent];
+				p=parent;
+			}
+			this.heapKeys[p]=key;
+			this.heapValues[p]=value;
+		}
+
+		private void popHeap() {
+			this.heapSize--;
+			this.heapKeys[0]=this.heapKeys[this.heapSize];
+			this.heapValues[0]=this.heapValues[this.heapSize];
+			this.siftDown(0);
+		}
+
+		private void siftDown(int p) {
+			int key=this.heapKeys[p];
+			double value=this.heapValues[p];
+			while(true) {
+				int child=2*p+1;
+				if(child>=this.heapSize)
+					break;
+				if(child+1<this.heapSize && this.heapValues[child+1]>this.heapValues[child])
+					child++;
+				if(this.heapValues[child]<=value)
+					break;
+				this.heapKeys[p]=this.heapKeys[child];
+				this.heapValues[p]=this.heapValues[child];
+				p=child;
+			}
+			this.heapKeys[p]=key;
+			this.heapValues[p]=value;
+		}
+	}
+
+	/**
+	 * Global max-heap storing the largest entry (value, neighbor) of each row: the entry of a row is updated in place
+	 * (indexed heap, storing the position of each row)
+	 */
+	private static class MaxHeap {
+		int[] rows; // heap of the rows
+		int[] positions; // position of each row in the heap (-1 if the row is not in the heap)
+		double[] values; // largest value of each row
+		int[] keys; // neighbor having the largest value, for each row
+		int size=0;
+
+		MaxHeap(int n) {
+			this.rows=new int[n];
+			this.positions=new int[n];
+			this.values=new double[n];
+			this.keys=new int[n];
+			for(int i=0;i<n;i++)
+				this.positions[i]=-1;
+		}
+
+		double topValue() {
+			return this.values[this.rows[0]];
+		}
+
+		int topRow() {
+			return this.rows[0];
+		}
+
+		int topKey() {
+			return this.keys[this.rows[0]];
+		}
+
+		/**
+		 * Insert or update the entry of a row
+		 */
+		void update(int row, double value, int key) {
+			this.keys[row]=key;
+			int p=this.positions[row];
+			if(p<0) {
+				p=this.size++;
+				this.rows[p]=row;
+				this.positions[row]=p;
+				this.values[row]=value;
+				this.siftUp(p);
+				return;
+			}
+			double old=this.values[row];
+			this.values[row]=value;
+			if(value>old)
+				this.siftUp(p);
+			else
+				this.siftDown(p);
+		}
+
+		/**
+		 * Remove the entry of a row (if any)
+		 */
+		void remove(int row) {
+			int p=this.positions[row];
+			if(p<0)
+				return;
+			this.positions[row]=-1;
+			this.size--;
+			if(p==this.size)
+				return;
+			int last=this.rows[this.size];
+			this.rows[p]=last;
+			this.positions[last]=p;
+			this.siftUp(p);
+			this.siftDown(this.positions[last]);
+		}
+
+		private void siftUp(int p) {
+			int row=this.rows[p];
+			double value=this.values[row];
+			while(p>0) {
+				int parent=(p-1)/2;
+				if(this.values[this.rows[parent]]>=value)
+					break;
+				this.rows[p]=this.rows[parent];
+				this.positions[this.rows[p]]=p;
+				p=parent;
+			}
+			this.rows[p]=row;
+			this.positions[row]=p;
+		}
+
+		private void siftDown(int p) {
+			int row=this.rows[p];
+			double value=this.values[row];
+			while(true) {
+				int child=2*p+1;
+				if(child>=this.size)
+					break;
+				if(child+1<this.size && this.values[this.rows[child+1]]>this.values[this.rows[child]])
+					child++;
+				if(this.values[this.rows[child]]<=value)
+					break;
+				this.rows[p]=this.rows[child];
+				this.positions[this.rows[p]]=p;
+				p=child;
+			}
+			this.rows[p]=row;
+			this.positions[row]=p;
+		}
 	}
 
 }
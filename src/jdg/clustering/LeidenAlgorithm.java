@@ -0,0 +1,372 @@
+package jdg.clustering;
+
+import java.util.Random;
+
+import jdg.graph.AdjacencyListGraph;
+import jdg.graph.CompactGraph;
+
+/**
+ * This class provides an implementation of the Leiden algorithm for Community detection
+ * (Traag, Waltman, van Eck, 2019)
+ * <p>
+ * Each level performs three phases: <p>
+ * -) fast local moving: vertices are moved to the neighboring community maximizing the modularity gain, a queue stores
+ * the vertices to visit (initially all vertices), only the neighbors of the vertices which have moved are visited again <p>
+ * -) refinement: each community is split into sub-communities, obtained by merging singletons within the community.
+ * Only vertices and sub-communities well connected to the rest of their community are merged, the sub-community is
+ * chosen at random (favoring large modularity gains): sub-communities are connected <p>
+ * -) aggregation: each sub-community becomes a vertex of a weighted graph (in CSR representation), whose initial
+ * partition is given by the communities (and not by the sub-communities)
+ * <p>
+ * Levels are repeated until each community is a single vertex of the aggregated graph. The whole process is
+ * repeated 'iterations' times, starting from the previous partition.
+ * <p>
+ * Remark: all computations are performed on primitive arrays (as in LouvainAlgorithm), the communities of the result
+ * are connected subgraphs of the input graph (disconnected communities are split at the end)
+ */
+public class LeidenAlgorithm extends CommunityDetection {
+
+	public int iterations=2; // number of iterations of the algorithm (each one starts from the previous partition)
+	public double randomness=0.01; // randomness of the choice of the sub-communities (refinement phase)
+	public int maxLevels=100; // maximal number of aggregation levels
+	public long seed=10; // seed of the random generator (the result is reproducible)
+	public int levels=0; // number of levels computed by the last run (for statistics)
+
+	/**
+	 * Initialize the parameters of the Leiden algorithm
+	 */
+	public LeidenAlgorithm() {
+	}
+
+	/**
+	 * This method returns a partition of a network of size 'n' into communities,
+	 * computed by the Leiden algorithm <p>
+	 * <p>
+	 * Remarks:<p>
+	 * -) the nodes of the networks are numbered 0..n-1
+	 * -) the graph is partitioned into 'k' communities, which have numbers 0..k-1
+	 *
+	 * @param graph  the input network (adjacency list representation)
+	 * @return an array of size 'n' storing, for each vertex, the index of its community (a value between 0..,k-1)
+	 */
+	public int[] computeClusters(AdjacencyListGraph graph) {
+		return this.computeClusters(new CompactGraph(graph));
+	}
+
+	/**
+	 * This method returns a partition of a network (in compact representation) into communities,
+	 * computed by the Leiden algorithm <p>
+	 * <p>
+	 * Remark: edge weights are taken into account (unit weights for unweighted graphs)
+	 *
+	 * @param graph  the input network (compact representation)
+	 * @return an array of size 'n' storing, for each vertex, the index of its community (a value between 0..,k-1)
+	 */
+	public int[] computeClusters(CompactGraph graph) {
+		System.out.print("Computing communities (Leiden algorithm)...");
+		long startTime=System.nanoTime();
+		int n=graph.sizeVertices();
+		Random random=new Random(this.seed);
+
+		int[] communities=new int[n]; // community of each vertex of the input graph
+		for(int i=0;i<n;i++)
+			communities[i]=i;
+		this.levels=0;
+		for(int iteration=0;iteration<this.iterations;iteration++) {
+			if(this.computeLevels(graph, communities, random)==false)
+				break; // the partition is stable
+		}
+		int k=splitCommunities(graph, communities);
+
+		double duration=(double)(System.nanoTime()-startTime)/1000000000.;
+		System.out.println("done ("+k+" communities, "+this.levels+" levels, "+duration+" seconds)");
+		return communities;
+	}
+
+	/**
+	 * Perform one iteration of the Leiden algorithm (all levels), starting from a given partition
+	 *
+	 * @param graph  the input network (weighted, without loops)
+	 * @param communities  the community of each vertex of the input graph (updated on output)
+	 * @return  true if the partition has changed
+	 */
+	protected boolean computeLevels(CompactGraph graph, int[] communities, Random random) {
+		int n=graph.sizeVertices();
+		int[] membership=new int[n]; // vertex of the current level containing each vertex of the input graph
+		for(int i=0;i<n;i++)
+			membership[i]=i;
+		int[] partition=communities.clone(); // community of each vertex of the current level
+		CompactGraph current=graph;
+		double[] loops=new double[n]; // weight of the loop of each vertex (internal weight of the aggregated sub-communities)
+		boolean changed=false;
+		int level=0;
+		while(level<this.maxLevels) {
+			int size=current.sizeVertices();
+			double[] degrees=new double[size]; // weighted degree of each vertex (loops count twice)
+			double m2=0.; // sum of the degrees (twice the total weight)
+			for(int i=0;i<size;i++) {
+				degrees[i]=current.weightedDegree(i)+2.*loops[i];
+				m2=m2+degrees[i];
+			}
+			if(m2==0.)
+				break;
+			if(moveVertices(current, loops, partition, random))
+				changed=true;
+			int k=LouvainAlgorithm.renumber(partition);
+			level++;
+			if(k==size)
+				break; // each community is a single vertex
+
+			// refinement, and aggregation of the sub-communities (of the communities if no vertices are merged)
+			int[] refined=this.refine(current, degrees, m2, partition, k, random);
+			int r=LouvainAlgorithm.renumber(refined);
+			int[] coarsePartition;
+			if(r<size) {
+				coarsePartition=new int[r]; // the initial community of a sub-community is its community
+				for(int i=0;i<size;i++)
+					coarsePartition[refined[i]]=partition[i];
+			}
+			else {
+				refined=partition;
+				r=k;
+				coarsePartition=new int[r];
+				for(int c=0;c<r;c++)
+					coarsePartition[c]=c;
+			}
+			double[] coarseLoops=new double[r];
+			current=LouvainAlgorithm.aggregate(current, loops, refined, r, coarseLoops);
+			loops=coarseLoops;
+			for(int i=0;i<n;i++)
+				membership[i]=refined[membership[i]];
+			partition=coarsePartition;
+		}
+		for(int i=0;i<n;i++)
+			communities[i]=partition[membership[i]];
+		this.levels=this.levels+level;
+		return changed;
+	}
+
+	/**
+	 * Split the communities into their connected components, and renumber them with indices 0..k-1
+	 * <p>
+	 * Remark: the aggregated graph of a level is computed from the communities (and not from the sub-communities) when
+	 * the refinement does not merge any vertices, the resulting communities can be disconnected (splitting a disconnected
+	 * community increases the modularity)
+	 *
+	 * @return  the number 'k' of communities
+	 */
+	static int splitCommunities(CompactGraph g, int[] communities) {
+		int n=g.sizeVertices();
+		int[] result=new int[n];
+		for(int i=0;i<n;i++)
+			result[i]=-1;
+		int[] stack=new int[n];
+		int k=0;
+		for(int s=0;s<n;s++) { // depth first search within the communities
+			if(result[s]>=0)
+				continue;
+			int top=0;
+			stack[top++]=s;
+			result[s]=k;
+			while(top>0) {
+				int i=stack[--top];
+				for(int e=g.offsets[i];e<g.offsets[i+1];e++) {
+					int j=g.targets[e];
+					if(result[j]<0 && communities[j]==communities[i]) {
+						result[j]=k;
+						stack[top++]=j;
+					}
+				}
+			}
+			k++;
+		}
+		System.arraycopy(result, 0, communities, 0, n);
+		return k;
+	}
+
+	/**
+	 * Fast local moving phase: each vertex of the queue is moved to the neighboring community maximizing
+	 * the modularity gain (see Modularity.bestCommunity). When a vertex moves, its neighbors lying in other communities
+	 * are added to the queue.
+	 * <p>
+	 * Remark: the queue is a circular array (each vertex is stored at most once)
+	 *
+	 * @param g  the current graph (weighted, without loops)
+	 * @param loops  the weight of the loop of each vertex
+	 * @param communities  the community of each vertex (updated on output)
+	 * @return  true if at least one vertex has changed community
+	 */
+	static boolean moveVertices(CompactGraph g, double[] loops, int[] communities, Random random) {
+		int n=g.sizeVertices();
+		int[] offsets=g.offsets, targets=g.targets;
+		Modularity modularity=new Modularity(g, loops, communities); // community totals and modularity of the partition
+
+		int[] queue=new int[n]; // vertices to visit (initially all vertices, in random order)
+		boolean[] queued=new boolean[n];
+		for(int i=0;i<n;i++)
+			queue[i]=i;
+		for(int i=n-1;i>0;i--) {
+			int j=random.nextInt(i+1);
+			int tmp=queue[i];
+			queue[i]=queue[j];
+			queue[j]=tmp;
+		}
+		for(int i=0;i<n;i++)
+			queued[i]=true;
+		int head=0, count=n; // the queue stores queue[head..head+count-1] (modulo n)
+
+		boolean moved=false;
+		while(count>0) {
+			int i=queue[head];
+			head=(head+1==n) ? 0 : head+1;
+			count--;
+			queued[i]=false;
+			int best=modularity.bestCommunity(i); // the current community in case of ties
+			if(best==modularity.getCommunity(i))
+				continue;
+
+			modularity.move(i, best);
+			communities[i]=best;
+			moved=true;
+			for(int e=offsets[i];e<offsets[i+1];e++) { // visit again the neighbors lying in other communities
+				int j=targets[e];
+				if(queued[j] || communities[j]==best)
+					continue;
+				queue[(head+count)%n]=j;
+				queued[j]=true;
+				count++;
+			}
+		}
+		return moved;
+	}
+
+	/**
+	 * Refinement phase: each community is split into sub-communities. Vertices are visited in random order,
+	 * a vertex which is still a singleton and is well connected to its community joins a sub-community (of the same community)
+	 * which is well connected to the community, and does not decrease the modularity. The sub-community is chosen at random,
+	 * with probability proportional to exp(gain/randomness)
+	 * <p>
+	 * Remark: a set S of vertices of a community C is well connected if w(S, C-S) >= deg(S)*(deg(C)-deg(S))/m2,
+	 * where w(S, C-S) is the weight of the edges between S and C-S, and deg(S) the sum of the degrees of S
+	 *
+	 * @param g  the current graph (weighted, without loops)
+	 * @param degrees  the weighted degree of each vertex
+	 * @param m2  the sum of the degrees
+	 * @param communities  the community of each vertex (a value between 0..k-1)
+	 * @param k  the number of communities
+	 * @return  the sub-community of each vertex
+	 */
+	protected int[] refine(CompactGraph g, double[] degrees, double m2, int[] communities, int k, Random random) {
+		int n=g.sizeVertices();
+		int[] offsets=g.offsets, targets=g.targets;
+		double[] weights=g.weights;
+
+		double[] communityTotals=new double[k]; // total degree of each community
+		for(int i=0;i<n;i++)
+			communityTotals[communities[i]]=communityTotals[communities[i]]+degrees[i];
+
+		int[] refined=new int[n]; // sub-community of each vertex (initially singletons)
+		double[] totals=new double[n]; // total degree of each sub-community
+		double[] external=new double[n]; // weight of the edges between each sub-community and the rest of its community
+		boolean[] singleton=new boolean[n]; // say whether a sub-community is a singleton
+		for(int i=0;i<n;i++) {
+			refined[i]=i;
+			totals[i]=degrees[i];
+			singleton[i]=true;
+			for(int e=offsets[i];e<offsets[i+1];e++) {
+				if(communities[targets[e]]==communities[i])
+					external[i]=external[i]+((weights==null) ? 1. : weights[e]);
+			}
+		}
+
+		int[] order=new int[n]; // order of visit of the vertices
+		for(int i=0;i<n;i++)
+			order[i]=i;
+		for(int i=n-1;i>0;i--) {
+			int j=random.nextInt(i+1);
+			int tmp=order[i];
+			order[i]=order[j];
+			order[j]=tmp;
+		}
+
+		double[] neighborWeights=new double[n]; // weight between the current vertex and each sub-community (scratch array)
+		boolean[] visited=new boolean[n];
+		int[] candidates=new int[n]; // sub-communities adjacent to the current vertex
+		double[] gains=new double[n]; // modularity gain of each candidate
+		for(int i: order) {
+			if(singleton[refined[i]]==false)
+				continue; // a vertex of a sub-community which is not a singleton does not move
+			int c=communities[i];
+			double ki=degrees[i], kc=communityTotals[c];
+			if(external[i]<ki*(kc-ki)/m2)
+				continue; // the vertex is not well connected to its community
+
+			// weights between vertex i and the sub-communities of its community
+			int size=0;
+			for(int e=offsets[i];e<offsets[i+1];e++) {
+				int j=targets[e];
+				if(communities[j]!=c)
+					continue;
+				int s=refined[j];
+				if(visited[s]==false) {
+					visited[s]=true;
+					candidates[size++]=s;
+				}
+				neighborWeights[s]=neighborWeights[s]+((weights==null) ? 1. : weights[e]);
+			}
+
+			// candidates: well connected sub-communities not decreasing the modularity (staying alone has gain 0)
+			int own=refined[i];
+			int count=0;
+			double maxGain=0.;
+			for(int p=0;p<size;p++) {
+				int s=candidates[p];
+				double gain=neighborWeights[s]-totals[s]*ki/m2;
+				if(gain>=0. && external[s]>=totals[s]*(kc-totals[s])/m2) {
+					candidates[count]=s;
+					gains[count]=gain;
+					count++;
+					maxGain=Math.max(maxGain, gain);
+				}
+			}
+
+			// random choice of the sub-community (with probability proportional to exp(gain/randomness))
+			int best=own;
+			if(count>0) {
+				double sum=Math.exp(-maxGain/this.randomness); // staying alone
+				for(int p=0;p<count;p++)
+					sum=sum+Math.exp((gains[p]-maxGain)/this.randomness);
+				double value=random.nextDouble()*sum-Math.exp(-maxGain/this.randomness);
+				for(int p=0;p<count && value>=0.;p++) {
+					best=candidates[p];
+					value=value-Math.exp((gains[p]-maxGain)/this.randomness);
+				}
+			}
+
+			double w=neighborWeights[best]; // weight between vertex i and the chosen sub-community
+			this.resetScratch(g, i, refined, visited, neighborWeights);
+			if(best==own)
+				continue;
+
+			// vertex i joins the sub-community 'best'
+			refined[i]=best;
+			totals[best]=totals[best]+ki;
+			external[best]=external[best]+external[i]-2.*w;
+			singleton[best]=false;
+			singleton[own]=false;
+		}
+		return refined;
+	}
+
+	/**
+	 * Reset the entries of the scratch arrays corresponding to the sub-communities adjacent to vertex i (sparse reset)
+	 */
+	private void resetScratch(CompactGraph g, int i, int[] refined, boolean[] visited, double[] neighborWeights) {
+		for(int e=g.offsets[i];e<g.offsets[i+1];e++) {
+			int s=refined[g.targets[e]];
+			visited[s]=false;
+			neighborWeights[s]=0.;
+		}
+	}
+
+}
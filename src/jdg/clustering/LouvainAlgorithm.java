@@ -1,22 +1,41 @@
 package jdg.clustering;
 
+import java.util.Random;
+
 import jdg.graph.AdjacencyListGraph;
-import jdg.graph.Node;
+import jdg.graph.CompactGraph;
 
 /**
- * This class provides an implementatino of the Louvain algorithm for Community detection
- * 
+ * This class provides an implementation of the Louvain algorithm for Community detection
+ * (Blondel, Guillaume, Lambiotte, Lefebvre, 2008)
+ * <p>
+ * Each pass performs two phases: <p>
+ * -) local moving: each vertex is moved to the neighboring community maximizing the modularity gain,
+ * until no vertex moves (or the gain becomes negligible) <p>
+ * -) aggregation: each community becomes a vertex of a weighted graph (in CSR representation), the weight
+ * of an edge being the sum of the weights of the edges between the two communities
+ * <p>
+ * Passes are repeated on the aggregated graph until no vertex moves.
+ * <p>
+ * Remark: all computations are performed on primitive arrays (node-to-community map, total degree of each
+ * community), the local moving phase relies on the incremental evaluation of the modularity (see Modularity)
+ *
  * @author Luca Castelli Aleardi (INF421, 2017)
  */
 public class LouvainAlgorithm extends CommunityDetection {
 
+	public double tolerance=1e-6; // a pass of local moving stops when the modularity gain is smaller than this value
+	public int maxLevels=100; // maximal number of aggregation levels
+	public boolean randomOrder=true; // say whether vertices are visited in random order (otherwise by increasing index)
+	public long seed=10; // seed of the random generator (the result is reproducible)
+	public int levels=0; // number of levels computed by the last run (for statistics)
+
 	/**
 	 * Initialize the parameters of the Louvain algorithm
 	 */
 	public LouvainAlgorithm() {
-		// TO DO
 	}
-	
+
 	/**
 	 * This method returns a partition of a network of size 'n' into communities,
 	 * computed by the Louvain algorithm <p>
@@ -24,30 +43,207 @@ public class LouvainAlgorithm extends CommunityDetection {
 	 * Remarks:<p>
 	 * -) the nodes of the networks are numbered 0..n-1
 	 * -) the graph is partitioned into 'k' communities, which have numbers 0..k-1
-	 * 
+	 *
 	 * @param graph  the input network (adjacency list representation)
 	 * @return an array of size 'n' storing, for each vertex, the index of its community (a value between 0..,k-1)
 	 */
 	public int[] computeClusters(AdjacencyListGraph graph) {
+		return this.computeClusters(new CompactGraph(graph));
+	}
+
+	/**
+	 * This method returns a partition of a network (in compact representation) into communities,
+	 * computed by the Louvain algorithm <p>
+	 * <p>
+	 * Remark: edge weights are taken into account (unit weights for unweighted graphs)
+	 *
+	 * @param graph  the input network (compact representation)
+	 * @return an array of size 'n' storing, for each vertex, the index of its community (a value between 0..,k-1)
+	 */
+	public int[] computeClusters(CompactGraph graph) {
+		System.out.print("Computing communities (Louvain algorithm)...");
+		long startTime=System.nanoTime();
 		int n=graph.sizeVertices();
-		int[] communities=new int[n];
-		
-		
-		
-		
-		
-		
-		
-		
-		
-		
-		
-		
-		
-		
+		Random random=new Random(this.seed);
+
+		int[] communities=new int[n]; // community of each vertex of the input graph
+		for(int i=0;i<n;i++)
+			communities[i]=i;
+		CompactGraph current=graph;
+		double[] loops=new double[n]; // weight of the loop of each vertex (internal weight of the aggregated communities)
+		this.levels=0;
+		while(this.levels<this.maxLevels) {
+			int size=current.sizeVertices();
+			int[] map=new int[size]; // community of each vertex of the current level
+			boolean moved=this.moveVertices(current, loops, map, random);
+			if(moved==false)
+				break;
+			int k=renumber(map);
+			for(int i=0;i<n;i++)
+				communities[i]=map[communities[i]];
+			this.levels++;
+			if(k==size)
+				break;
+
+			// aggregation: the communities are the vertices of the next level
+			double[] coarseLoops=new double[k];
+			current=aggregate(current, loops, map, k, coarseLoops);
+			loops=coarseLoops;
+		}
+		int k=(n==0) ? 0 : renumber(communities);
+
+		double duration=(double)(System.nanoTime()-startTime)/1000000000.;
+		System.out.println("done ("+k+" communities, "+this.levels+" levels, "+duration+" seconds)");
 		return communities;
-		
-		
+	}
+
+	/**
+	 * Local moving phase: each vertex is moved to the neighboring community maximizing the modularity gain.
+	 * Vertices are visited several times, until no vertex moves or the modularity gain of a pass is smaller than 'tolerance'
+	 *
+	 * @param g  the current graph (weighted, without loops)
+	 * @param loops  the weight of the loop of each vertex
+	 * @param communities  array storing (on output) the community of each vertex
+	 * @return  true if at least one vertex has changed community
+	 */
+	protected boolean moveVertices(CompactGraph g, double[] loops, int[] communities, Random random) {
+		int n=g.sizeVertices();
+		for(int i=0;i<n;i++)
+			communities[i]=i;
+		Modularity modularity=new Modularity(g, loops, communities); // community totals and modularity of the partition
+		if(modularity.totalWeight()==0.)
+			return false;
+
+		int[] order=new int[n]; // order of visit of the vertices
+		for(int i=0;i<n;i++)
+			order[i]=i;
+		if(this.randomOrder) {
+			for(int i=n-1;i>0;i--) {
+				int j=random.nextInt(i+1);
+				int tmp=order[i];
+				order[i]=order[j];
+				order[j]=tmp;
+			}
+		}
+
+		boolean moved=false;
+		double gain;
+		do {
+			int moves=0;
+			double previous=modularity.modularity();
+			for(int i: order) {
+				int best=modularity.bestCommunity(i); // the current community in case of ties
+				if(best!=modularity.getCommunity(i)) {
+					modularity.move(i, best);
+					moves++;
+				}
+			}
+			if(moves>0)
+				moved=true;
+			else
+				break;
+			gain=modularity.modularity()-previous;
+		} while(gain>this.tolerance);
+		for(int i=0;i<n;i++)
+			communities[i]=modularity.getCommunity(i);
+		return moved;
+	}
+
+	/**
+	 * Renumber the communities with consecutive indices 0..k-1 (in order of first appearance)
+	 *
+	 * @return  the number 'k' of communities
+	 */
+	static int renumber(int[] communities) {
+		int n=communities.length;
+		int[] index=new int[n];
+		for(int i=0;i<n;i++)
+			index[i]=-1;
+		int k=0;
+		for(int i=0;i<n;i++) {
+			int c=communities[i];
+			if(index[c]<0)
+				index[c]=k++;
+			communities[i]=index[c];
+		}
+		return k;
+	}
+
+	/**
+	 * Compute the aggregated graph, whose vertices are the communities: the weight of an edge is the sum of the weights
+	 * of the edges between two communities, and the weight of the loop of a community is the sum of its internal weights
+	 * <p>
+	 * Remark: the CSR arrays are filled community after community (vertices are grouped by community with a counting sort),
+	 * the weights between a community and its neighbors are accumulated in a scratch array which is reset sparsely
+	 *
+	 * @param g  the current graph (weighted, without loops)
+	 * @param loops  the weight of the loop of each vertex
+	 * @param communities  the community of each vertex (a value between 0..k-1)
+	 * @param k  the number of communities
+	 * @param coarseLoops  array of size 'k' storing (on output) the weight of the loop of each community
+	 * @return  the aggregated graph (weighted, without loops)
+	 */
+	static CompactGraph aggregate(CompactGraph g, double[] loops, int[] communities, int k, double[] coarseLoops) {
+		int n=g.sizeVertices();
+		int[] offsets=g.offsets, targets=g.targets;
+		double[] weights=g.weights;
+
+		// group the vertices by community (counting sort)
+		int[] start=new int[k+1];
+		for(int i=0;i<n;i++)
+			start[communities[i]+1]++;
+		for(int c=0;c<k;c++)
+			start[c+1]=start[c+1]+start[c];
+		int[] members=new int[n];
+		int[] next=new int[k];
+		System.arraycopy(start, 0, next, 0, k);
+		for(int i=0;i<n;i++)
+			members[next[communities[i]]++]=i;
+
+		// fill the CSR arrays of the aggregated graph (the number of arcs is at most the number of arcs of g)
+		int[] coarseOffsets=new int[k+1];
+		int[] coarseTargets=new int[targets.length];
+		double[] coarseWeights=new double[targets.length];
+		double[] neighborWeights=new double[k]; // weight between the current community and its neighbors (scratch array)
+		boolean[] visited=new boolean[k];
+		int[] neighbors=new int[k];
+		int m=0;
+		for(int c=0;c<k;c++) {
+			int count=0;
+			double internal=0.;
+			for(int p=start[c];p<start[c+1];p++) {
+				int i=members[p];
+				internal=internal+loops[i];
+				for(int e=offsets[i];e<offsets[i+1];e++) {
+					int d=communities[targets[e]];
+					double w=(weights==null) ? 1. : weights[e];
+					if(d==c) {
+						internal=internal+0.5*w; // each internal edge is visited twice
+						continue;
+					}
+					if(visited[d]==false) {
+						visited[d]=true;
+						neighbors[count++]=d;
+					}
+					neighborWeights[d]=neighborWeights[d]+w;
+				}
+			}
+			coarseLoops[c]=internal;
+			for(int p=0;p<count;p++) {
+				int d=neighbors[p];
+				coarseTargets[m]=d;
+				coarseWeights[m]=neighborWeights[d];
+				m++;
+				neighborWeights[d]=0.; // sparse reset
+				visited[d]=false;
+			}
+			coarseOffsets[c+1]=m;
+		}
+		int[] resultTargets=new int[m];
+		double[] resultWeights=new double[m];
+		System.arraycopy(coarseTargets, 0, resultTargets, 0, m);
+		System.arraycopy(coarseWeights, 0, resultWeights, 0, m);
+		return new CompactGraph(coarseOffsets, resultTargets, resultWeights);
 	}
 
 }
@@ -0,0 +1,373 @@
+package jdg.clustering;
+
+import java.util.concurrent.ForkJoinPool;
+
+import jdg.graph.CompactGraph;
+import jdg.util.ChunkTask;
+
+/**
+ * This class provides the computation of the modularity of a partition, in O(n+m) time, and an incremental
+ * evaluation of the modularity when vertices change community
+ * <p>
+ * The modularity of a partition is Q = sum_c (in_c/2m - (tot_c/2m)^2), where in_c is twice the weight of
+ * the edges inside community c, tot_c is the sum of the degrees of the vertices of c, and 2m is the sum of
+ * all degrees.
+ * <p>
+ * An instance stores the partition, and maintains for each community its internal weight and total degree:
+ * the modularity change of moving one vertex is computed in O(degree) time (as well as the move itself), and so is
+ * the best community of a vertex. The local moving phases of the Louvain and Leiden algorithms are built on it.
+ * <p>
+ * Remark: edge weights are taken into account (unit weights for unweighted graphs), communities have indices
+ * between 0 and n-1 (a vertex can be moved to an empty community). Vertices can have loops (aggregated graphs
+ * of the Louvain algorithm): the loop of a vertex is internal to its community, and counts twice in its degree
+ */
+public class Modularity {
+
+	public static int chunkSize=4096; // number of vertices processed by one parallel task
+
+	private CompactGraph g; // the input network
+	private double[] loops; // weight of the loop of each vertex (null if there is no loop)
+	private int[] communities; // community of each vertex
+	private double[] degrees; // weighted degree of each vertex
+	private double[] internal; // internal weight of each community (twice the weight of its edges)
+	private double[] totals; // total degree of each community
+	private double m2; // sum of the degrees (twice the total weight)
+	private double sumInternal; // sum of the internal weights
+	private double sumSquares; // sum of the squared total degrees
+
+	private double[] neighborWeights; // weight between a vertex and each community (scratch array, allocated when needed)
+	private int[] neighborCommunities; // communities adjacent to a vertex (entries of the scratch array to reset)
+	private int evaluatedVertex=-1; // last vertex evaluated by bestCommunity() (-1 after a move)
+	private int evaluatedCommunity; // best community of the evaluated vertex
+	private double currentWeight, bestWeight; // weights between the evaluated vertex and its current and best communities
+
+	/**
+	 * Initialize the incremental evaluation of the modularity, for a given partition (in O(n+m) time)
+	 *
+	 * @param g  the input network (compact representation)
+	 * @param communities  an array of size 'n' storing, for each vertex, the index of its community (a value between 0..n-1)
+	 */
+	public Modularity(CompactGraph g, int[] communities) {
+		this(g, null, communities);
+	}
+
+	/**
+	 * Initialize the incremental evaluation of the modularity, for a given partition of a graph having loops (in O(n+m) time)
+	 *
+	 * @param g  the input network (compact representation, without loops)
+	 * @param loops  the weight of the loop of each vertex (null if there is no loop)
+	 * @param communities  an array of size 'n' storing, for each vertex, the index of its community (a value between 0..n-1)
+	 */
+	public Modularity(CompactGraph g, double[] loops, int[] communities) {
+		int n=g.sizeVertices();
+		if(communities.length!=n)
+			throw new Error("Error: the partition does not match the number of vertices ("+communities.length+" versus "+n+")");
+		this.g=g;
+		this.loops=loops;
+		this.communities=communities.clone();
+		this.degrees=new double[n];
+		this.internal=new double[n];
+		this.totals=new double[n];
+		for(int i=0;i<n;i++) {
+			int c=this.communities[i];
+			if(c<0 || c>=n)
+				throw new Error("Error: wrong community "+c+" of vertex v"+i);
+			this.degrees[i]=g.weightedDegree(i)+((loops==null) ? 0. : 2.*loops[i]);
+			this.totals[c]=this.totals[c]+this.degrees[i];
+			this.m2=this.m2+this.degrees[i];
+			if(loops!=null)
+				this.internal[c]=this.internal[c]+2.*loops[i];
+			for(int e=g.offsets[i];e<g.offsets[i+1];e++) {
+				if(this.communities[g.targets[e]]==c)
+					this.internal[c]=this.internal[c]+weight(g, e);
+			}
+		}
+		for(int c=0;c<n;c++) {
+			this.sumInternal=this.sumInternal+this.internal[c];
+			this.sumSquares=this.sumSquares+this.totals[c]*this.totals[c];
+		}
+	}
+
+	/**
+	 * Return the modularity of the current partition (in O(1) time)
+	 */
+	public double modularity() {
+		if(this.m2==0.)
+			return 0.;
+		return this.sumInternal/this.m2-this.sumSquares/(this.m2*this.m2);
+	}
+
+	/**
+	 * Return the sum of the degrees (twice the total weight of the edges, loops included)
+	 */
+	public double totalWeight() {
+		return this.m2;
+	}
+
+	/**
+	 * Return the community of vertex v
+	 */
+	public int getCommunity(int v) {
+		return this.communities[v];
+	}
+
+	/**
+	 * Return the internal weight of community c (twice the weight of the edges between its vertices)
+	 */
+	public double internalWeight(int c) {
+		return this.internal[c];
+	}
+
+	/**
+	 * Return the total degree of community c (the sum of the degrees of its vertices)
+	 */
+	public double totalDegree(int c) {
+		return this.totals[c];
+	}
+
+	/**
+	 * Return the modularity change of moving vertex v to community c (in O(degree) time),
+	 * the partition is not modified
+	 *
+	 * @param v  a vertex (a value between 0 and n-1)
+	 * @param c  the destination community (a value between 0 and n-1)
+	 * @return  the modularity of the partition after the move minus the current modularity
+	 */
+	public double delta(int v, int c) {
+		int current=this.communities[v];
+		if(c==current || this.m2==0.)
+			return 0.;
+		double wCurrent=0., wTarget=0.; // weights between v and the two communities
+		for(int e=this.g.offsets[v];e<this.g.offsets[v+1];e++) {
+			int d=this.communities[this.g.targets[e]];
+			if(d==current)
+				wCurrent=wCurrent+weight(this.g, e);
+			else if(d==c)
+				wTarget=wTarget+weight(this.g, e);
+		}
+		double kv=this.degrees[v];
+		double a=this.totals[current], b=this.totals[c];
+		double squares=(a-kv)*(a-kv)+(b+kv)*(b+kv)-a*a-b*b;
+		return 2.*(wTarget-wCurrent)/this.m2-squares/(this.m2*this.m2);
+	}
+
+	/**
+	 * Move vertex v to community c (in O(degree) time), and update the internal weights and total degrees
+	 *
+	 * @param v  a vertex (a value between 0 and n-1)
+	 * @param c  the destination community (a value between 0 and n-1)
+	 */
+	public void move(int v, int c) {
+		int current=this.communities[v];
+		if(c==current)
+			return;
+		if(c<0 || c>=this.communities.length)
+			throw new Error("Error: wrong community "+c);
+		double wCurrent=0., wTarget=0.; // weights between v and the two communities
+		if(v==this.evaluatedVertex && c==this.evaluatedCommunity) { // computed by bestCommunity()
+			wCurrent=this.currentWeight;
+			wTarget=this.bestWeight;
+		}
+		else {
+			for(int e=this.g.offsets[v];e<this.g.offsets[v+1];e++) {
+				int d=this.communities[this.g.targets[e]];
+				if(d==current)
+					wCurrent=wCurrent+weight(this.g, e);
+				else if(d==c)
+					wTarget=wTarget+weight(this.g, e);
+			}
+		}
+		this.evaluatedVertex=-1;
+		double kv=this.degrees[v];
+		this.sumSquares=this.sumSquares-this.totals[current]*this.totals[current]-this.totals[c]*this.totals[c];
+		this.totals[current]=this.totals[current]-kv;
+		this.totals[c]=this.totals[c]+kv;
+		this.sumSquares=this.sumSquares+this.totals[current]*this.totals[current]+this.totals[c]*this.totals[c];
+		double loop=(this.loops==null) ? 0. : 2.*this.loops[v]; // the loop of v moves with v
+		this.internal[current]=this.internal[current]-2.*wCurrent-loop;
+		this.internal[c]=this.internal[c]+2.*wTarget+loop;
+		this.sumInternal=this.sumInternal-2.*wCurrent+2.*wTarget;
+		this.communities[v]=c;
+	}
+
+	/**
+	 * Return the community of vertex v maximizing the modularity (in O(degree) time): the current community of v
+	 * or one of the communities of its neighbors (the current one in case of ties). The partition is not modified,
+	 * the next call to move(v, c) with the returned community does not scan the neighbors of v again
+	 *
+	 * @param v  a vertex (a value between 0 and n-1)
+	 * @return  the best community of v
+	 */
+	public int bestCommunity(int v) {
+		if(this.neighborWeights==null) {
+			this.neighborWeights=new double[this.communities.length];
+			this.neighborCommunities=new int[this.communities.length];
+		}
+		int best=this.bestCommunity(v, this.neighborWeights, this.neighborCommunities, true);
+		this.evaluatedVertex=v;
+		return best;
+	}
+
+	/**
+	 * Return the community of vertex v maximizing the modularity (see bestCommunity(v)), using scratch arrays
+	 * provided by the caller: several vertices can be evaluated concurrently, as long as no vertex moves
+	 *
+	 * @param v  a vertex (a value between 0 and n-1)
+	 * @param neighborWeights  scratch array of size n, storing zeros (reset on output)
+	 * @param neighborCommunities  scratch array of size n
+	 * @return  the best community of v
+	 */
+	public int bestCommunity(int v, double[] neighborWeights, int[] neighborCommunities) {
+		return this.bestCommunity(v, neighborWeights, neighborCommunities, false);
+	}
+
+	/**
+	 * Compute the best community of vertex v: the modularity change of moving v from community a to community b is
+	 * 2/m2*((w_b-tot_b*k_v/m2)-(w_a-(tot_a-k_v)*k_v/m2)), where w_c is the weight between v and community c
+	 */
+	private int bestCommunity(int v, double[] neighborWeights, int[] neighborCommunities, boolean store) {
+		int[] offsets=this.g.offsets, targets=this.g.targets;
+		double[] weights=this.g.weights;
+		int current=this.communities[v];
+		double kv=this.degrees[v];
+
+		// weights between vertex v and its neighboring communities
+		int count=0;
+		neighborCommunities[count++]=current;
+		for(int e=offsets[v];e<offsets[v+1];e++) {
+			int c=this.communities[targets[e]];
+			if(neighborWeights[c]==0. && c!=current)
+				neighborCommunities[count++]=c;
+			neighborWeights[c]=neighborWeights[c]+((weights==null) ? 1. : weights[e]);
+		}
+
+		// vertex v is removed from its community
+		int best=current;
+		double bestGain=neighborWeights[current]-(this.totals[current]-kv)*kv/this.m2;
+		for(int p=1;p<count;p++) {
+			int c=neighborCommunities[p];
+			double value=neighborWeights[c]-this.totals[c]*kv/this.m2;
+			if(value>bestGain) {
+				bestGain=value;
+				best=c;
+			}
+		}
+		if(store) {
+			this.evaluatedCommunity=best;
+			this.currentWeight=neighborWeights[current];
+			this.bestWeight=neighborWeights[best];
+		}
+
+		for(int p=0;p<count;p++) // sparse reset of the scratch array
+			neighborWeights[neighborCommunities[p]]=0.;
+		return best;
+	}
+
+	/**
+	 * Return (a copy of) the current partition
+	 */
+	public int[] getCommunities() {
+		return this.communities.clone();
+	}
+
+	private static double weight(CompactGraph g, int e) {
+		return (g.weights==null) ? 1. : g.weights[e];
+	}
+
+	/**
+	 * Compute the modularity of a partition (in O(n+m) time)
+	 *
+	 * @param g  the input network (compact representation)
+	 * @param communities  an array of size 'n' storing, for each vertex, the index of its community (a non negative value)
+	 * @return  the modularity of the partition
+	 */
+	public static double compute(CompactGraph g, int[] communities) {
+		return compute(g, null, communities, null);
+	}
+
+	/**
+	 * Compute the modularity of a partition (in O(n+m) time): the internal weights are computed in parallel,
+	 * over chunks of vertices
+	 * <p>
+	 * Remark: the partial sums of the chunks are added in a fixed order, the result does not depend on the number of threads
+	 *
+	 * @param g  the input network (compact representation)
+	 * @param communities  an array of size 'n' storing, for each vertex, the index of its community (a non negative value)
+	 * @param threads  number of threads
+	 * @return  the modularity of the partition
+	 */
+	public static double compute(CompactGraph g, int[] communities, int threads) {
+		ForkJoinPool pool=(threads>1) ? new ForkJoinPool(threads) : null;
+		try {
+			return compute(g, null, communities, pool);
+		} finally {
+			if(pool!=null)
+				pool.shutdown();
+		}
+	}
+
+	/**
+	 * Compute the modularity of a partition of a graph having loops (in O(n+m) time), such as the aggregated graphs
+	 * of the Louvain algorithm: the loop of a vertex is internal to its community, and counts twice in its degree
+	 *
+	 * @param g  the input network (compact representation, without loops)
+	 * @param loops  the weight of the loop of each vertex (null if there is no loop)
+	 * @param communities  an array of size 'n' storing, for each vertex, the index of its community (a non negative value)
+	 * @param pool  worker threads computing the internal weights (null for sequential computations)
+	 * @return  the modularity of the partition
+	 */
+	public static double compute(final CompactGraph g, final double[] loops, final int[] communities, ForkJoinPool pool) {
+		final int n=g.sizeVertices();
+		if(communities.length!=n)
+			throw new Error("Error: the partition does not match the number of vertices ("+communities.length+" versus "+n+")");
+		int k=0; // number of communities
+		for(int i=0;i<n;i++) {
+			if(communities[i]<0)
+				throw new Error("Error: wrong community "+communities[i]+" of vertex v"+i);
+			k=Math.max(k, communities[i]+1);
+		}
+
+		// internal weights and degrees, for each chunk of vertices
+		int count=(n+chunkSize-1)/chunkSize;
+		final double[] internalSums=new double[count], degreeSums=new double[count];
+		ChunkTask.forEach(pool, count, new ChunkTask() {
+			public void run(int chunk) {
+				double internal=0., degrees=0.;
+				for(int i=chunk*chunkSize;i<Math.min(n, (chunk+1)*chunkSize);i++) {
+					int c=communities[i];
+					if(loops!=null) {
+						internal=internal+2.*loops[i];
+						degrees=degrees+2.*loops[i];
+					}
+					for(int e=g.offsets[i];e<g.offsets[i+1];e++) {
+						double w=weight(g, e);
+						degrees=degrees+w;
+						if(communities[g.targets[e]]==c)
+							internal=internal+w;
+					}
+				}
+				internalSums[chunk]=internal;
+				degreeSums[chunk]=degrees;
+			}
+		});
+		double sumInternal=0., m2=0.;
+		for(int chunk=0;chunk<count;chunk++) {
+			sumInternal=sumInternal+internalSums[chunk];
+			m2=m2+degreeSums[chunk];
+		}
+		if(m2==0.)
+			return 0.;
+
+		// total degree of each community
+		double[] totals=new double[k];
+		for(int i=0;i<n;i++) {
+			double degree=g.weightedDegree(i)+((loops==null) ? 0. : 2.*loops[i]);
+			totals[communities[i]]=totals[communities[i]]+degree;
+		}
+		double sumSquares=0.;
+		for(int c=0;c<k;c++)
+			sumSquares=sumSquares+totals[c]*totals[c];
+		return sumInternal/m2-sumSquares/(m2*m2);
+	}
+
+}
@@ -0,0 +1,209 @@
+package jdg.clustering;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import jdg.graph.AdjacencyListGraph;
+import jdg.graph.CompactGraph;
+import jdg.util.ChunkTask;
+
+/**
+ * This class provides a parallel implementation of the Louvain algorithm for Community detection:
+ * the local moving phase evaluates the moves of the vertices concurrently (Lu, Halappanavar, Kalyanaraman, 2015)
+ * <p>
+ * The vertices are colored (greedy coloring, neighbors have distinct colors) and processed color after color:
+ * the vertices of a color are not adjacent, so that their neighbors do not change community while their moves are evaluated
+ * (two neighbors cannot swap their communities forever). The moves of the vertices of a color are evaluated in parallel,
+ * over chunks of vertices, with the community totals computed before the color. They are then applied in the order
+ * of the vertices, and the community totals are updated.
+ * <p>
+ * Remark: the chunks do not depend on the number of threads, and the moves are applied in a fixed order:
+ * for a given seed, the result does not depend on the number of threads (nor on the scheduling of the tasks)
+ */
+public class ParallelLouvainAlgorithm extends LouvainAlgorithm {
+
+	public int threads; // number of threads
+	public static int chunkSize=512; // number of vertices processed by one parallel task
+	private ForkJoinPool pool=null; // worker threads (null when moves are evaluated sequentially)
+
+	/**
+	 * Initialize the parameters of the parallel Louvain algorithm
+	 *
+	 * @param threads  number of threads evaluating the moves of the vertices
+	 */
+	public ParallelLouvainAlgorithm(int threads) {
+		this.threads=Math.max(threads, 1);
+	}
+
+	/**
+	 * This method returns a partition of a network (in compact representation) into communities,
+	 * computed by the parallel Louvain algorithm
+	 *
+	 * @param graph  the input network (compact representation)
+	 * @return an array of size 'n' storing, for each vertex, the index of its community (a value between 0..,k-1)
+	 */
+	public int[] computeClusters(CompactGraph graph) {
+		this.pool=(this.threads>1) ? new ForkJoinPool(this.threads) : null;
+		try {
+			return super.computeClusters(graph);
+		} finally {
+			if(this.pool!=null)
+				this.pool.shutdown(); // release the worker threads
+			this.pool=null;
+		}
+	}
+
+	/**
+	 * This method returns a partition of a network of size 'n' into communities,
+	 * computed by the parallel Louvain algorithm
+	 *
+	 * @param graph  the input network (adjacency list representation)
+	 * @return an array of size 'n' storing, for each vertex, the index of its community (a value between 0..,k-1)
+	 */
+	public int[] computeClusters(AdjacencyListGraph graph) {
+		return this.computeClusters(new CompactGraph(graph));
+	}
+
+	/**
+	 * Local moving phase (parallel version): the vertices are processed color after color, the moves of the vertices
+	 * of a color are evaluated in parallel and then applied. Vertices are visited several times, until no vertex moves
+	 * or the modularity gain of a pass (computed after the pass) is smaller than 'tolerance'
+	 * <p>
+	 * Remark: a pass lowering the modularity (when the vertices oscillate) is undone
+	 *
+	 * @param g  the current graph (weighted, without loops)
+	 * @param loops  the weight of the loop of each vertex
+	 * @param communities  array storing (on output) the community of each vertex
+	 * @return  true if at least one vertex has changed community
+	 */
+	protected boolean moveVertices(CompactGraph g, double[] loops, int[] communities, Random random) {
+		final int n=g.sizeVertices();
+		for(int i=0;i<n;i++)
+			communities[i]=i;
+		final Modularity modularity=new Modularity(g, loops, communities); // community totals and modularity of the partition
+		if(modularity.totalWeight()==0.)
+			return false;
+
+		// vertices grouped by color: the vertices of color c are order[colorStart[c]..colorStart[c+1]-1]
+		int[] colors=color(g, random);
+		int colorCount=0;
+		for(int i=0;i<n;i++)
+			colorCount=Math.max(colorCount, colors[i]+1);
+		int[] colorStart=new int[colorCount+1];
+		for(int i=0;i<n;i++)
+			colorStart[colors[i]+1]++;
+		for(int c=0;c<colorCount;c++)
+			colorStart[c+1]=colorStart[c+1]+colorStart[c];
+		final int[] order=new int[n];
+		int[] next=new int[colorCount];
+		System.arraycopy(colorStart, 0, next, 0, colorCount);
+		for(int i=0;i<n;i++)
+			order[next[colors[i]]++]=i;
+
+		final int[] best=new int[n]; // best community of each vertex (evaluated with the totals of the previous color)
+		final ThreadLocal<Scratch> scratch=new ThreadLocal<Scratch>() { // scratch arrays (one per thread)
+			protected Scratch initialValue() {
+				return new Scratch(n);
+			}
+		};
+		boolean moved=false;
+		int[] previousCommunities=new int[n]; // partition before the current pass
+		while(true) {
+			for(int i=0;i<n;i++)
+				previousCommunities[i]=modularity.getCommunity(i);
+			double previous=modularity.modularity();
+			int moves=0;
+			for(int c=0;c<colorCount;c++) {
+				final int start=colorStart[c], end=colorStart[c+1];
+				int count=(end-start+chunkSize-1)/chunkSize;
+				ChunkTask.forEach(this.pool, count, new ChunkTask() {
+					public void run(int chunk) {
+						int first=start+chunk*chunkSize, last=Math.min(end, first+chunkSize);
+						Scratch arrays=scratch.get();
+						for(int p=first;p<last;p++) {
+							int i=order[p]; // the current community in case of ties
+							best[i]=modularity.bestCommunity(i, arrays.neighborWeights, arrays.neighborCommunities);
+						}
+					}
+				});
+
+				// apply the moves (in a fixed order)
+				for(int p=start;p<end;p++) {
+					int i=order[p];
+					if(best[i]==modularity.getCommunity(i))
+						continue;
+					modularity.move(i, best[i]);
+					moves++;
+				}
+			}
+			if(moves==0)
+				break;
+			double gain=modularity.modularity()-previous; // actual gain of the pass
+			if(gain<0.) { // the vertices oscillate: the pass is undone
+				for(int i=0;i<n;i++)
+					modularity.move(i, previousCommunities[i]);
+				break;
+			}
+			moved=true;
+			if(gain<=this.tolerance)
+				break;
+		}
+		for(int i=0;i<n;i++)
+			communities[i]=modularity.getCommunity(i);
+		return moved;
+	}
+
+	/**
+	 * Scratch arrays storing the weights between a vertex and its neighboring communities
+	 * (reset sparsely after each vertex)
+	 */
+	private static class Scratch {
+		final double[] neighborWeights;
+		final int[] neighborCommunities;
+
+		Scratch(int n) {
+			this.neighborWeights=new double[n];
+			this.neighborCommunities=new int[n];
+		}
+	}
+
+	/**
+	 * Compute a greedy coloring of the vertices (neighbors have distinct colors): vertices are visited in random order,
+	 * and get the smallest color not used by their neighbors
+	 *
+	 * @return  the color of each vertex (a value between 0 and the maximal degree)
+	 */
+	static int[] color(CompactGraph g, Random random) {
+		int n=g.sizeVertices();
+		int[] order=new int[n];
+		for(int i=0;i<n;i++)
+			order[i]=i;
+		for(int i=n-1;i>0;i--) {
+			int j=random.nextInt(i+1);
+			int tmp=order[i];
+			order[i]=order[j];
+			order[j]=tmp;
+		}
+
+		int[] colors=new int[n];
+		for(int i=0;i<n;i++)
+			colors[i]=-1;
+		int maxDegree=0;
+		for(int i=0;i<n;i++)
+			maxDegree=Math.max(maxDegree, g.degree(i));
+		int[] forbidden=new int[maxDegree+2]; // forbidden[c]==i+1 when color c is used by a neighbor of vertex i
+		for(int i: order) {
+			for(int e=g.offsets[i];e<g.offsets[i+1];e++) {
+				int c=colors[g.targets[e]];
+				if(c>=0)
+					forbidden[c]=i+1;
+			}
+			int c=0;
+			while(forbidden[c]==i+1)
+				c++;
+			colors[i]=c;
+		}
+		return colors;
+	}
+
+}
@@ -275,6 +275,32 @@ public class AdjacencyListGraph implements Graph {
     	return result;
     }
     
+    /**
+     * Return an estimation (in bytes) of the memory used for storing the graph topology (neighbor lists)
+     * <p>
+     * Remark: nodes are not taken into account, array lists are assumed to be filled with successive insertions
+     */		   
+    public long memoryFootprint() {
+    	long result=24+CompactGraph.arraySize(listCapacity(this.vertices.size()), 4); // the list of vertices
+    	for(Node v: this.vertices) {
+    		if(v!=null) // one array list per vertex, storing references to its neighbors
+    			result=result+24+CompactGraph.arraySize(listCapacity(v.neighbors.size()), 4);
+    	}
+    	return result;
+    }
+    
+    /**
+     * Capacity of an array list of given size, after successive insertions (the capacity grows by 50%)
+     */		   
+    private static int listCapacity(int size) {
+    	if(size==0)
+    		return 0;
+    	int capacity=10;
+    	while(capacity<size)
+    		capacity=capacity+(capacity>>1);
+    	return capacity;
+    }
+    
     /**
      * Return a string containing informations and parameters of the graph
      */		   
@@ -0,0 +1,270 @@
+package jdg.graph;
+
+import java.util.*;
+
+import Jcg.geometry.Point_3;
+
+/**
+ * Compressed sparse row (CSR) representation of an undirected graph
+ * <p>
+ * The neighbors of vertex i are stored in targets[offsets[i]..offsets[i+1]-1]:
+ * each edge (u, v) is stored twice, as (u, v) and (v, u).
+ * Edge weights (optional) are stored in a parallel array.
+ * <p>
+ * Remark: the topology is immutable, nodes (storing geometric coordinates, colors and labels)
+ * are shared with the input graph or created on demand
+ */
+public class CompactGraph implements Graph {
+
+	public int[] offsets; // offsets[i] is the position of the first neighbor of vertex i (array of size n+1)
+	public int[] targets; // neighbor indices (array of size 2m)
+	public double[] weights; // edge weights (null for unweighted graphs)
+
+	private Node[] nodes=null; // nodes of the graph (created on demand)
+	private HashMap<String,Node> labelMap=null; // map between vertices and their labels
+
+	/**
+	 * Create a graph from its CSR arrays (nodes are created on demand)
+	 *
+	 * @param offsets  array of size n+1 storing the position of the neighbors of each vertex
+	 * @param targets  array of size 2m storing the neighbor indices
+	 * @param weights  array of size 2m storing the edge weights (null for unweighted graphs)
+	 */
+	public CompactGraph(int[] offsets, int[] targets, double[] weights) {
+		if(offsets==null || targets==null || offsets.length==0 || offsets[offsets.length-1]!=targets.length)
+			throw new Error("Graph error: wrong CSR arrays");
+		if(weights!=null && weights.length!=targets.length)
+			throw new Error("Graph error: the number of weights does not match the number of arcs");
+		this.offsets=offsets;
+		this.targets=targets;
+		this.weights=weights;
+	}
+
+	/**
+	 * Create a graph from its CSR arrays, with a given set of nodes
+	 */
+	public CompactGraph(int[] offsets, int[] targets, double[] weights, Node[] nodes) {
+		this(offsets, targets, weights);
+		if(nodes!=null && nodes.length!=offsets.length-1)
+			throw new Error("Graph error: the number of nodes does not match the CSR arrays");
+		this.nodes=nodes;
+	}
+
+	/**
+	 * Compute the CSR representation of an adjacency list graph
+	 * <p>
+	 * Remark: nodes are shared with the input graph (and neighbors keep the same order)
+	 *
+	 * @param g  the input graph (vertices are assumed to have indices 0..n-1)
+	 */
+	public CompactGraph(AdjacencyListGraph g) {
+		int n=g.sizeVertices();
+		this.nodes=new Node[n];
+		this.offsets=new int[n+1];
+		for(int i=0;i<n;i++) {
+			Node u=g.getNode(i);
+			if(u.index!=i)
+				throw new Error("Graph error: wrong vertex index v"+u.index+" (expected "+i+")");
+			this.nodes[i]=u;
+			this.offsets[i+1]=this.offsets[i]+u.degree();
+		}
+		this.targets=new int[this.offsets[n]];
+		for(int i=0;i<n;i++) {
+			int pos=this.offsets[i];
+			for(Node v: this.nodes[i].neighbors)
+				this.targets[pos++]=v.index;
+		}
+		this.weights=null;
+	}
+
+	/**
+	 * Return a (pointer based) copy of the graph: nodes, coordinates and colors are copied
+	 */
+	public AdjacencyListGraph toAdjacencyListGraph() {
+		int n=this.sizeVertices();
+		AdjacencyListGraph result;
+		if(this.nodes!=null && this.getLabelMap().isEmpty()==false)
+			result=new AdjacencyListGraph(n);
+		else
+			result=new AdjacencyListGraph();
+		result.vertices.ensureCapacity(n);
+
+		for(int i=0;i<n;i++) {
+			Node u;
+			if(this.nodes!=null) {
+				Node old=this.nodes[i];
+				Point_3 p=(old.p==null) ? new Point_3() : new Point_3(old.p);
+				u=new Node(i, p, old.color, old.label);
+				u.tag=old.tag;
+				u.weight=old.weight;
+			}
+			else
+				u=new Node(i);
+			u.neighbors=new ArrayList<Node>(this.degree(i));
+			result.addNode(u);
+		}
+		for(int i=0;i<n;i++) { // neighbors are added directly: the CSR arrays have no loops and no multiple edges
+			ArrayList<Node> neighbors=result.vertices.get(i).neighbors;
+			for(int j=this.offsets[i];j<this.offsets[i+1];j++)
+				neighbors.add(result.vertices.get(this.targets[j]));
+		}
+		return result;
+	}
+
+	private synchronized void createNodes() {
+		if(this.nodes!=null)
+			return;
+		Node[] result=new Node[this.sizeVertices()];
+		for(int i=0;i<result.length;i++)
+			result[i]=new Node(i);
+		this.nodes=result;
+	}
+
+	private HashMap<String,Node> getLabelMap() {
+		if(this.labelMap==null) {
+			this.createNodes();
+			HashMap<String,Node> map=new HashMap<String,Node>();
+			for(Node u: this.nodes) {
+				if(u.label!=null)
+					map.put(u.label, u);
+			}
+			this.labelMap=map;
+		}
+		return this.labelMap;
+	}
+
+	public Node getNode(int index) {
+		if(index<0 || index>=this.sizeVertices())
+			return null;
+		if(this.nodes==null)
+			this.createNodes();
+		return this.nodes[index];
+	}
+
+	public Node getNode(String label) {
+		return this.getLabelMap().get(label);
+	}
+
+	public void addEdge(Node d, Node a) {
+		throw new Error("Graph error: compact graphs cannot be modified (use an AdjacencyListGraph)");
+	}
+
+	public void removeEdge(Node d, Node a) {
+		throw new Error("Graph error: compact graphs cannot be modified (use an AdjacencyListGraph)");
+	}
+
+	public void addNode(Node v) {
+		throw new Error("Graph error: compact graphs cannot be modified (use an AdjacencyListGraph)");
+	}
+
+	public void removeNode(Node v) {
+		throw new Error("Graph error: compact graphs cannot be modified (use an AdjacencyListGraph)");
+	}
+
+	public boolean adjacent(Node a, Node b) {
+		if(a==null || b==null)
+			throw new Error("Graph error: vertices not defined");
+		return this.adjacent(a.index, b.index);
+	}
+
+	/**
+	 * Check whether vertices i and j are adjacent (in O(degree(i)) time)
+	 */
+	public boolean adjacent(int i, int j) {
+		for(int e=this.offsets[i];e<this.offsets[i+1];e++) {
+			if(this.targets[e]==j)
+				return true;
+		}
+		return false;
+	}
+
+	public int degree(Node v) {
+		return this.degree(v.index);
+	}
+
+	public int degree(int i) {
+		return this.offsets[i+1]-this.offsets[i];
+	}
+
+	/**
+	 * Return the weighted degree of vertex i (its degree for unweighted graphs)
+	 */
+	public double weightedDegree(int i) {
+		if(this.weights==null)
+			return this.offsets[i+1]-this.offsets[i];
+		double result=0.;
+		for(int e=this.offsets[i];e<this.offsets[i+1];e++)
+			result=result+this.weights[e];
+		return result;
+	}
+
+	/**
+	 * Return a (read-only) view of the neighbors of v
+	 */
+	public Collection<Node> getNeighbors(Node v) {
+		final int start=this.offsets[v.index];
+		final int size=this.degree(v.index);
+		return new AbstractList<Node>() {
+			public Node get(int i) {
+				if(i<0 || i>=size)
+					throw new IndexOutOfBoundsException("neighbor "+i);
+				return getNode(targets[start+i]);
+			}
+			public int size() {
+				return size;
+			}
+		};
+	}
+
+	public int sizeVertices() {
+		return this.offsets.length-1;
+	}
+
+	/**
+	 * Return the number of edges
+	 *
+	 * Remark: edges are not counted twice
+	 */
+	public int sizeEdges() {
+		return this.targets.length/2;
+	}
+
+	/**
+	 * Return an estimation (in bytes) of the memory used for storing the graph topology (CSR arrays)
+	 * <p>
+	 * Remark: nodes are not taken into account
+	 */
+	public long memoryFootprint() {
+		long result=arraySize(this.offsets.length, 4)+arraySize(this.targets.length, 4);
+		if(this.weights!=null)
+			result=result+arraySize(this.weights.length, 8);
+		return result;
+	}
+
+	/**
+	 * Size (in bytes) of a java array, assuming a 64 bits JVM with compressed references
+	 */
+	static long arraySize(long length, int elementSize) {
+		long size=16+length*elementSize;
+		return (size+7)/8*8;
+	}
+
+	public String info() {
+		int n=this.sizeVertices();
+		int isolatedVertices=0;
+		int maxDegree=0;
+		for(int i=0;i<n;i++) {
+			int d=this.degree(i);
+			if(d==0)
+				isolatedVertices++;
+			maxDegree=Math.max(maxDegree, d);
+		}
+		String result=n+" vertices, "+this.sizeEdges()+" edges\n";
+		result=result+"isolated vertices: "+isolatedVertices+"\n";
+		result=result+"max vertex degree: "+maxDegree+"\n";
+		if(this.weights!=null)
+			result=result+"the graph is weighted\n";
+		return result;
+	}
+
+}
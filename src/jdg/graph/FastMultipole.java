@@ -0,0 +1,443 @@
+package jdg.graph;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The fast multipole method (Greengard and Rokhlin, 1987) for computing repulsive forces in 2D.
+ * <p>
+ * Points are seen as complex numbers: the displacement k2*(p-q)/d^2 produced by a point q on a point p
+ * (the force k2/d of Fruchterman and Reingold) is k2 times the conjugate of 1/(p-q). The field 1/(z-q) is analytic,
+ * and is approximated with truncated expansions of 'order' terms:
+ * <br>-) multipole expansion of a cell of center c: sum_k a_k/(z-c)^(k+1), with a_k= sum_q (q-c)^k
+ * <br>-) local expansion of a cell of center c: sum_l b_l (z-c)^l
+ * <p>
+ * The tree is a complete quadtree whose leaves store about 'leafSize' points. Multipole expansions are computed
+ * bottom-up (P2M, M2M), local expansions top-down (M2L from the cells of the interaction list, L2L from the parent):
+ * the forces between points in neighboring leaves are computed exactly. The cost is linear in the number of points
+ * (for a fixed order), and the relative error decreases geometrically with the order.
+ * <p>
+ * Remark: the tree is uniform, which is well suited for points having bounded density (such as drawings
+ * of meshes); points concentrated in a few leaves increase the cost of the exact near-field interactions
+ */
+public class FastMultipole {
+
+	public static int leafSize=32; // maximal average number of points per leaf (for uniformly distributed points)
+	public static int maxDepth=10; // maximal depth of the tree
+	public static int maxOrder=30; // maximal number of terms of the expansions
+	private static final int grain=64; // number of cells processed by one parallel task
+
+	public final int sizePoints; // number of points
+	public final int order; // number of terms of the multipole and local expansions
+	public final int depth; // depth of the tree (leaves are at level 'depth')
+	double originX, originY; // bottom left corner of the root cell
+	double dimension; // side length of the root cell
+
+	private int[] levelOffset; // cells of level l have indices levelOffset[l]..levelOffset[l+1]-1 (row major order)
+	private int[] count; // number of points in each cell
+	private double[] multipoleRe, multipoleIm; // multipole expansion of each cell (coefficients of cell c start at c*order)
+	private double[] localRe, localIm; // local expansion of each cell
+	private double[][] m2lRe, m2lIm; // translation operators of each level, for each relative position of the cells
+
+	private double[] x, y; // point coordinates
+	private int[] leafOf; // leaf containing each point (index in the leaf level)
+	private int[] leafStart; // points of leaf c are stored at positions leafStart[c]..leafStart[c+1]-1 of the sorted arrays
+	private double[] sx, sy; // point coordinates, sorted by leaf
+
+	private static double[][] binomial; // binomial coefficients (up to 2*maxOrder)
+
+	/**
+	 * Build the tree of a set of points and compute the multipole and local expansions of the cells
+	 *
+	 * @param x  x-coordinates of the points
+	 * @param y  y-coordinates of the points
+	 * @param n  number of points
+	 * @param order  number of terms of the expansions
+	 * @param pool  worker threads used for computing the expansions (sequential computation if null)
+	 */
+	public FastMultipole(double[] x, double[] y, int n, int order, ForkJoinPool pool) {
+		if(order<1 || order>maxOrder)
+			throw new Error("Wrong expansion order: "+order+" (must be between 1 and "+maxOrder+")");
+		this.x=x;
+		this.y=y;
+		this.sizePoints=n;
+		this.order=order;
+		computeBinomials();
+
+		// the depth is chosen such that leaves store about leafSize points
+		int l=0;
+		while(l<maxDepth && (1L<<(2*l))*leafSize<n)
+			l++;
+		this.depth=l;
+		this.levelOffset=new int[this.depth+2];
+		for(l=0;l<=this.depth;l++)
+			this.levelOffset[l+1]=this.levelOffset[l]+(1<<(2*l));
+		int cells=this.levelOffset[this.depth+1];
+		this.count=new int[cells];
+		this.multipoleRe=new double[cells*order];
+		this.multipoleIm=new double[cells*order];
+		this.localRe=new double[cells*order];
+		this.localIm=new double[cells*order];
+
+		this.sortPoints(x, y, n);
+		this.computeOperators();
+		this.upwardPass(pool);
+		this.downwardPass(pool);
+	}
+
+	private static synchronized void computeBinomials() {
+		if(binomial!=null)
+			return;
+		double[][] b=new double[2*maxOrder+1][];
+		for(int i=0;i<b.length;i++) {
+			b[i]=new double[i+1];
+			b[i][0]=b[i][i]=1.;
+			for(int j=1;j<i;j++)
+				b[i][j]=b[i-1][j-1]+b[i-1][j];
+		}
+		binomial=b;
+	}
+
+	/**
+	 * Compute the root cell, and sort the points by leaf (counting sort)
+	 */
+	private void sortPoints(double[] x, double[] y, int n) {
+		double xmin=Double.MAX_VALUE, xmax=-Double.MAX_VALUE, ymin=Double.MAX_VALUE, ymax=-Double.MAX_VALUE;
+		for(int i=0;i<n;i++) {
+			xmin=Math.min(xmin, x[i]);
+			xmax=Math.max(xmax, x[i]);
+			ymin=Math.min(ymin, y[i]);
+			ymax=Math.max(ymax, y[i]);
+		}
+		if(n==0) {
+			xmin=xmax=ymin=ymax=0.;
+		}
+		this.dimension=Math.max(Math.max(xmax-xmin, ymax-ymin), 1e-9)*1.0001;
+		this.originX=(xmin+xmax-this.dimension)/2.;
+		this.originY=(ymin+ymax-this.dimension)/2.;
+
+		int side=1<<this.depth, leaves=side*side;
+		int first=this.levelOffset[this.depth];
+		this.leafOf=new int[n];
+		this.leafStart=new int[leaves+1];
+		for(int i=0;i<n;i++) {
+			int a=Math.min((int)((x[i]-this.originX)/this.dimension*side), side-1);
+			int b=Math.min((int)((y[i]-this.originY)/this.dimension*side), side-1);
+			int c=a+b*side;
+			this.leafOf[i]=c;
+			this.leafStart[c+1]++;
+		}
+		for(int c=0;c<leaves;c++) {
+			this.count[first+c]=this.leafStart[c+1];
+			this.leafStart[c+1]=this.leafStart[c+1]+this.leafStart[c];
+		}
+		this.sx=new double[n];
+		this.sy=new double[n];
+		int[] position=new int[leaves]; // insertion position in each leaf
+		System.arraycopy(this.leafStart, 0, position, 0, leaves);
+		for(int i=0;i<n;i++) {
+			int s=position[this.leafOf[i]]++;
+			this.sx[s]=x[i];
+			this.sy[s]=y[i];
+		}
+	}
+
+	/**
+	 * Compute the M2L operators of each level: a cell receives the multipole expansions of cells whose relative
+	 * position (in cells) is in [-3, 3]x[-3, 3] (neighbors excluded).
+	 * The operator for a translation vector t (from the source to the target center) is the matrix
+	 * T[j][k]= (-1)^j C(k+j, k) t^-(k+j+1), giving the local coefficients b_j= sum_k T[j][k] a_k
+	 */
+	private void computeOperators() {
+		int p=this.order;
+		this.m2lRe=new double[this.depth+1][];
+		this.m2lIm=new double[this.depth+1][];
+		double[] powRe=new double[2*p+1], powIm=new double[2*p+1];
+		for(int l=2;l<=this.depth;l++) {
+			double width=this.cellWidth(l);
+			double[] re=new double[49*p*p], im=new double[49*p*p];
+			for(int b=-3;b<=3;b++) {
+				for(int a=-3;a<=3;a++) {
+					if(Math.abs(a)<=1 && Math.abs(b)<=1)
+						continue; // neighboring cells: no translation
+					double tRe=a*width, tIm=b*width;
+					double t2=tRe*tRe+tIm*tIm;
+					double invRe=tRe/t2, invIm=-tIm/t2; // 1/t
+					powRe[0]=1.;
+					powIm[0]=0.;
+					for(int m=1;m<=2*p;m++) {
+						powRe[m]=powRe[m-1]*invRe-powIm[m-1]*invIm;
+						powIm[m]=powRe[m-1]*invIm+powIm[m-1]*invRe;
+					}
+					int base=((a+3)+7*(b+3))*p*p;
+					for(int j=0;j<p;j++) { // coefficient of the local expansion
+						double sign=(j%2==0) ? 1. : -1.;
+						for(int k=0;k<p;k++) { // coefficient of the multipole expansion
+							double coefficient=sign*binomial[k+j][k];
+							re[base+j*p+k]=coefficient*powRe[k+j+1];
+							im[base+j*p+k]=coefficient*powIm[k+j+1];
+						}
+					}
+				}
+			}
+			this.m2lRe[l]=re;
+			this.m2lIm[l]=im;
+		}
+	}
+
+	/**
+	 * Side length of the cells of level l
+	 */
+	public double cellWidth(int l) {
+		return this.dimension/(1<<l);
+	}
+
+	/**
+	 * Coordinates of the center of the cell (a, b) of level l
+	 */
+	private double centerX(int l, int a) {
+		return this.originX+(a+0.5)*this.cellWidth(l);
+	}
+
+	private double centerY(int l, int b) {
+		return this.originY+(b+0.5)*this.cellWidth(l);
+	}
+
+	/**
+	 * Compute the multipole expansions of the leaves (P2M), then of the internal cells (M2M)
+	 */
+	private void upwardPass(ForkJoinPool pool) {
+		final int p=this.order;
+		final int side=1<<this.depth;
+		forEachCell(pool, side*side, new CellRange() {
+			public void run(int start, int end) {
+				int first=levelOffset[depth];
+				for(int c=start;c<end;c++) {
+					double cx=centerX(depth, c%side), cy=centerY(depth, c/side);
+					int base=(first+c)*p;
+					for(int s=leafStart[c];s<leafStart[c+1];s++) {
+						double wRe=sx[s]-cx, wIm=sy[s]-cy;
+						double powRe=1., powIm=0.; // (q-c)^k
+						for(int k=0;k<p;k++) {
+							multipoleRe[base+k]+=powRe;
+							multipoleIm[base+k]+=powIm;
+							double re=powRe*wRe-powIm*wIm;
+							powIm=powRe*wIm+powIm*wRe;
+							powRe=re;
+						}
+					}
+				}
+			}
+		});
+
+		for(int l=this.depth-1;l>=0;l--) {
+			final int level=l, width=1<<l;
+			forEachCell(pool, width*width, new CellRange() {
+				public void run(int start, int end) {
+					double[] powRe=new double[p], powIm=new double[p];
+					double quarter=cellWidth(level)/4.;
+					for(int c=start;c<end;c++) {
+						int a=c%width, b=c/width;
+						int parent=levelOffset[level]+c;
+						for(int child=0;child<4;child++) {
+							int ca=2*a+(child&1), cb=2*b+(child>>1);
+							int d=levelOffset[level+1]+ca+cb*2*width;
+							if(count[d]==0)
+								continue;
+							count[parent]+=count[d];
+							// shift from the center of the child to the center of the parent: a'_k= sum_j C(k,j) a_j z0^(k-j)
+							double z0Re=((child&1)==0) ? -quarter : quarter, z0Im=((child>>1)==0) ? -quarter : quarter;
+							powers(z0Re, z0Im, powRe, powIm);
+							for(int k=0;k<p;k++) {
+								double re=0., im=0.;
+								for(int j=0;j<=k;j++) {
+									double bin=binomial[k][j];
+									double mRe=multipoleRe[d*p+j], mIm=multipoleIm[d*p+j];
+									double zRe=powRe[k-j], zIm=powIm[k-j];
+									re+=bin*(mRe*zRe-mIm*zIm);
+									im+=bin*(mRe*zIm+mIm*zRe);
+								}
+								multipoleRe[parent*p+k]+=re;
+								multipoleIm[parent*p+k]+=im;
+							}
+						}
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Compute the local expansions of the cells, from the top of the tree: the local expansion of the parent
+	 * is shifted to the child (L2L), and the multipole expansions of the cells in the interaction list are translated (M2L)
+	 */
+	private void downwardPass(ForkJoinPool pool) {
+		final int p=this.order;
+		for(int l=2;l<=this.depth;l++) {
+			final int level=l, width=1<<l;
+			final double[] operatorRe=this.m2lRe[l], operatorIm=this.m2lIm[l];
+			forEachCell(pool, width*width, new CellRange() {
+				public void run(int start, int end) {
+					double[] powRe=new double[p], powIm=new double[p];
+					double quarter=cellWidth(level-1)/4.;
+					for(int c=start;c<end;c++) {
+						int a=c%width, b=c/width;
+						int target=levelOffset[level]+c;
+						if(level==depth && count[target]==0)
+							continue; // no point to evaluate
+						int base=target*p;
+
+						// L2L: b''_m= sum_{l>=m} b_l C(l,m) z0^(l-m), where z0 is the shift from the parent center
+						if(level>2) {
+							int parent=levelOffset[level-1]+(a>>1)+(b>>1)*(width>>1);
+							double z0Re=((a&1)==0) ? -quarter : quarter, z0Im=((b&1)==0) ? -quarter : quarter;
+							powers(z0Re, z0Im, powRe, powIm);
+							for(int m=0;m<p;m++) {
+								double re=0., im=0.;
+								for(int j=m;j<p;j++) {
+									double bin=binomial[j][m];
+									double lRe=localRe[parent*p+j], lIm=localIm[parent*p+j];
+									double zRe=powRe[j-m], zIm=powIm[j-m];
+									re+=bin*(lRe*zRe-lIm*zIm);
+									im+=bin*(lRe*zIm+lIm*zRe);
+								}
+								localRe[base+m]=re;
+								localIm[base+m]=im;
+							}
+						}
+
+						// M2L: the interaction list contains the children of the neighbors of the parent, which are not neighbors of the cell
+						int pa=a>>1, pb=b>>1;
+						for(int sb=Math.max(2*pb-2, 0);sb<=Math.min(2*pb+3, width-1);sb++) {
+							for(int sa=Math.max(2*pa-2, 0);sa<=Math.min(2*pa+3, width-1);sa++) {
+								if(Math.abs(sa-a)<=1 && Math.abs(sb-b)<=1)
+									continue;
+								int source=levelOffset[level]+sa+sb*width;
+								if(count[source]==0)
+									continue;
+								int operator=((a-sa+3)+7*(b-sb+3))*p*p;
+								for(int j=0;j<p;j++) {
+									double re=0., im=0.;
+									int row=operator+j*p;
+									for(int k=0;k<p;k++) {
+										double tRe=operatorRe[row+k], tIm=operatorIm[row+k];
+										double mRe=multipoleRe[source*p+k], mIm=multipoleIm[source*p+k];
+										re+=tRe*mRe-tIm*mIm;
+										im+=tRe*mIm+tIm*mRe;
+									}
+									localRe[base+j]+=re;
+									localIm[base+j]+=im;
+								}
+							}
+						}
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Compute the powers z^0, ..., z^(p-1) of a complex number z
+	 */
+	private static void powers(double zRe, double zIm, double[] powRe, double[] powIm) {
+		powRe[0]=1.;
+		powIm[0]=0.;
+		for(int m=1;m<powRe.length;m++) {
+			powRe[m]=powRe[m-1]*zRe-powIm[m-1]*zIm;
+			powIm[m]=powRe[m-1]*zIm+powIm[m-1]*zRe;
+		}
+	}
+
+	/**
+	 * Compute the displacement of point i due to the repulsive forces of all points: each point q at distance d
+	 * produces a displacement k2*(p-q)/d^2 (the force k2/d of Fruchterman and Reingold).
+	 * <p>
+	 * Points in the neighboring leaves are processed exactly, the other ones with the local expansion of the leaf of i.
+	 * Points coinciding with p are ignored.
+	 *
+	 * @param i  index of the point (the point locations are the ones given when building the tree)
+	 * @param result  array storing the result (x and y components of the displacement)
+	 * @return the number of computed interactions
+	 */
+	public int computeRepulsiveForce(int i, double k2, double[] result) {
+		int p=this.order;
+		int side=1<<this.depth;
+		int c=this.leafOf[i];
+		int a=c%side, b=c/side;
+		double px=this.x[i], py=this.y[i];
+		double fRe=0., fIm=0.;
+		int interactions=0;
+
+		// far field: local expansion of the leaf (Horner scheme)
+		if(this.depth>=2) {
+			int leaf=this.levelOffset[this.depth]+c;
+			double uRe=px-this.centerX(this.depth, a), uIm=py-this.centerY(this.depth, b);
+			for(int j=p-1;j>=0;j--) {
+				double re=fRe*uRe-fIm*uIm+this.localRe[leaf*p+j];
+				fIm=fRe*uIm+fIm*uRe+this.localIm[leaf*p+j];
+				fRe=re;
+			}
+			interactions++;
+		}
+		// the displacement is the conjugate of the field
+		double fx=fRe, fy=-fIm;
+
+		// near field: exact forces of the points in the 3x3 neighboring leaves
+		for(int nb=Math.max(b-1, 0);nb<=Math.min(b+1, side-1);nb++) {
+			for(int na=Math.max(a-1, 0);na<=Math.min(a+1, side-1);na++) {
+				int d=na+nb*side;
+				for(int s=this.leafStart[d];s<this.leafStart[d+1];s++) {
+					double dx=px-this.sx[s], dy=py-this.sy[s];
+					double d2=dx*dx+dy*dy;
+					if(d2>0.) {
+						fx+=dx/d2;
+						fy+=dy/d2;
+						interactions++;
+					}
+				}
+			}
+		}
+		result[0]=k2*fx;
+		result[1]=k2*fy;
+		return interactions;
+	}
+
+	public String toString() {
+		return "fast multipole tree: depth "+this.depth+", "+this.levelOffset[this.depth+1]+" cells, "+this.sizePoints+" points, order "+this.order;
+	}
+
+	/**
+	 * A computation performed on a range of cells
+	 */
+	private interface CellRange {
+		void run(int start, int end);
+	}
+
+	/**
+	 * Process cells 0..n-1 of a level, in parallel if a pool of threads is provided
+	 * (each task only writes the expansions of its own cells)
+	 */
+	private static void forEachCell(ForkJoinPool pool, final int n, final CellRange task) {
+		if(pool==null || n<=grain) {
+			task.run(0, n);
+			return;
+		}
+		pool.invoke(new RecursiveAction() {
+			protected void compute() {
+				List<RecursiveAction> tasks=new ArrayList<RecursiveAction>();
+				for(int s=0;s<n;s+=grain) {
+					final int from=s, to=Math.min(n, s+grain);
+					tasks.add(new RecursiveAction() {
+						protected void compute() {
+							task.run(from, to);
+						}
+					});
+				}
+				invokeAll(tasks);
+			}
+		});
+	}
+
+}
@@ -0,0 +1,190 @@
+package jdg.graph;
+
+import java.util.Arrays;
+
+/**
+ * Bulk construction of (undirected) graphs
+ * <p>
+ * Edges are collected in primitive arrays, loops and multiple edges are removed
+ * with two counting sort passes: the resulting graph is computed in O(n+m) time.
+ * <p>
+ * Remark: neighbors are sorted by increasing index in the resulting graphs,
+ * for multiple edges only the weight of the first occurrence is kept
+ */
+public class GraphBuilder {
+
+	private int n; // number of vertices (with indices 0..n-1)
+	private int size=0; // number of collected edges (including loops and multiple edges)
+	private int[] sources; // first endpoint of each edge
+	private int[] destinations; // second endpoint of each edge
+	private double[] weights=null; // edge weights (null if all edges have unit weight)
+
+	/**
+	 * Initialize a builder for a graph having 'n' vertices
+	 */
+	public GraphBuilder(int n) {
+		this(n, 16);
+	}
+
+	/**
+	 * Initialize a builder for a graph having 'n' vertices and (approximately) 'm' edges
+	 */
+	public GraphBuilder(int n, int m) {
+		if(n<0)
+			throw new Error("Error: wrong number of vertices "+n);
+		this.n=n;
+		this.sources=new int[Math.max(m, 16)];
+		this.destinations=new int[this.sources.length];
+	}
+
+	/**
+	 * Add the edge (u, v), with unit weight
+	 */
+	public void addEdge(int u, int v) {
+		if(u<0 || u>=n || v<0 || v>=n)
+			throw new Error("Error: wrong vertex indices "+u+" "+v);
+		if(this.size==this.sources.length)
+			this.grow();
+		this.sources[this.size]=u;
+		this.destinations[this.size]=v;
+		if(this.weights!=null)
+			this.weights[this.size]=1.;
+		this.size++;
+	}
+
+	/**
+	 * Add the edge (u, v) having a given weight
+	 */
+	public void addEdge(int u, int v, double weight) {
+		if(this.weights==null) {
+			this.weights=new double[this.sources.length];
+			Arrays.fill(this.weights, 0, this.size, 1.);
+		}
+		this.addEdge(u, v);
+		this.weights[this.size-1]=weight;
+	}
+
+	/**
+	 * Add all edges collected by another builder (having the same number of vertices)
+	 */
+	public void addEdges(GraphBuilder other) {
+		if(other.n!=this.n)
+			throw new Error("Error: the number of vertices does not match ("+other.n+" versus "+this.n+")");
+		if(other.weights!=null && this.weights==null) {
+			this.weights=new double[this.sources.length];
+			Arrays.fill(this.weights, 0, this.size, 1.);
+		}
+		while(this.size+other.size>this.sources.length)
+			this.grow();
+		System.arraycopy(other.sources, 0, this.sources, this.size, other.size);
+		System.arraycopy(other.destinations, 0, this.destinations, this.size, other.size);
+		if(this.weights!=null) {
+			if(other.weights!=null)
+				System.arraycopy(other.weights, 0, this.weights, this.size, other.size);
+			else
+				Arrays.fill(this.weights, this.size, this.size+other.size, 1.);
+		}
+		this.size=this.size+other.size;
+	}
+
+	private void grow() {
+		int capacity=Math.max(16, this.sources.length+(this.sources.length>>1));
+		this.sources=Arrays.copyOf(this.sources, capacity);
+		this.destinations=Arrays.copyOf(this.destinations, capacity);
+		if(this.weights!=null)
+			this.weights=Arrays.copyOf(this.weights, capacity);
+	}
+
+	public int sizeVertices() {
+		return this.n;
+	}
+
+	/**
+	 * Return the number of collected edges (including loops and multiple edges)
+	 */
+	public int sizeCollectedEdges() {
+		return this.size;
+	}
+
+	/**
+	 * Compute the compact (CSR) representation of the graph
+	 */
+	public CompactGraph toCompactGraph() {
+		// store each edge (u, v) as (min, max), loops are removed
+		int[] a=new int[this.size];
+		int[] b=new int[this.size];
+		int[] position=new int[this.size]; // position of the edge in the input arrays (to retrieve weights)
+		int count=0;
+		for(int e=0;e<this.size;e++) {
+			int u=this.sources[e], v=this.destinations[e];
+			if(u==v)
+				continue;
+			a[count]=Math.min(u, v);
+			b[count]=Math.max(u, v);
+			position[count]=e;
+			count++;
+		}
+
+		// sort edges in lexicographic order: stable counting sort on 'b', then on 'a'
+		int[] a2=new int[count], b2=new int[count], position2=new int[count];
+		countingSort(b, a, b, position, a2, b2, position2, count, this.n);
+		countingSort(a2, a2, b2, position2, a, b, position, count, this.n);
+
+		// remove multiple edges and compute vertex degrees
+		int[] offsets=new int[this.n+1];
+		int m=0;
+		for(int e=0;e<count;e++) {
+			if(m>0 && a[e]==a[m-1] && b[e]==b[m-1])
+				continue;
+			a[m]=a[e];
+			b[m]=b[e];
+			position[m]=position[e];
+			offsets[a[m]+1]++;
+			offsets[b[m]+1]++;
+			m++;
+		}
+		for(int i=0;i<this.n;i++)
+			offsets[i+1]=offsets[i+1]+offsets[i];
+
+		// fill the CSR arrays: rows are sorted, since edges are in lexicographic order
+		int[] targets=new int[2*m];
+		double[] edgeWeights=(this.weights==null) ? null : new double[2*m];
+		int[] next=Arrays.copyOf(offsets, this.n);
+		for(int e=0;e<m;e++) {
+			int u=a[e], v=b[e];
+			if(edgeWeights!=null) {
+				edgeWeights[next[u]]=this.weights[position[e]];
+				edgeWeights[next[v]]=this.weights[position[e]];
+			}
+			targets[next[u]++]=v;
+			targets[next[v]++]=u;
+		}
+		return new CompactGraph(offsets, targets, edgeWeights);
+	}
+
+	/**
+	 * Compute the adjacency list representation of the graph (vertices are located at the origin)
+	 */
+	public AdjacencyListGraph toAdjacencyListGraph() {
+		return this.toCompactGraph().toAdjacencyListGraph();
+	}
+
+	/**
+	 * Stable counting sort of the first 'count' edges, according to 'key' (whose values are in 0..range-1)
+	 */
+	private static void countingSort(int[] key, int[] a, int[] b, int[] position,
+			int[] resultA, int[] resultB, int[] resultPosition, int count, int range) {
+		int[] start=new int[range+1];
+		for(int e=0;e<count;e++)
+			start[key[e]+1]++;
+		for(int i=0;i<range;i++)
+			start[i+1]=start[i+1]+start[i];
+		for(int e=0;e<count;e++) {
+			int pos=start[key[e]]++;
+			resultA[pos]=a[e];
+			resultB[pos]=b[e];
+			resultPosition[pos]=position[e];
+		}
+	}
+
+}
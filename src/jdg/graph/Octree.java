@@ -1,238 +1,669 @@
-// This Class is a simple implementation of the Octree data structure for Barnes and Hut version of the  FR-Algorithm.
-
-
 package jdg.graph;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * A linear octree for the Barnes and Hut version of the FR-Algorithm
+ * <p>
+ * Points are sorted according to their Morton codes (10 bits per coordinate): the points of each cell
+ * are then stored in a contiguous range of the sorted order. Cells are stored in flat arrays (the children
+ * of a cell are contiguous), leaves store up to 'leafSize' points (or more, for cells at maximal depth).
+ * <p>
+ * The tree can be built in parallel (fork/join). When points move, the tree can be refitted (see refit()):
+ * barycenters are recomputed bottom-up, and only the points which left their leaf are reinserted.
+ */
+public class Octree {
+
+	public static final int maxDepth=10; // maximal depth of the tree (number of bits per coordinate in Morton codes)
+	public static int leafSize=8; // maximal number of points stored in a leaf (except at maximal depth)
+	public static int grain=1<<13; // minimal number of points for building sub-trees in parallel
+	public static double margin=0.125; // the root cube is enlarged by this fraction of the bounding box (on each side)
+
+	public double dimension; // side length of the root cube
+	public double originX, originY, originZ; // corner of the root cube
+
+	public int sizePoints; // number of points
+	int[] order; // indices of the points, sorted by Morton code
+	double[] sx, sy, sz; // coordinates of the points, sorted by Morton code
+	long[] codes; // sorted Morton codes
+
+	public int sizeCells=0; // number of cells
+	int[] firstChild; // index of the first child of each cell (-1 for leaves)
+	int[] childCount; // number of children of each cell
+	int[] start, end; // points of each cell: sorted positions start..end-1
+	int[] level; // depth of each cell
+	double[] baryX, baryY, baryZ; // barycenter of each cell
+	int[] count; // number of points stored in each cell
+
+	// data used for refitting the tree (allocated at the first refit), points are given by their sorted position
+	int[] rangeLeaf; // leaf whose range contains the point
+	int[] home; // leaf currently storing the point
+	boolean[] moved; // whether the point has been reinserted in another leaf
+	int[] extraHead; // first point reinserted in a leaf (-1 if none)
+	int[] extraNext; // next point reinserted in the same leaf
+	double[] extent; // side length of the bounding box of the points of each cell
+	private double[] minX, minY, minZ, maxX, maxY, maxZ; // bounding boxes (used for refitting)
+
+	/**
+	 * Build the octree storing the node locations of a graph (sequentially)
+	 */
+	public Octree(Graph g) {
+		this(coordinates(g, 0), coordinates(g, 1), coordinates(g, 2), g.sizeVertices(), null);
+	}
 
-import Jcg.geometry.Point_3;
-import jdg.graph.Node;
-
-public class Octree implements Cloneable {
-
-	public double dimension;
-	public Point_3 origin;
-
-	public Point_3 baryCenter;
-
-	public ArrayList<Node> nodeList = new ArrayList<Node>();
-
-	public Octree parent=null;
-
-	public ArrayList<Octree> subCubes = null;
-
-
-	public Octree(Point_3 orig, double dim) {
-		
-		this.origin = orig;
-		this.dimension = dim;
-		this.nodeList = new ArrayList<Node>();
-		this.baryCenter = new Point_3();
-
-	}
-	
-	
-	public Octree(AdjacencyListGraph g) {
-		
-		double[] bounds = this.getBounds(g);
-		this.origin = new Point_3(bounds[0],bounds[1],bounds[2]);;
-		this.dimension = bounds[3];
-		this.nodeList = new ArrayList<Node>();
-		this.baryCenter = new Point_3();
-		this.fillTree(g);
-
-	
-	}
-
-
-	public void fillTree(AdjacencyListGraph g) {
-		
-		for(Node u: g.vertices) {
-			this.insertVertex(u);
-		}
-		
-	}
-	
-	public void instantiateSubCubes() {
-		this.subCubes = new ArrayList<Octree>(8);
-		
-		
-		Point_3 subOrigin = new Point_3(this.origin);
-		Octree genericTree = new Octree(subOrigin, this.dimension/2);
-		genericTree.parent = this;
-		this.subCubes.add(genericTree);
-		
-		subOrigin = new Point_3(this.origin);
-		subOrigin.setX(this.origin.x + this.dimension / 2);
-		genericTree = new Octree(subOrigin, this.dimension/2);
-		genericTree.parent = this;
-		this.subCubes.add(genericTree);
-		
-		subOrigin = new Point_3(this.origin);
-		subOrigin.setY(this.origin.y + this.dimension / 2);
-		genericTree = new Octree(subOrigin, this.dimension/2);
-		genericTree.parent = this;
-		this.subCubes.add(genericTree);
-		
-		subOrigin = new Point_3(this.origin);
-		subOrigin.setX(this.origin.x + this.dimension / 2);
-		subOrigin.setY(this.origin.y + this.dimension / 2);
-		genericTree = new Octree(subOrigin, this.dimension/2);
-		genericTree.parent = this;
-		this.subCubes.add(genericTree);
-		
-		subOrigin = new Point_3(this.origin);
-		subOrigin.setZ(this.origin.z + this.dimension / 2);
-		genericTree = new Octree(subOrigin, this.dimension/2);
-		genericTree.parent = this;
-		this.subCubes.add(genericTree);
-		
-		subOrigin = new Point_3(this.origin);
-		subOrigin.setX(this.origin.x + this.dimension / 2);
-		subOrigin.setZ(this.origin.z + this.dimension / 2);
-		genericTree = new Octree(subOrigin, this.dimension/2);
-		genericTree.parent = this;
-		this.subCubes.add(genericTree);
-		
-		subOrigin = new Point_3(this.origin);
-		subOrigin.setY(this.origin.y + this.dimension / 2);
-		subOrigin.setZ(this.origin.z + this.dimension / 2);
-		genericTree = new Octree(subOrigin, this.dimension/2);
-		genericTree.parent = this;
-		this.subCubes.add(genericTree);
-		
-		subOrigin = new Point_3(this.origin);
-		subOrigin.setX(this.origin.x + this.dimension / 2);
-		subOrigin.setY(this.origin.y + this.dimension / 2);
-		subOrigin.setZ(this.origin.z + this.dimension / 2);
-		genericTree = new Octree(subOrigin, this.dimension/2);
-		genericTree.parent = this;
-		this.subCubes.add(genericTree);
-	}
-	
-	public void insertVertex(Node node) {
-
-		if (!this.containsNode(node))
-			return;
-
-		int N = this.nodeList.size();
-		this.nodeList.add(node);
-
-		this.baryCenter.x *= N;
-		this.baryCenter.x += node.p.x;
-		this.baryCenter.x /= N + 1;
-
-		this.baryCenter.y *= N;
-		this.baryCenter.y += node.p.y;
-		this.baryCenter.y /= N + 1;
-
-		this.baryCenter.z *= N;
-		this.baryCenter.z += node.p.z;
-		this.baryCenter.z /= N + 1;
-		
-		N++;
-		
-		if (this.subCubes == null && N == 2) {
-			this.instantiateSubCubes();
-
-			for (Node n : this.nodeList) {
-				this.subCubes.get(0).insertVertex(n);
-				this.subCubes.get(1).insertVertex(n);
-				this.subCubes.get(2).insertVertex(n);
-				this.subCubes.get(3).insertVertex(n);
-				this.subCubes.get(4).insertVertex(n);
-				this.subCubes.get(5).insertVertex(n);
-				this.subCubes.get(6).insertVertex(n);
-				this.subCubes.get(7).insertVertex(n);
-			}
-
-		} else if (this.subCubes != null) {
-
-			this.subCubes.get(0).insertVertex(node);
-			this.subCubes.get(1).insertVertex(node);
-			this.subCubes.get(2).insertVertex(node);
-			this.subCubes.get(3).insertVertex(node);
-			this.subCubes.get(4).insertVertex(node);
-			this.subCubes.get(5).insertVertex(node);
-			this.subCubes.get(6).insertVertex(node);
-			this.subCubes.get(7).insertVertex(node);
-
-		}
-
-	}
-
-	public boolean containsNode(Node node) {
-
-		boolean boolx = this.origin.x <= node.p.x && node.p.x < (this.origin.x + this.dimension);
-		boolean booly = this.origin.y <= node.p.y && node.p.y < (this.origin.y + this.dimension);
-		boolean boolz = this.origin.z <= node.p.z && node.p.z < (this.origin.z + this.dimension);
-
-		return (boolx && booly && boolz);
-	}
-
-	public Octree getSmallestContainer(Node node) {
-
-
-		if(this.subCubes==null && this.containsNode(node)) {
-			return this;
+	/**
+	 * Build the octree of a set of points
+	 *
+	 * @param x  x-coordinates of the points
+	 * @param y  y-coordinates of the points
+	 * @param z  z-coordinates of the points
+	 * @param n  number of points
+	 * @param pool  pool used for building the tree in parallel (sequential construction if null)
+	 */
+	public Octree(double[] x, double[] y, double[] z, int n, ForkJoinPool pool) {
+		this.sizePoints=n;
+		this.computeBoundingCube(x, y, z, n);
+		this.sortPoints(x, y, z, n, pool);
+
+		Block root;
+		if(pool==null || n<=grain)
+			root=new Block(Math.max(16, n/2)).build(this, 0, n, 0);
+		else
+			root=pool.invoke(new BuildTask(this, 0, n, 0));
+
+		this.sizeCells=root.size;
+		this.firstChild=root.firstChild;
+		this.childCount=root.childCount;
+		this.start=root.start;
+		this.end=root.end;
+		this.level=root.level;
+		this.baryX=root.baryX;
+		this.baryY=root.baryY;
+		this.baryZ=root.baryZ;
+		this.count=new int[this.sizeCells];
+		for(int c=0;c<this.sizeCells;c++)
+			this.count[c]=this.end[c]-this.start[c];
+	}
+
+	private static double[] coordinates(Graph g, int c) {
+		double[] result=new double[g.sizeVertices()];
+		for(int i=0;i<result.length;i++)
+			result[i]=g.getNode(i).getPoint().getCartesian(c).doubleValue();
+		return result;
+	}
+
+	private void computeBoundingCube(double[] x, double[] y, double[] z, int n) {
+		double xmin=0., ymin=0., zmin=0., xmax=0., ymax=0., zmax=0.;
+		if(n>0) {
+			xmin=xmax=x[0];
+			ymin=ymax=y[0];
+			zmin=zmax=z[0];
 		}
-		else if(this.containsNode(node)) {
-			
-			for(Octree subcube : this.subCubes) {
-				
-				if(subcube.containsNode(node)) return subcube.getSmallestContainer(node);
-				
-			}
+		for(int i=1;i<n;i++) {
+			xmin=Math.min(xmin, x[i]);
+			xmax=Math.max(xmax, x[i]);
+			ymin=Math.min(ymin, y[i]);
+			ymax=Math.max(ymax, y[i]);
+			zmin=Math.min(zmin, z[i]);
+			zmax=Math.max(zmax, z[i]);
 		}
-		
-		return null;
-		
+		double extent=Math.max(Math.max(xmax-xmin, ymax-ymin), Math.max(zmax-zmin, 1e-9));
+		this.originX=xmin-margin*extent; // the margin leaves room for points moving outwards (see refit)
+		this.originY=ymin-margin*extent;
+		this.originZ=zmin-margin*extent;
+		this.dimension=extent*(1.+2.*margin)*1.0001;
+	}
+
+	/**
+	 * Compute the Morton codes of the points, and sort the points
+	 */
+	private void sortPoints(final double[] x, final double[] y, final double[] z, final int n, ForkJoinPool pool) {
+		final long[] keys=new long[n]; // Morton code (high bits) and point index (low bits)
+		if(pool==null || n<=grain) {
+			for(int i=0;i<n;i++)
+				keys[i]=(this.mortonCode(x[i], y[i], z[i])<<32) | i;
+			Arrays.sort(keys);
+		}
+		else {
+			pool.invoke(new RecursiveAction() {
+				protected void compute() {
+					List<RecursiveAction> tasks=new ArrayList<RecursiveAction>();
+					for(int s=0;s<n;s+=grain) {
+						final int from=s, to=Math.min(n, s+grain);
+						tasks.add(new RecursiveAction() {
+							protected void compute() {
+								for(int i=from;i<to;i++)
+									keys[i]=(mortonCode(x[i], y[i], z[i])<<32) | i;
+							}
+						});
+					}
+					invokeAll(tasks);
+				}
+			});
+			Arrays.parallelSort(keys);
+		}
+
+		this.order=new int[n];
+		this.codes=new long[n];
+		this.sx=new double[n];
+		this.sy=new double[n];
+		this.sz=new double[n];
+		for(int i=0;i<n;i++) {
+			int p=(int)keys[i];
+			this.order[i]=p;
+			this.codes[i]=keys[i]>>>32;
+			this.sx[i]=x[p];
+			this.sy[i]=y[p];
+			this.sz[i]=z[p];
+		}
+	}
+
+	/**
+	 * Return the Morton code of a point (interleaving the bits of its grid coordinates)
+	 */
+	long mortonCode(double px, double py, double pz) {
+		int resolution=1<<maxDepth;
+		long gx=gridCoordinate(px, this.originX, resolution);
+		long gy=gridCoordinate(py, this.originY, resolution);
+		long gz=gridCoordinate(pz, this.originZ, resolution);
+		return spread(gx) | (spread(gy)<<1) | (spread(gz)<<2);
+	}
+
+	private int gridCoordinate(double p, double origin, int resolution) {
+		int result=(int)((p-origin)/this.dimension*resolution);
+		return Math.max(0, Math.min(resolution-1, result));
+	}
+
+	/**
+	 * Insert two zeros between consecutive bits (for the 10 lower bits of v)
+	 */
+	private static long spread(long v) {
+		v=(v | (v<<16)) & 0x030000FFL;
+		v=(v | (v<<8)) & 0x0300F00FL;
+		v=(v | (v<<4)) & 0x030C30C3L;
+		v=(v | (v<<2)) & 0x09249249L;
+		return v;
+	}
+
+	/**
+	 * Side length of a cell
+	 */
+	public double cellSize(int c) {
+		return this.dimension/(1<<this.level[c]);
+	}
 
+	/**
+	 * Return the number of points stored in a cell
+	 */
+	public int count(int c) {
+		return this.count[c];
 	}
 
-	
-	public double[] getBounds(AdjacencyListGraph g) {
-		
-		double xmax=0;
-		double ymax=0;
-		double zmax=0;
-		double xmin=0;
-		double ymin=0;
-		double zmin=0;
-		
-		for(Node u: g.vertices) {	
-			if(u.p.x>xmax) {
-				xmax=u.p.x+1;
+	/**
+	 * Update the tree after the points have moved, without modifying its cells:
+	 * points which left their leaf are reinserted in the smallest cell containing their new location,
+	 * then barycenters are recomputed bottom-up.
+	 * <p>
+	 * Remark: points reinserted in an internal cell (strays) are evaluated exactly each time the cell is opened,
+	 * and points which left the root cube are stored in the root. The tree must be rebuilt when there are
+	 * too many strays, or too many points stored in overfull leaves (leaves are not split).
+	 *
+	 * @param x  new x-coordinates of the points
+	 * @param y  new y-coordinates of the points
+	 * @param z  new z-coordinates of the points
+	 * @param maxStrays  maximal fraction of strays (and of points stored in overfull leaves)
+	 * @return false if the quality of the tree is too low (the tree should be rebuilt)
+	 */
+	public boolean refit(double[] x, double[] y, double[] z, double maxStrays) {
+		int n=this.sizePoints;
+		if(this.home==null)
+			this.initializeRefit();
+
+		// update the coordinates and find the new leaf of each point
+		long strays=0; // strays, weighted by the size of their cell (points opening the cell evaluate them exactly)
+		double xmin=Double.MAX_VALUE, xmax=-Double.MAX_VALUE, ymin=Double.MAX_VALUE, ymax=-Double.MAX_VALUE;
+		double zmin=Double.MAX_VALUE, zmax=-Double.MAX_VALUE;
+		for(int j=0;j<n;j++) { // visit points in sorted order (leaves are visited consecutively)
+			int p=this.order[j];
+			double px=x[p], py=y[p], pz=z[p];
+			this.sx[j]=px;
+			this.sy[j]=py;
+			this.sz[j]=pz;
+			if(px<xmin)
+				xmin=px;
+			if(px>xmax)
+				xmax=px;
+			if(py<ymin)
+				ymin=py;
+			if(py>ymax)
+				ymax=py;
+			if(pz<zmin)
+				zmin=pz;
+			if(pz>zmax)
+				zmax=pz;
+			int target=0; // points which left the root cube are stored in the root
+			if(px>=this.originX && px<this.originX+this.dimension && py>=this.originY && py<this.originY+this.dimension
+					&& pz>=this.originZ && pz<this.originZ+this.dimension) {
+				long code=this.mortonCode(px, py, pz);
+				target=this.home[j];
+				if(target==0 || prefix(code, this.level[target])!=this.prefix(target))
+					target=this.findCell(code); // the point left its cell
+			}
+			if(this.firstChild[target]>=0)
+				strays=strays+this.count[target]; // no leaf contains the point: it is stored in an internal cell
+			this.home[j]=target;
+		}
+		if(strays>maxStrays*n*leafSize)
+			return false;
+		if(n>0 && Math.max(Math.max(xmax-xmin, ymax-ymin), zmax-zmin)<this.dimension/2.)
+			return false; // the points have contracted: cells are too large
+
+		// store reinserted points in the lists of their new cells
+		for(int c=0;c<this.sizeCells;c++)
+			this.extraHead[c]=-1;
+		for(int j=0;j<n;j++) {
+			boolean reinserted=(this.home[j]!=this.rangeLeaf[j]);
+			this.moved[j]=reinserted;
+			if(reinserted) {
+				this.extraNext[j]=this.extraHead[this.home[j]];
+				this.extraHead[this.home[j]]=j;
+			}
+		}
+
+		// recompute barycenters and bounding boxes (children are stored after their parent)
+		int overfull=0; // number of points stored in overfull leaves
+		for(int c=this.sizeCells-1;c>=0;c--) {
+			double bx=0., by=0., bz=0.;
+			int k=0;
+			double x0=Double.MAX_VALUE, x1=-Double.MAX_VALUE, y0=Double.MAX_VALUE, y1=-Double.MAX_VALUE;
+			double z0=Double.MAX_VALUE, z1=-Double.MAX_VALUE;
+			if(this.firstChild[c]<0) {
+				for(int j=this.start[c];j<this.end[c];j++) {
+					if(this.moved[j])
+						continue;
+					bx+=this.sx[j];
+					by+=this.sy[j];
+					bz+=this.sz[j];
+					if(this.sx[j]<x0)
+						x0=this.sx[j];
+					if(this.sx[j]>x1)
+						x1=this.sx[j];
+					if(this.sy[j]<y0)
+						y0=this.sy[j];
+					if(this.sy[j]>y1)
+						y1=this.sy[j];
+					if(this.sz[j]<z0)
+						z0=this.sz[j];
+					if(this.sz[j]>z1)
+						z1=this.sz[j];
+					k++;
+				}
 			}
-			if(u.p.y>ymax) {
-				ymax=u.p.y+1;
+			else {
+				for(int d=this.firstChild[c];d<this.firstChild[c]+this.childCount[c];d++) {
+					if(this.count[d]==0)
+						continue;
+					bx+=this.baryX[d]*this.count[d];
+					by+=this.baryY[d]*this.count[d];
+					bz+=this.baryZ[d]*this.count[d];
+					if(this.minX[d]<x0)
+						x0=this.minX[d];
+					if(this.maxX[d]>x1)
+						x1=this.maxX[d];
+					if(this.minY[d]<y0)
+						y0=this.minY[d];
+					if(this.maxY[d]>y1)
+						y1=this.maxY[d];
+					if(this.minZ[d]<z0)
+						z0=this.minZ[d];
+					if(this.maxZ[d]>z1)
+						z1=this.maxZ[d];
+					k=k+this.count[d];
+				}
 			}
-			if(u.p.z>zmax) {
-				zmax=u.p.z+1;
+			int extra=0;
+			for(int j=this.extraHead[c];j>=0;j=this.extraNext[j]) { // points reinserted in the cell
+				bx+=this.sx[j];
+				by+=this.sy[j];
+				bz+=this.sz[j];
+				if(this.sx[j]<x0)
+					x0=this.sx[j];
+				if(this.sx[j]>x1)
+					x1=this.sx[j];
+				if(this.sy[j]<y0)
+					y0=this.sy[j];
+				if(this.sy[j]>y1)
+					y1=this.sy[j];
+				if(this.sz[j]<z0)
+					z0=this.sz[j];
+				if(this.sz[j]>z1)
+					z1=this.sz[j];
+				extra++;
 			}
-			
-			
-			
-			if(u.p.x<xmin) {
-				xmin=u.p.x-1;
+			k=k+extra;
+			if(this.firstChild[c]<0 && k>4*leafSize && this.level[c]<maxDepth)
+				overfull=overfull+k; // leaves are not split when points are reinserted
+			this.count[c]=k;
+			this.minX[c]=x0;
+			this.maxX[c]=x1;
+			this.minY[c]=y0;
+			this.maxY[c]=y1;
+			this.minZ[c]=z0;
+			this.maxZ[c]=z1;
+			if(k>0) {
+				this.baryX[c]=bx/k;
+				this.baryY[c]=by/k;
+				this.baryZ[c]=bz/k;
+				this.extent[c]=Math.max(Math.max(x1-x0, y1-y0), z1-z0);
+			}
+			else
+				this.extent[c]=0.;
+		}
+		return overfull<=maxStrays*n;
+	}
+
+	private void initializeRefit() {
+		int n=this.sizePoints;
+		this.rangeLeaf=new int[n];
+		this.home=new int[n];
+		this.extraNext=new int[n];
+		this.moved=new boolean[n];
+		this.extraHead=new int[this.sizeCells];
+		this.extent=new double[this.sizeCells];
+		this.minX=new double[this.sizeCells];
+		this.minY=new double[this.sizeCells];
+		this.minZ=new double[this.sizeCells];
+		this.maxX=new double[this.sizeCells];
+		this.maxY=new double[this.sizeCells];
+		this.maxZ=new double[this.sizeCells];
+		for(int c=0;c<this.sizeCells;c++) {
+			if(this.firstChild[c]<0) {
+				for(int j=this.start[c];j<this.end[c];j++)
+					this.rangeLeaf[j]=c;
+			}
+		}
+		System.arraycopy(this.rangeLeaf, 0, this.home, 0, n);
+	}
+
+	/**
+	 * Return the prefix of a Morton code, at a given depth
+	 */
+	private static long prefix(long code, int depth) {
+		return code>>>(3*(maxDepth-depth));
+	}
+
+	/**
+	 * Return the prefix of the Morton codes of the points in cell c
+	 */
+	private long prefix(int c) {
+		return prefix(this.codes[this.start[c]], this.level[c]);
+	}
+
+	/**
+	 * Return the smallest cell containing a given Morton code (a leaf, or an internal cell if the child
+	 * containing the code does not exist)
+	 */
+	private int findCell(long code) {
+		int c=0;
+		while(this.firstChild[c]>=0) {
+			int d=this.firstChild[c];
+			int last=d+this.childCount[c];
+			long target=prefix(code, this.level[c]+1);
+			while(d<last && this.prefix(d)!=target)
+				d++;
+			if(d==last)
+				return c;
+			c=d;
+		}
+		return c;
+	}
+
+	/**
+	 * Return the size of the stack needed for traversing the tree
+	 */
+	public int stackSize() {
+		return 7*maxDepth+8;
+	}
+
+	/**
+	 * Compute the displacement of a point p due to the repulsive forces of all points:
+	 * each point q at distance d produces a displacement k2*(p-q)/d^2 (the force k2/d of Fruchterman and Reingold).
+	 * <p>
+	 * A cell is approximated by its barycenter when its size is smaller than theta times its distance from p.
+	 * Points coinciding with p are ignored.
+	 *
+	 * @param result  array storing the result (x, y and z components of the displacement)
+	 * @param stack  array used for traversing the tree (of size at least stackSize())
+	 * @return the number of computed interactions
+	 */
+	public int computeRepulsiveForce(double px, double py, double pz, double theta, double k2, double[] result, int[] stack) {
+		double fx=0., fy=0., fz=0.;
+		int interactions=0;
+		int top=0;
+		if(this.sizeCells>0)
+			stack[top++]=0;
+		while(top>0) {
+			int c=stack[--top];
+			if(this.count[c]==0)
+				continue;
+			if(this.firstChild[c]<0) { // leaf: exact forces
+				for(int j=this.start[c];j<this.end[c];j++) {
+					if(this.moved!=null && this.moved[j])
+						continue;
+					double dx=px-this.sx[j], dy=py-this.sy[j], dz=pz-this.sz[j];
+					double d2=dx*dx+dy*dy+dz*dz;
+					if(d2>0.) {
+						fx+=k2*dx/d2;
+						fy+=k2*dy/d2;
+						fz+=k2*dz/d2;
+						interactions++;
+					}
+				}
 			}
-			if(u.p.y<ymin) {
-				ymin=u.p.y-1;
+			else {
+				double dx=px-this.baryX[c], dy=py-this.baryY[c], dz=pz-this.baryZ[c];
+				double d2=dx*dx+dy*dy+dz*dz;
+				double size=this.cellSize(c);
+				if(this.extent!=null)
+					size=Math.max(size, this.extent[c]); // refitted trees: points may lie outside the root cube
+				if(size*size<theta*theta*d2) { // far cell: use its barycenter
+					double f=this.count(c)*k2/d2;
+					fx+=f*dx;
+					fy+=f*dy;
+					fz+=f*dz;
+					interactions++;
+					continue;
+				}
+				for(int i=0;i<this.childCount[c];i++)
+					stack[top++]=this.firstChild[c]+i;
 			}
-			if(u.p.z<zmin) {
-				zmin=u.p.z-1;	
+			if(this.extraHead!=null) { // points reinserted in the cell: exact forces
+				for(int j=this.extraHead[c];j>=0;j=this.extraNext[j]) {
+					double dx=px-this.sx[j], dy=py-this.sy[j], dz=pz-this.sz[j];
+					double d2=dx*dx+dy*dy+dz*dz;
+					if(d2>0.) {
+						fx+=k2*dx/d2;
+						fy+=k2*dy/d2;
+						fz+=k2*dz/d2;
+						interactions++;
+					}
+				}
 			}
 		}
-		
-		double dimension = 2 * Math.max(Math.max(xmax - xmin, ymax - ymin),zmax - zmin);
-		double[] res = {xmin,ymin,zmin,dimension};
-		return res;
+		result[0]=fx;
+		result[1]=fy;
+		result[2]=fz;
+		return interactions;
 	}
-	
-	
-	
+
 	public String toString() {
+		return "octree: "+this.sizeCells+" cells, "+this.sizePoints+" points (dimension "+this.dimension+")";
+	}
+
+	/**
+	 * Cells of a (sub-)tree, stored in growable arrays: the root is the cell 0
+	 */
+	static class Block {
+		int size=0;
+		int[] firstChild, childCount, start, end, level;
+		double[] baryX, baryY, baryZ;
+
+		Block(int capacity) {
+			this.firstChild=new int[capacity];
+			this.childCount=new int[capacity];
+			this.start=new int[capacity];
+			this.end=new int[capacity];
+			this.level=new int[capacity];
+			this.baryX=new double[capacity];
+			this.baryY=new double[capacity];
+			this.baryZ=new double[capacity];
+		}
+
+		/**
+		 * Allocate 'k' consecutive cells, and return the index of the first one
+		 */
+		int allocate(int k) {
+			if(this.size+k>this.firstChild.length) {
+				int capacity=Math.max(this.size+k, 2*this.firstChild.length);
+				this.firstChild=Arrays.copyOf(this.firstChild, capacity);
+				this.childCount=Arrays.copyOf(this.childCount, capacity);
+				this.start=Arrays.copyOf(this.start, capacity);
+				this.end=Arrays.copyOf(this.end, capacity);
+				this.level=Arrays.copyOf(this.level, capacity);
+				this.baryX=Arrays.copyOf(this.baryX, capacity);
+				this.baryY=Arrays.copyOf(this.baryY, capacity);
+				this.baryZ=Arrays.copyOf(this.baryZ, capacity);
+			}
+			int result=this.size;
+			this.size=this.size+k;
+			return result;
+		}
+
+		/**
+		 * Build the sub-tree of the points lo..hi-1 (sequentially)
+		 */
+		Block build(Octree tree, int lo, int hi, int depth) {
+			int root=this.allocate(1);
+			this.fill(tree, root, lo, hi, depth, null);
+			return this;
+		}
+
+		/**
+		 * Set the cell 'c', storing the points lo..hi-1, and build its sub-tree
+		 * (sub-trees are built in parallel if 'task' is not null)
+		 */
+		void fill(Octree tree, int c, int lo, int hi, int depth, BuildTask task) {
+			this.start[c]=lo;
+			this.end[c]=hi;
+			this.level[c]=depth;
+			if(hi-lo<=leafSize || depth==maxDepth) { // leaf
+				double x=0., y=0., z=0.;
+				for(int i=lo;i<hi;i++) {
+					x+=tree.sx[i];
+					y+=tree.sy[i];
+					z+=tree.sz[i];
+				}
+				this.firstChild[c]=-1;
+				this.childCount[c]=0;
+				this.setBarycenter(c, x, y, z, hi-lo);
+				return;
+			}
+
+			// compute the ranges of the children (points sharing the same 3 bits at this depth)
+			int shift=3*(maxDepth-depth-1);
+			int[] bounds=new int[9];
+			int children=0;
+			bounds[0]=lo;
+			int i=lo;
+			while(i<hi) {
+				long octant=(tree.codes[i]>>>shift) & 7;
+				while(i<hi && ((tree.codes[i]>>>shift) & 7)==octant)
+					i++;
+				children++;
+				bounds[children]=i;
+			}
+			int first=this.allocate(children);
+			this.firstChild[c]=first;
+			this.childCount[c]=children;
+
+			if(task!=null && hi-lo>grain) { // build large sub-trees in parallel
+				List<BuildTask> tasks=new ArrayList<BuildTask>();
+				for(int k=0;k<children;k++)
+					tasks.add(new BuildTask(tree, bounds[k], bounds[k+1], depth+1));
+				RecursiveTask.invokeAll(tasks);
+				for(int k=0;k<children;k++)
+					this.append(tasks.get(k).join(), first+k);
+			}
+			else {
+				for(int k=0;k<children;k++)
+					this.fill(tree, first+k, bounds[k], bounds[k+1], depth+1, null);
+			}
+
+			double x=0., y=0., z=0.;
+			for(int k=first;k<first+children;k++) {
+				int count=this.end[k]-this.start[k];
+				x+=this.baryX[k]*count;
+				y+=this.baryY[k]*count;
+				z+=this.baryZ[k]*count;
+			}
+			this.setBarycenter(c, x, y, z, hi-lo);
+		}
+
+		private void setBarycenter(int c, double x, double y, double z, int count) {
+			count=Math.max(count, 1);
+			this.baryX[c]=x/count;
+			this.baryY[c]=y/count;
+			this.baryZ[c]=z/count;
+		}
 
-		return (this.origin + " with dimension  " + this.dimension);
+		/**
+		 * Copy a sub-tree: its root is stored in cell 'slot', other cells are appended
+		 */
+		void append(Block sub, int slot) {
+			int base=this.allocate(sub.size-1)-1; // cell j>0 of the sub-tree is stored at base+j
+			this.copy(sub, 0, slot, base);
+			for(int j=1;j<sub.size;j++)
+				this.copy(sub, j, base+j, base);
+		}
+
+		private void copy(Block sub, int j, int c, int base) {
+			this.firstChild[c]=(sub.firstChild[j]<0) ? -1 : base+sub.firstChild[j];
+			this.childCount[c]=sub.childCount[j];
+			this.start[c]=sub.start[j];
+			this.end[c]=sub.end[j];
+			this.level[c]=sub.level[j];
+			this.baryX[c]=sub.baryX[j];
+			this.baryY[c]=sub.baryY[j];
+			this.baryZ[c]=sub.baryZ[j];
+		}
 	}
+
+	/**
+	 * Build a sub-tree in parallel
+	 */
+	static class BuildTask extends RecursiveTask<Block> {
+		private static final long serialVersionUID = 1L;
+		Octree tree;
+		int lo, hi, depth;
+
+		BuildTask(Octree tree, int lo, int hi, int depth) {
+			this.tree=tree;
+			this.lo=lo;
+			this.hi=hi;
+			this.depth=depth;
+		}
+
+		protected Block compute() {
+			Block result=new Block(Math.max(16, (hi-lo)/2));
+			int root=result.allocate(1);
+			result.fill(tree, root, lo, hi, depth, this);
+			return result;
+		}
+	}
+
 }
@@ -0,0 +1,210 @@
+package jdg.graph;
+
+import java.util.Arrays;
+
+/**
+ * A quadtree for computing (approximate) repulsive forces in 2D, with the Barnes and Hut method
+ * <p>
+ * Cells are stored in flat arrays: the four children of a cell are contiguous, leaves store a list
+ * of points (several points are stored in a leaf only when they coincide or at maximal depth).
+ */
+public class Quadtree {
+
+	public static int maxDepth=40; // maximal depth of the tree
+
+	private double[] x, y; // point coordinates
+	public int sizeCells=0; // number of cells
+
+	double[] cellSize; // side length of each cell
+	double[] centerX, centerY; // center of each cell
+	int[] firstChild; // index of the first of the four children (-1 for leaves)
+	int[] count; // number of points in each cell
+	double[] sumX, sumY; // sum of point coordinates in each cell (to compute barycenters)
+	int[] head; // first point stored in a leaf (-1 if the leaf is empty)
+	int[] next; // next point stored in the same leaf (-1 for the last point)
+
+	/**
+	 * Build the quadtree of a set of points
+	 *
+	 * @param x  x-coordinates of the points
+	 * @param y  y-coordinates of the points
+	 * @param n  number of points
+	 */
+	public Quadtree(double[] x, double[] y, int n) {
+		this.x=x;
+		this.y=y;
+		int capacity=Math.max(16, 2*n);
+		this.cellSize=new double[capacity];
+		this.centerX=new double[capacity];
+		this.centerY=new double[capacity];
+		this.firstChild=new int[capacity];
+		this.count=new int[capacity];
+		this.sumX=new double[capacity];
+		this.sumY=new double[capacity];
+		this.head=new int[capacity];
+		this.next=new int[n];
+
+		// the root is the bounding square of the points
+		double xmin=Double.MAX_VALUE, xmax=-Double.MAX_VALUE, ymin=Double.MAX_VALUE, ymax=-Double.MAX_VALUE;
+		for(int i=0;i<n;i++) {
+			xmin=Math.min(xmin, x[i]);
+			xmax=Math.max(xmax, x[i]);
+			ymin=Math.min(ymin, y[i]);
+			ymax=Math.max(ymax, y[i]);
+		}
+		if(n==0) {
+			xmin=xmax=ymin=ymax=0.;
+		}
+		double size=Math.max(Math.max(xmax-xmin, ymax-ymin), 1e-9)*1.0001;
+		this.newCell((xmin+xmax)/2., (ymin+ymax)/2., size);
+
+		for(int i=0;i<n;i++)
+			this.insert(i);
+	}
+
+	private int newCell(double cx, double cy, double size) {
+		if(this.sizeCells==this.count.length) {
+			int capacity=this.count.length*2;
+			this.cellSize=Arrays.copyOf(this.cellSize, capacity);
+			this.centerX=Arrays.copyOf(this.centerX, capacity);
+			this.centerY=Arrays.copyOf(this.centerY, capacity);
+			this.firstChild=Arrays.copyOf(this.firstChild, capacity);
+			this.count=Arrays.copyOf(this.count, capacity);
+			this.sumX=Arrays.copyOf(this.sumX, capacity);
+			this.sumY=Arrays.copyOf(this.sumY, capacity);
+			this.head=Arrays.copyOf(this.head, capacity);
+		}
+		int c=this.sizeCells++;
+		this.cellSize[c]=size;
+		this.centerX[c]=cx;
+		this.centerY[c]=cy;
+		this.firstChild[c]=-1;
+		this.count[c]=0;
+		this.sumX[c]=0.;
+		this.sumY[c]=0.;
+		this.head[c]=-1;
+		return c;
+	}
+
+	/**
+	 * Return the index of the child of cell 'c' containing the point (px, py)
+	 */
+	private int child(int c, double px, double py) {
+		int quadrant=0;
+		if(px>=this.centerX[c])
+			quadrant=1;
+		if(py>=this.centerY[c])
+			quadrant=quadrant+2;
+		return this.firstChild[c]+quadrant;
+	}
+
+	private void insert(int i) {
+		double px=this.x[i], py=this.y[i];
+		int c=0; // start from the root
+		int depth=0;
+		while(true) {
+			this.count[c]++;
+			this.sumX[c]+=px;
+			this.sumY[c]+=py;
+			if(this.firstChild[c]>=0) { // internal cell: go down
+				c=this.child(c, px, py);
+				depth++;
+				continue;
+			}
+			int first=this.head[c];
+			if(first<0 || depth==maxDepth || (this.x[first]==px && this.y[first]==py)) { // store the point in the leaf
+				this.next[i]=first;
+				this.head[c]=i;
+				return;
+			}
+
+			// split the leaf and move its points to the children
+			double half=this.cellSize[c]/2., quarter=this.cellSize[c]/4.;
+			int children=this.newCell(this.centerX[c]-quarter, this.centerY[c]-quarter, half);
+			this.newCell(this.centerX[c]+quarter, this.centerY[c]-quarter, half);
+			this.newCell(this.centerX[c]-quarter, this.centerY[c]+quarter, half);
+			this.newCell(this.centerX[c]+quarter, this.centerY[c]+quarter, half);
+			this.firstChild[c]=children;
+			this.head[c]=-1;
+			int j=first;
+			while(j>=0) {
+				int following=this.next[j];
+				int d=this.child(c, this.x[j], this.y[j]);
+				this.count[d]++;
+				this.sumX[d]+=this.x[j];
+				this.sumY[d]+=this.y[j];
+				this.next[j]=this.head[d];
+				this.head[d]=j;
+				j=following;
+			}
+			c=this.child(c, px, py);
+			depth++;
+		}
+	}
+
+	/**
+	 * Return the size of the stack needed for traversing the tree
+	 */
+	public int stackSize() {
+		return 3*maxDepth+4;
+	}
+
+	/**
+	 * Compute the displacement of a point located at (px, py) due to the repulsive forces
+	 * of all points: each point q at distance d produces a displacement k2*(p-q)/d^2 (the force k2/d of Fruchterman and Reingold).
+	 * <p>
+	 * A cell is approximated by its barycenter when its size is smaller than theta times its distance from p.
+	 * Points coinciding with p are ignored.
+	 *
+	 * @param result  array storing the result (x and y components of the displacement)
+	 * @param stack  array used for traversing the tree (of size at least stackSize())
+	 * @return the number of computed interactions
+	 */
+	public int computeRepulsiveForce(double px, double py, double theta, double k2, double[] result, int[] stack) {
+		double fx=0., fy=0.;
+		int interactions=0;
+		int top=0;
+		stack[top++]=0;
+		while(top>0) {
+			int c=stack[--top];
+			if(this.count[c]==0)
+				continue;
+			if(this.firstChild[c]<0) { // leaf: exact forces
+				for(int j=this.head[c];j>=0;j=this.next[j]) {
+					double dx=px-this.x[j], dy=py-this.y[j];
+					double d2=dx*dx+dy*dy;
+					if(d2>0.) {
+						fx+=k2*dx/d2;
+						fy+=k2*dy/d2;
+						interactions++;
+					}
+				}
+				continue;
+			}
+			double bx=this.sumX[c]/this.count[c], by=this.sumY[c]/this.count[c];
+			double dx=px-bx, dy=py-by;
+			double d2=dx*dx+dy*dy;
+			if(this.cellSize[c]*this.cellSize[c]<theta*theta*d2) { // far cell: use its barycenter
+				double f=this.count[c]*k2/d2;
+				fx+=f*dx;
+				fy+=f*dy;
+				interactions++;
+			}
+			else {
+				int first=this.firstChild[c];
+				stack[top++]=first;
+				stack[top++]=first+1;
+				stack[top++]=first+2;
+				stack[top++]=first+3;
+			}
+		}
+		result[0]=fx;
+		result[1]=fy;
+		return interactions;
+	}
+
+	public String toString() {
+		return "quadtree: "+this.sizeCells+" cells, "+this.count[0]+" points";
+	}
+
+}
@@ -5,9 +5,9 @@ import java.nio.file.Files;
 import java.nio.file.Paths;
 
 import jdg.graph.AdjacencyListGraph;
+import jdg.graph.GraphBuilder;
 import jdg.graph.Node;
 import tc.TC;
-import Jcg.geometry.Point_3;
 
 /**
  * Provides methods for dealing with graphs stored in Matrix Market format.
@@ -31,45 +31,18 @@ public class GraphReader_MTX extends GraphReader {
     	}
     	
 		int n=Integer.parseInt(tabFrom[0]); // number of vertices
-		
-    	//System.out.println("m.vertices "+m.points.length);
-    	//System.out.println("m.faces "+m.faces.length);
-    	//System.out.println("m.halfedges "+m.sizeHalfedges);    	
+		GraphBuilder builder=new GraphBuilder(n, Integer.parseInt(tabFrom[tabFrom.length-1]));
     	
-    	AdjacencyListGraph g=new AdjacencyListGraph();
-    	int i=0;
-    	//System.out.print("\tSetting vertices...");
-    	while(i<n) { // read vertex indices
-    		int index=i; // recall that vertices must have indices between 0 and n-1
-    		Point_3 p=new Point_3(0., 0., 0.); // vertex coordinates are still not defined
-    		Color color=null;
-    		
-    		g.addNode(new Node(index, p, color));
-    		i++;
-    	}
-    	//System.out.println("done ("+g.sizeVertices()+")");
-    	
-    	//System.out.print("\tSetting edges...");
-    	i=0;
     	while(TC.finEntree()==false) { // read edges
     		ligne=TC.lireLigne();
     		tabFrom=TC.motsDeChaine(ligne);
     		if(tabFrom!=null && tabFrom.length>0 && tabFrom[0].charAt(0)!='%') {
     			int index1=Integer.parseInt(tabFrom[0])-1; // recall that vertices have indices in 1..n in MTX format
     			int index2=Integer.parseInt(tabFrom[1])-1; // recall that vertices have indices in 1..n in MTX format
-    			Node v1=g.getNode(index1);
-    			Node v2=g.getNode(index2);
-    			
-    			if(v1==null || v2==null) {
-    				throw new Error("Error: wrong vertex indices "+index1+" "+index2);
-    			}
-    			if(v1!=v2 && g.adjacent(v1, v2)==false && g.adjacent(v2, v1)==false) { // loops and multiple edges are not allowed
-    				g.addEdge(v1, v2); // addEdge already adds the two edges (v1, v2) and (v2, v1)
-    				i++;
-    			}
+    			builder.addEdge(index1, index2); // loops and multiple edges are removed by the builder
     		}
     	}
-    	//System.out.println("done ("+g.sizeEdges()+")");
+    	AdjacencyListGraph g=builder.toAdjacencyListGraph(); // vertex coordinates are still not defined
     	
     	System.out.println("done ("+g.vertices.size()+" vertices, "+g.sizeEdges()+" edges)");
     	TC.lectureEntreeStandard();
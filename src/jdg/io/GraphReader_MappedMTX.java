@@ -0,0 +1,323 @@
+package jdg.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import jdg.graph.AdjacencyListGraph;
+import jdg.graph.CompactGraph;
+import jdg.graph.GraphBuilder;
+
+/**
+ * Provides methods for reading graphs stored in Matrix Market format, using memory mapped files.
+ * <p>
+ * Integers (and weights) are parsed directly from bytes, without allocating strings.
+ * Large files are split at line boundaries and parsed in parallel: each chunk
+ * is parsed into its own edge buffer.
+ * <p>
+ * Supported headers: 'coordinate' matrices, with 'pattern', 'real' or 'integer' fields and
+ * 'general' or 'symmetric' symmetry (edge weights are read for 'real' and 'integer' fields).
+ * Files without a complete header are read as unweighted graphs.
+ */
+public class GraphReader_MappedMTX extends GraphReader {
+
+	/** Minimal size (in bytes) of a chunk parsed by one thread */
+	public static int minChunkSize=1<<22;
+	/** Maximal size (in bytes) of a mapped region */
+	static final int maxChunkSize=1<<30;
+
+	private int threads; // number of threads used for parsing
+
+	public GraphReader_MappedMTX() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param threads  number of threads used for parsing large files
+	 */
+	public GraphReader_MappedMTX(int threads) {
+		this.threads=Math.max(1, threads);
+	}
+
+	/**
+	 * Read a graph stored in MTX format
+	 *
+	 * Remark: nodes have indices between 1..n in the input file
+	 */
+	public AdjacencyListGraph read(String filename) {
+		CompactGraph g=this.readCompact(filename);
+		return g.toAdjacencyListGraph();
+	}
+
+	/**
+	 * Read a graph stored in MTX format, and return its compact (CSR) representation
+	 *
+	 * Remark: nodes have indices between 1..n in the input file
+	 */
+	public CompactGraph readCompact(String filename) {
+		System.out.print("Reading graph in MTX format, memory mapped ("+filename+")...");
+		try(FileChannel channel=FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+			long size=channel.size();
+			Header header=readHeader(channel, size);
+
+			// split the data region at line boundaries
+			long length=size-header.dataStart;
+			int chunks=(int)Math.max(1, Math.min(this.threads, length/minChunkSize));
+			chunks=(int)Math.max(chunks, (length+maxChunkSize-1)/maxChunkSize);
+			long[] bounds=new long[chunks+1];
+			bounds[0]=header.dataStart;
+			bounds[chunks]=size;
+			for(int i=1;i<chunks;i++)
+				bounds[i]=nextLine(channel, Math.max(bounds[i-1], header.dataStart+length*i/chunks), size);
+
+			// parse chunks (in parallel)
+			GraphBuilder[] parts=new GraphBuilder[chunks];
+			if(chunks==1) {
+				parts[0]=parseChunk(channel, bounds[0], bounds[1], header);
+			}
+			else {
+				ForkJoinPool pool=new ForkJoinPool(Math.min(this.threads, chunks));
+				try {
+					List<Future<GraphBuilder>> results=new ArrayList<Future<GraphBuilder>>();
+					for(int i=0;i<chunks;i++) {
+						final long start=bounds[i], end=bounds[i+1];
+						results.add(pool.submit(new Callable<GraphBuilder>() {
+							public GraphBuilder call() throws IOException {
+								return parseChunk(channel, start, end, header);
+							}
+						}));
+					}
+					for(int i=0;i<chunks;i++)
+						parts[i]=results.get(i).get();
+				}
+				finally {
+					pool.shutdown();
+				}
+			}
+
+			GraphBuilder builder=parts[0];
+			for(int i=1;i<chunks;i++) {
+				builder.addEdges(parts[i]);
+				parts[i]=null;
+			}
+			CompactGraph g=builder.toCompactGraph();
+			System.out.println("done ("+g.sizeVertices()+" vertices, "+g.sizeEdges()+" edges)");
+			return g;
+		}
+		catch(IOException e) {
+			throw new Error("Error: unable to read file "+filename+" ("+e.getMessage()+")");
+		}
+		catch(InterruptedException | ExecutionException e) {
+			throw new Error("Error: unable to parse file "+filename+" ("+e.getCause()+")");
+		}
+	}
+
+	/**
+	 * Read the geometric coordinates of nodes of a given graph g (storage format for coordinates is MTX)
+	 */
+	public void readGeometry(AdjacencyListGraph g, String inputData) {
+		new GraphReader_MTX().readGeometry(g, inputData);
+	}
+
+	/**
+	 * Parameters stored in the header of the file
+	 */
+	static class Header {
+		int n; // number of vertices
+		int entries; // number of entries (edges) declared in the header
+		boolean weighted; // whether entries have a weight column
+		long dataStart; // position of the first entry
+	}
+
+	/**
+	 * Parse the banner line, the comments and the size line
+	 */
+	static Header readHeader(FileChannel channel, long size) throws IOException {
+		Header header=new Header();
+		long pos=0;
+		boolean first=true;
+		while(pos<size) {
+			long end=nextLine(channel, pos, size);
+			String line=readString(channel, pos, end).trim();
+			pos=end;
+			if(first && line.startsWith("%%MatrixMarket")) { // banner: object, format, field, symmetry
+				String[] words=line.toLowerCase().split("\\s+");
+				if(words.length>=5) {
+					if(words[2].equals("coordinate")==false)
+						throw new Error("Error: only coordinate matrices are supported ("+words[2]+")");
+					header.weighted=words[3].equals("real") || words[3].equals("integer");
+				}
+			}
+			first=false;
+			if(line.length()==0 || line.charAt(0)=='%')
+				continue;
+			String[] words=line.split("\\s+"); // size line: rows, columns, entries
+			header.n=Integer.parseInt(words[0]); // number of vertices (as in GraphReader_MTX)
+			header.entries=(words.length>2) ? Integer.parseInt(words[2]) : 0;
+			header.dataStart=pos;
+			return header;
+		}
+		throw new Error("Error: the size line is missing");
+	}
+
+	/**
+	 * Return the position following the first end of line located at (or after) 'pos'
+	 */
+	static long nextLine(FileChannel channel, long pos, long size) throws IOException {
+		ByteBuffer buffer=ByteBuffer.allocate(4096);
+		while(pos<size) {
+			buffer.clear();
+			int read=channel.read(buffer, pos);
+			if(read<=0)
+				break;
+			for(int i=0;i<read;i++) {
+				if(buffer.get(i)=='\n')
+					return pos+i+1;
+			}
+			pos=pos+read;
+		}
+		return size;
+	}
+
+	static String readString(FileChannel channel, long start, long end) throws IOException {
+		ByteBuffer buffer=ByteBuffer.allocate((int)(end-start));
+		while(buffer.hasRemaining() && channel.read(buffer, start+buffer.position())>0);
+		return new String(buffer.array(), 0, buffer.position(), StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * Parse the entries stored between positions 'start' and 'end' (which are at line boundaries)
+	 */
+	static GraphBuilder parseChunk(FileChannel channel, long start, long end, Header header) throws IOException {
+		int length=(int)(end-start);
+		GraphBuilder builder=new GraphBuilder(header.n, Math.max(16, length/8));
+		if(length==0)
+			return builder;
+		MappedByteBuffer buffer=channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+
+		int i=0;
+		while(i<length) {
+			byte c=buffer.get(i);
+			if(c==' ' || c=='\t' || c=='\r' || c=='\n') { // skip blanks and empty lines
+				i++;
+				continue;
+			}
+			if(c=='%') { // skip comments
+				while(i<length && buffer.get(i)!='\n')
+					i++;
+				continue;
+			}
+
+			// first vertex index
+			int u=0;
+			while(i<length && (c=buffer.get(i))>='0' && c<='9') {
+				u=10*u+(c-'0');
+				i++;
+			}
+			while(i<length && ((c=buffer.get(i))==' ' || c=='\t'))
+				i++;
+			// second vertex index
+			int v=0;
+			int digits=0;
+			while(i<length && (c=buffer.get(i))>='0' && c<='9') {
+				v=10*v+(c-'0');
+				i++;
+				digits++;
+			}
+			if(digits==0)
+				throw new Error("Error: wrong entry at position "+(start+i));
+
+			if(header.weighted) { // parse the weight column
+				while(i<length && ((c=buffer.get(i))==' ' || c=='\t'))
+					i++;
+				int lineEnd=i;
+				while(lineEnd<length && (c=buffer.get(lineEnd))!='\n' && c!='\r' && c!=' ' && c!='\t')
+					lineEnd++;
+				double weight=(lineEnd>i) ? parseDouble(buffer, i, lineEnd) : 1.;
+				builder.addEdge(u-1, v-1, weight); // recall that vertices have indices in 1..n in MTX format
+				i=lineEnd;
+			}
+			else
+				builder.addEdge(u-1, v-1); // recall that vertices have indices in 1..n in MTX format
+
+			while(i<length && buffer.get(i)!='\n') // skip the rest of the line
+				i++;
+		}
+		return builder;
+	}
+
+	/**
+	 * Parse a real number stored between positions 'start' and 'end' (decimal or scientific notation)
+	 */
+	static double parseDouble(ByteBuffer buffer, int start, int end) {
+		int i=start;
+		boolean negative=false;
+		byte c=buffer.get(i);
+		if(c=='-' || c=='+') {
+			negative=(c=='-');
+			i++;
+		}
+		long mantissa=0;
+		int exponent=0;
+		int digits=0; // significant digits stored in the mantissa
+		boolean fraction=false;
+		for(;i<end;i++) {
+			c=buffer.get(i);
+			if(c>='0' && c<='9') {
+				if(digits<18) {
+					mantissa=10*mantissa+(c-'0');
+					if(mantissa>0)
+						digits++;
+					if(fraction)
+						exponent--;
+				}
+				else if(fraction==false)
+					exponent++; // digits beyond the precision of the mantissa
+			}
+			else if(c=='.')
+				fraction=true;
+			else
+				break;
+		}
+		if(i<end && (buffer.get(i)=='e' || buffer.get(i)=='E')) {
+			i++;
+			boolean negativeExponent=false;
+			c=buffer.get(i);
+			if(c=='-' || c=='+') {
+				negativeExponent=(c=='-');
+				i++;
+			}
+			int e=0;
+			for(;i<end && (c=buffer.get(i))>='0' && c<='9';i++)
+				e=10*e+(c-'0');
+			exponent=exponent+(negativeExponent ? -e : e);
+		}
+		if(i!=end) // fall back to the standard parser for unusual notations (NaN, Infinity, ...)
+			return Double.parseDouble(asString(buffer, start, end));
+
+		double result=mantissa;
+		if(exponent>0)
+			result=result*Math.pow(10, exponent);
+		else if(exponent<0)
+			result=result/Math.pow(10, -exponent);
+		return negative ? -result : result;
+	}
+
+	private static String asString(ByteBuffer buffer, int start, int end) {
+		byte[] bytes=new byte[end-start];
+		for(int i=start;i<end;i++)
+			bytes[i-start]=buffer.get(i);
+		return new String(bytes, StandardCharsets.US_ASCII);
+	}
+
+}
@@ -0,0 +1,188 @@
+package jdg.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import jdg.graph.AdjacencyListGraph;
+import jdg.graph.CompactGraph;
+import jdg.graph.Node;
+import Jcg.geometry.Point_3;
+
+/**
+ * Provides methods for reading graphs stored in binary snapshot format (.jdgs)
+ * <p>
+ * A snapshot stores the CSR representation of a graph, and optionally edge weights, vertex coordinates
+ * and communities. All values are little endian, and each section starts at a multiple of 8 bytes:
+ * <p>
+ * -) header (32 bytes): magic number, version, flags, n, number of arcs (2m), dimension, 2 reserved ints <br>
+ * -) offsets (n+1 ints), targets (2m ints) <br>
+ * -) weights (2m doubles, if FLAG_WEIGHTS is set) <br>
+ * -) coordinates (dimension*n doubles: all x, then all y, then all z, if FLAG_COORDINATES is set) <br>
+ * -) communities (n ints, if FLAG_COMMUNITIES is set)
+ * <p>
+ * The whole file is loaded through a single mapped buffer.
+ */
+public class GraphReader_Snapshot extends GraphReader {
+
+	public static final String EXTENSION=".jdgs"; // file extension of snapshots
+	public static final int MAGIC=0x4A444753; // "JDGS"
+	public static final int VERSION=1;
+	public static final int HEADER_SIZE=32;
+
+	public static final int FLAG_WEIGHTS=1;
+	public static final int FLAG_COORDINATES=2;
+	public static final int FLAG_COMMUNITIES=4;
+
+	/** communities stored in the last snapshot read (null if not defined) */
+	public int[] communities=null;
+	/** dimension of the coordinates stored in the last snapshot read (0 if not defined) */
+	public int dimension=0;
+
+	/**
+	 * Read a graph stored in a binary snapshot (coordinates are set if they are stored in the snapshot)
+	 */
+	public AdjacencyListGraph read(String filename) {
+		return this.readCompact(filename).toAdjacencyListGraph();
+	}
+
+	/**
+	 * Read a graph stored in a binary snapshot, and return its compact (CSR) representation
+	 * <p>
+	 * Remark: nodes are created only if coordinates are stored in the snapshot
+	 */
+	public CompactGraph readCompact(String filename) {
+		System.out.print("Reading graph snapshot ("+filename+")...");
+		ByteBuffer buffer=map(filename);
+
+		int flags=buffer.getInt(8);
+		int n=buffer.getInt(12);
+		int arcs=buffer.getInt(16);
+		this.dimension=buffer.getInt(20);
+		if(n<0 || arcs<0)
+			throw new Error("Error: wrong snapshot header ("+n+" vertices, "+arcs+" arcs)");
+		if((flags & FLAG_COORDINATES)!=0 && this.dimension!=2 && this.dimension!=3)
+			throw new Error("Error: wrong snapshot header (dimension "+this.dimension+")");
+
+		int pos=HEADER_SIZE;
+		checkSection(buffer, pos, 4L*(n+1), "offsets");
+		int[] offsets=new int[n+1];
+		buffer.position(pos);
+		buffer.asIntBuffer().get(offsets);
+		pos=align(pos+4*(n+1));
+
+		checkSection(buffer, pos, 4L*arcs, "targets");
+		int[] targets=new int[arcs];
+		buffer.position(pos);
+		buffer.asIntBuffer().get(targets);
+		pos=align(pos+4*arcs);
+		checkAdjacency(offsets, targets);
+
+		double[] weights=null;
+		if((flags & FLAG_WEIGHTS)!=0) {
+			checkSection(buffer, pos, 8L*arcs, "weights");
+			weights=new double[arcs];
+			buffer.position(pos);
+			buffer.asDoubleBuffer().get(weights);
+			pos=pos+8*arcs;
+		}
+
+		Node[] nodes=null;
+		if((flags & FLAG_COORDINATES)!=0) {
+			checkSection(buffer, pos, 8L*this.dimension*n, "coordinates");
+			double[] coordinates=new double[this.dimension*n];
+			buffer.position(pos);
+			buffer.asDoubleBuffer().get(coordinates);
+			pos=pos+8*this.dimension*n;
+			nodes=new Node[n];
+			for(int i=0;i<n;i++) {
+				double z=(this.dimension==3) ? coordinates[2*n+i] : 0.;
+				nodes[i]=new Node(i, new Point_3(coordinates[i], coordinates[n+i], z), null);
+			}
+		}
+		else
+			this.dimension=0;
+
+		this.communities=null;
+		if((flags & FLAG_COMMUNITIES)!=0) {
+			checkSection(buffer, pos, 4L*n, "communities");
+			this.communities=new int[n];
+			buffer.position(pos);
+			buffer.asIntBuffer().get(this.communities);
+		}
+
+		CompactGraph g=new CompactGraph(offsets, targets, weights, nodes);
+		System.out.println("done ("+g.sizeVertices()+" vertices, "+g.sizeEdges()+" edges)");
+		return g;
+	}
+
+	/**
+	 * Read the vertex coordinates stored in a snapshot, and set the coordinates of the nodes of g
+	 */
+	public void readGeometry(AdjacencyListGraph g, String inputData) {
+		CompactGraph snapshot=this.readCompact(inputData);
+		if(this.dimension==0) {
+			System.out.println("Warning: the snapshot does not store vertex coordinates");
+			return;
+		}
+		if(g.sizeVertices()!=snapshot.sizeVertices())
+			throw new Error("Error: the number of coordinates does not match the number of vertices");
+		for(Node v: g.vertices)
+			v.setPoint(new Point_3(snapshot.getNode(v.index).getPoint()));
+	}
+
+	/**
+	 * Map a snapshot in memory, and check its header
+	 */
+	static ByteBuffer map(String filename) {
+		try(FileChannel channel=FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+			long size=channel.size();
+			if(size<HEADER_SIZE || size>Integer.MAX_VALUE)
+				throw new Error("Error: wrong snapshot size ("+size+" bytes)");
+			ByteBuffer buffer=channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			if(buffer.getInt(0)!=MAGIC)
+				throw new Error("Error: "+filename+" is not a graph snapshot");
+			if(buffer.getInt(4)!=VERSION)
+				throw new Error("Error: snapshot version "+buffer.getInt(4)+" not supported");
+			return buffer;
+		}
+		catch(IOException e) {
+			throw new Error("Error: unable to read file "+filename+" ("+e.getMessage()+")");
+		}
+	}
+
+	/**
+	 * Check that a section of the snapshot (of given length in bytes, starting at 'pos') is contained in the file
+	 */
+	static void checkSection(ByteBuffer buffer, long pos, long length, String section) {
+		if(pos+length>buffer.capacity())
+			throw new Error("Error: truncated snapshot (the "+section+" end at byte "+(pos+length)+", file size "+buffer.capacity()+" bytes)");
+	}
+
+	/**
+	 * Check the CSR arrays read from a snapshot: offsets are non decreasing between 0 and 2m, targets are vertex indices
+	 */
+	static void checkAdjacency(int[] offsets, int[] targets) {
+		int n=offsets.length-1;
+		if(offsets[0]!=0 || offsets[n]!=targets.length)
+			throw new Error("Error: corrupted snapshot (wrong offsets)");
+		for(int i=0;i<n;i++)
+			if(offsets[i]>offsets[i+1])
+				throw new Error("Error: corrupted snapshot (wrong offsets of vertex v"+i+")");
+		for(int e=0;e<targets.length;e++)
+			if(targets[e]<0 || targets[e]>=n)
+				throw new Error("Error: corrupted snapshot (wrong target "+targets[e]+")");
+	}
+
+	/**
+	 * Return the smallest multiple of 8 which is larger than (or equal to) 'pos'
+	 */
+	static int align(int pos) {
+		return (pos+7) & ~7;
+	}
+
+}
@@ -0,0 +1,55 @@
+package jdg.io;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import jdg.graph.AdjacencyListGraph;
+import jdg.graph.Node;
+
+/**
+ * Provides methods for storing vertex coordinates in Matrix Market format
+ * (the dense 'array' format read by GraphReader_MTX.readGeometry)
+ */
+public class GraphWriter_MTX {
+
+	/**
+	 * Store the coordinates of the nodes of a graph: the header gives the number of vertices and the dimension,
+	 * followed by all x-coordinates, then all y-coordinates (and all z-coordinates in dimension 3), one per line
+	 * <p>
+	 * Remark: the dimension is 3 only if some node has a non zero z-coordinate
+	 *
+	 * @param g  the input graph (nodes store the vertex locations)
+	 * @param filename  the output file
+	 */
+	public void writeGeometry(AdjacencyListGraph g, String filename) {
+		System.out.print("Writing geometric coordinates in MTX format ("+filename+")...");
+		int n=g.sizeVertices();
+		int dimension=2;
+		for(Node u: g.vertices) {
+			if(u.p.z!=null && u.p.z!=0.)
+				dimension=3;
+		}
+
+		try(BufferedWriter out=Files.newBufferedWriter(Paths.get(filename), StandardCharsets.US_ASCII)) {
+			out.write("%%MatrixMarket matrix array real general\n");
+			out.write("%coordinates matrix\n");
+			out.write(n+" "+dimension+"\n");
+			for(Node u: g.vertices)
+				out.write(u.p.x+"\n");
+			for(Node u: g.vertices)
+				out.write(u.p.y+"\n");
+			if(dimension==3) {
+				for(Node u: g.vertices)
+					out.write(u.p.z+"\n");
+			}
+		}
+		catch(IOException e) {
+			throw new Error("Error: unable to write file "+filename+" ("+e.getMessage()+")");
+		}
+		System.out.println("done ("+n+" vertices, dimension "+dimension+")");
+	}
+
+}
@@ -0,0 +1,160 @@
+package jdg.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import jdg.graph.AdjacencyListGraph;
+import jdg.graph.CompactGraph;
+import jdg.graph.Node;
+
+/**
+ * Provides methods for storing graphs in binary snapshot format (see GraphReader_Snapshot)
+ */
+public class GraphWriter_Snapshot {
+
+	private ByteBuffer buffer=ByteBuffer.allocateDirect(1<<20).order(ByteOrder.LITTLE_ENDIAN);
+	private FileChannel channel;
+	private long written; // number of bytes written so far
+
+	/**
+	 * Store a graph in a binary snapshot
+	 *
+	 * @param g  the input graph
+	 * @param coordinates  whether vertex coordinates (stored in the nodes) must be written
+	 * @param communities  the communities of the vertices (not stored if null)
+	 * @param filename  the output file
+	 */
+	public void write(CompactGraph g, boolean coordinates, int[] communities, String filename) {
+		System.out.print("Writing graph snapshot ("+filename+")...");
+		int n=g.sizeVertices();
+		if(communities!=null && communities.length!=n)
+			throw new Error("Error: the number of communities does not match the number of vertices");
+
+		int dimension=0;
+		if(coordinates) {
+			dimension=2;
+			for(int i=0;i<n && dimension==2;i++) {
+				Node u=g.getNode(i);
+				if(u.p!=null && u.p.z!=null && u.p.z!=0.)
+					dimension=3;
+			}
+		}
+		int flags=0;
+		if(g.weights!=null)
+			flags=flags | GraphReader_Snapshot.FLAG_WEIGHTS;
+		if(coordinates)
+			flags=flags | GraphReader_Snapshot.FLAG_COORDINATES;
+		if(communities!=null)
+			flags=flags | GraphReader_Snapshot.FLAG_COMMUNITIES;
+
+		try(FileChannel out=FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			this.channel=out;
+			this.written=0;
+			this.buffer.clear();
+
+			// header
+			this.putInt(GraphReader_Snapshot.MAGIC);
+			this.putInt(GraphReader_Snapshot.VERSION);
+			this.putInt(flags);
+			this.putInt(n);
+			this.putInt(g.targets.length);
+			this.putInt(dimension);
+			this.putInt(0);
+			this.putInt(0); // reserved
+
+			// CSR arrays
+			for(int i=0;i<=n;i++)
+				this.putInt(g.offsets[i]);
+			this.pad();
+			for(int e=0;e<g.targets.length;e++)
+				this.putInt(g.targets[e]);
+			this.pad();
+
+			if(g.weights!=null) {
+				for(int e=0;e<g.weights.length;e++)
+					this.putDouble(g.weights[e]);
+			}
+			if(coordinates) {
+				for(int c=0;c<dimension;c++) {
+					for(int i=0;i<n;i++)
+						this.putDouble(g.getNode(i).getPoint().getCartesian(c).doubleValue());
+				}
+			}
+			if(communities!=null) {
+				for(int i=0;i<n;i++)
+					this.putInt(communities[i]);
+				this.pad();
+			}
+			this.flush();
+		}
+		catch(IOException e) {
+			throw new Error("Error: unable to write file "+filename+" ("+e.getMessage()+")");
+		}
+		finally {
+			this.channel=null;
+		}
+		if(this.written>Integer.MAX_VALUE)
+			System.out.println("Warning: the snapshot is too large to be mapped ("+this.written+" bytes)");
+		System.out.println("done ("+this.written+" bytes)");
+	}
+
+	/**
+	 * Store a graph in a binary snapshot (with vertex coordinates)
+	 */
+	public void write(AdjacencyListGraph g, int[] communities, String filename) {
+		this.write(new CompactGraph(g), true, communities, filename);
+	}
+
+	private void putInt(int value) throws IOException {
+		if(this.buffer.remaining()<4)
+			this.flush();
+		this.buffer.putInt(value);
+	}
+
+	private void putDouble(double value) throws IOException {
+		if(this.buffer.remaining()<8)
+			this.flush();
+		this.buffer.putDouble(value);
+	}
+
+	/**
+	 * Align the next section to a multiple of 8 bytes
+	 */
+	private void pad() throws IOException {
+		if(((this.written+this.buffer.position()) & 7)!=0)
+			this.putInt(0);
+	}
+
+	private void flush() throws IOException {
+		this.buffer.flip();
+		while(this.buffer.hasRemaining())
+			this.written=this.written+this.channel.write(this.buffer);
+		this.buffer.clear();
+	}
+
+	/**
+	 * Convert a graph stored in MTX format to a binary snapshot
+	 * <p>
+	 * Usage: java jdg.io.GraphWriter_Snapshot input.mtx output.jdgs [coordinates.mtx]
+	 */
+	public static void main(String[] args) {
+		if(args.length<2 || args.length>3) {
+			System.out.println("Usage: java jdg.io.GraphWriter_Snapshot input.mtx output.jdgs [coordinates.mtx]");
+			System.exit(0);
+		}
+		CompactGraph g=new GraphReader_MappedMTX().readCompact(args[0]);
+		if(args.length==3) {
+			AdjacencyListGraph withCoordinates=g.toAdjacencyListGraph();
+			new GraphReader_MTX().readGeometry(withCoordinates, args[2]);
+			new GraphWriter_Snapshot().write(withCoordinates, null, args[1]);
+		}
+		else
+			new GraphWriter_Snapshot().write(g, false, null, args[1]);
+	}
+
+}
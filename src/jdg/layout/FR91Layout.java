@@ -1,11 +1,9 @@
 package jdg.layout;
 
-import jdg.graph.AdjacencyListGraph;
-import jdg.graph.Node;
+import java.util.concurrent.atomic.LongAdder;
 
-import Jcg.geometry.Point_3;
-import Jcg.geometry.Vector_;
-import Jcg.geometry.Vector_3;
+import jdg.graph.AdjacencyListGraph;
+import jdg.graph.CompactGraph;
 
 /**
  * A class implementing the force directed algorithm by Fruchterman and Reingold
@@ -22,9 +20,10 @@ public class FR91Layout extends Layout {
 	public double temperature; // initial temperature
 	public double minTemperature; // minimal temperature (strictly positive)
 	public double coolingConstant; // constant term: the temperature decreases linearly at each iteration
+	public static double warmTemperature=2.; // initial temperature (relative to k) for initial locations which are already a good drawing
 
 	public int iterationCount = 0; // count the number of performed iterations
-	private int countRepulsive = 0; // count the number of computed repulsive forces (to measure time performances)
+	protected LongAdder countRepulsive = new LongAdder(); // count the number of computed repulsive forces (to measure time performances)
 
 	/**
 	 * Initialize the parameters of the force-directed layout
@@ -39,13 +38,61 @@ public class FR91Layout extends Layout {
 	 *            step length
 	 */
 	public FR91Layout(AdjacencyListGraph g, double w, double h) {
+		this(g, w, h, 1);
+	}
+
+	/**
+	 * Initialize the parameters of the force-directed layout
+	 * 
+	 * @param g
+	 *            input graph to draw
+	 * @param w
+	 *            width of the drawing area
+	 * @param h
+	 *            height of the drawing area
+	 * @param threads
+	 *            number of threads used for computing forces
+	 */
+	public FR91Layout(AdjacencyListGraph g, double w, double h, int threads) {
+		this(g==null ? null : new CompactGraph(g), w, h, threads);
+		this.g=g;
+	}
+
+	/**
+	 * Initialize the parameters of the force-directed layout, for a graph in compact (CSR) representation
+	 * 
+	 * @param g
+	 *            input graph to draw (nodes store the vertex locations)
+	 * @param w
+	 *            width of the drawing area
+	 * @param h
+	 *            height of the drawing area
+	 */
+	public FR91Layout(CompactGraph g, double w, double h) {
+		this(g, w, h, 1);
+	}
+
+	/**
+	 * Initialize the parameters of the force-directed layout, for a graph in compact (CSR) representation
+	 * 
+	 * @param g
+	 *            input graph to draw (nodes store the vertex locations)
+	 * @param w
+	 *            width of the drawing area
+	 * @param h
+	 *            height of the drawing area
+	 * @param threads
+	 *            number of threads used for computing forces
+	 */
+	public FR91Layout(CompactGraph g, double w, double h, int threads) {
 
 		System.out.print("Initializing force-directed method: Fruchterman-Reingold 91...");
 		if(g==null) {
 			System.out.println("Input graph not defined");
 			System.exit(0);
 		}
-		this.g=g;
+		this.csr=g;
+		this.setThreads(threads);
 		int N=g.sizeVertices();
 		
 		// set the parameters of the algorithm FR91
@@ -57,42 +104,13 @@ public class FR91Layout extends Layout {
 		this.temperature=w/2.; // the temperature is a fraction of the width of the drawing area
 		this.minTemperature=0.05;
 		this.coolingConstant=0.99;
+		this.displacementTolerance=this.minTemperature; // the layout has converged once the temperature is minimal
 		
-		System.out.println("done ("+N+" nodes)");
+		System.out.println("done ("+N+" nodes, "+this.threads+" threads)");
 		//System.out.println("k="+k+" - temperature="+temperature);
 		System.out.println(this.toString());
 	}
 
-	
-	/**	/**
-	 * Compute the (intensity of the) repulsive force between two nodes at a given
-	 * distance
-	 * 
-	 * @param distance
-	 *            distance between two nodes
-	 *
-	 * Compute the (intensity of the) attractive force between two nodes at a given
-	 * distance
-	 * 
-	 * @param 	distance
-	 *            distance between two nodes
-	 */
-	public double attractiveForce(double distance) {
-		return (distance * distance) / k;
-	}
-
-	/**
-	 * Compute the (intensity of the) repulsive force between two nodes at a given
-	 * distance
-	 * 
-	 * @param distance
-	 *            distance between two nodes
-	 */
-	public double repulsiveForce(double distance) {
-		countRepulsive++;
-		return (k * k) / distance;
-	}
-
 	/**
 	 * Perform one iteration of the Force-Directed algorithm. Positions of vertices
 	 * are updated according to their mutual attractive and repulsive forces.
@@ -101,138 +119,80 @@ public class FR91Layout extends Layout {
 
 		System.out.print("Performing iteration (FR91): " + this.iterationCount);
 		long startTime = System.nanoTime(), endTime; // for evaluating time performances
-
-		//System.err.println("\nWarning: the class FR91Layout must be completed (question 1) ");
-		//System.exit(0);
+		this.checkPositions();
+		int processed = this.sizeActive(); // number of vertices whose forces are computed
 
 		// first step: for each vertex compute the displacements due to attractive and
 		// repulsive forces
-
-		Vector_3[] repulsiveForces = this.computeAllRepulsiveForces();
-		Vector_3[] attractiveForces = this.computeAllAttractiveForces();
-		
-		
-		// second step: compute the total displacements and move all nodes to their new
-		// locations
-		int N = this.g.sizeVertices();
-		
-		Vector_3 totalForce = new Vector_3(0,0,0);
-		double norme=0;
-		
-		for (int k = 0; k < N; k++) {
-			
-			totalForce = repulsiveForces[k].sum(attractiveForces[k]);
-			norme = Math.sqrt((double) totalForce.squaredLength());
-			totalForce  = totalForce.divisionByScalar(norme);
-			
-			this.g.getNode(k).p = this.g.getNode(k).p.sum(totalForce.multiplyByScalar(this.temperature));
-
-		}
+		this.computeAllRepulsiveForces();
+		this.computeAllAttractiveForces();
+		double energy = ForceKernels.energy(dx, dy, dz, this.csr.sizeVertices());
+
+		// second step: move all (active) nodes to their new locations
+		this.storePositions();
+		final int[] rows = this.active;
+		this.forEachActiveVertex(new VertexRange() {
+			public void run(int start, int end) {
+				ForceKernels.moveVertices(x, y, z, dx, dy, dz, rows, start, end, temperature);
+			}
+		});
+		this.updateConvergence(energy, (energy > 0. && processed > 0) ? this.temperature : 0.); // vertices with a non null displacement move by a distance 'temperature' (no move once all vertices are settled)
+		this.updateActiveSet(this.k);
 		this.cooling(); // update temperature
 
 		// evaluate time performances
 		endTime = System.nanoTime();
 		double duration = (double) (endTime - startTime) / 1000000000.;
-		System.out.println("iteration " + this.iterationCount + " done (" + duration + " seconds)");
+		if (this.activeSet)
+			System.out.println("iteration " + this.iterationCount + " done (" + duration + " seconds, " + processed + " active vertices)");
+		else
+			System.out.println("iteration " + this.iterationCount + " done (" + duration + " seconds)");
 		this.iterationCount++; // increase counter (to count the number of performed iterations)
-		
-		//System.out.println(this.g.getNode(0).p.toString());
-		
-		
-		
-	}
-
-	/**
-	 * Compute the displacement of vertex 'u', due to repulsive forces (of all
-	 * nodes)
-	 * 
-	 * @param u
-	 *            the vertex to which repulsive forces are applied
-	 * @return 'displacement' a 3d vector storing the displacement of vertex 'u'
-	 */
-	public Vector_3 computeRepulsiveForce(Node u) {
-
-		Vector_3 displacement = new Vector_3(0,0,0);
-		Vector_3 delta = new Vector_3(0,0,0);
-		double distance=0;
-		
-		for(Node v : this.g.vertices) {
-		
-			if(!v.equals(u)) {
-			delta = (Vector_3) v.getPoint().minus(u.getPoint());
-			distance = Math.sqrt((double) delta.squaredLength());
-			delta = delta.divisionByScalar(distance);
-			delta = delta.multiplyByScalar(this.repulsiveForce(distance));
-			displacement = displacement.sum(delta);
-			}
-		}
-		
-		return displacement.multiplyByScalar(this.C);
-
 	}
 
 	/**
 	 * Compute, for each vertex, the displacement due to repulsive forces (between
 	 * all nodes)
 	 * 
-	 * @return a vector v[]: v[i] stores the geometric displacement of the i-th node
+	 * Remark: displacements are stored in the arrays (dx, dy, dz)
 	 */
-
-	public Vector_3[] computeAllRepulsiveForces() {
-
-		int N = this.g.vertices.size();
-		Vector_3[] RepulsiveForces = new Vector_3[N];
-
-		for (int i = 0; i < N; i++) {
-
-			RepulsiveForces[i] = this.computeRepulsiveForce(this.g.vertices.get(i));
-
-		}
-
-		return RepulsiveForces;
-
+	public void computeAllRepulsiveForces() {
+		this.checkPositions();
+		final int N = this.csr.sizeVertices();
+		final boolean planar = ForceKernels.isPlanar(z, N); // the third coordinate is skipped for 2D drawings
+		final int[] rows = this.active; // active vertices (null: all vertices)
+		this.forEachActiveVertex(new VertexRange() {
+			public void run(int start, int end) {
+				if (planar)
+					countRepulsive.add(ForceKernels.planarRepulsiveForces(x, y, N, rows, start, end, k * k, C, dx, dy, dz));
+				else
+					countRepulsive.add(ForceKernels.repulsiveForces(x, y, z, N, rows, start, end, k * k, C, dx, dy, dz));
+			}
+		});
 	}
 
 	/**
-	 * Compute the displacement of vertex 'u', due to the attractive forces of its
-	 * neighbors
+	 * Compute, for each vertex, the displacement due to attractive forces (between
+	 * neighboring nodes)
 	 * 
-	 * @param u
-	 *            the vertex to which attractive forces are applied
-	 * @return 'disp' a 3d vector storing the displacement of vertex 'u'
+	 * Remark: displacements are added to the arrays (dx, dy, dz)
 	 */
-	public Vector_3 computeAttractiveForce(Node u) {
-		Vector_3 disp = new Vector_3(0,0,0);
-		Vector_3 delta = new Vector_3(0,0,0);
-		double distance;
-		
-		for(Node v : u.neighbors) {
-			delta = (Vector_3) u.getPoint().minus(v.getPoint());
-			distance = Math.sqrt((double) delta.squaredLength());
-			delta = delta.divisionByScalar(distance);
-			
-			delta = delta.multiplyByScalar(this.attractiveForce(distance));
-			disp = disp.sum(delta);
-		}
-		
-		return disp;
+	public void computeAllAttractiveForces() {
+		this.checkPositions();
+		final int[] rows = this.active; // active vertices (null: all vertices)
+		this.forEachActiveVertex(new VertexRange() {
+			public void run(int start, int end) {
+				ForceKernels.attractiveForces(csr.offsets, csr.targets, x, y, z, rows, start, end, k, dx, dy, dz);
+			}
+		});
 	}
 
 	/**
-	 * Compute, for each vertex, the displacement due to attractive forces (between
-	 * neighboring nodes)
-	 * 
-	 * @return a vector v[]: v[i] stores the geometric displacement of the i-th node
+	 * The initial locations are already unfolded (e.g. Pivot MDS): the initial temperature is reduced
+	 * to a few times the natural spring length, so that the first iterations do not scramble the drawing
 	 */
-	public Vector_3[] computeAllAttractiveForces() {
-
-		int N = this.g.vertices.size();
-		
-		Vector_3[] attractiveForces = new Vector_3[N];
-		for (int i = 0; i < N; i++) {
-			attractiveForces[i] = this.computeAttractiveForce(this.g.vertices.get(i));
-		}
-		return attractiveForces;
+	public void warmStart() {
+		this.temperature = Math.min(this.temperature, warmTemperature * this.k);
 	}
 
 	/**
@@ -242,6 +202,10 @@ public class FR91Layout extends Layout {
 	 * (>=minTemperature)
 	 */
 	protected void cooling() {
+		if (this.adaptiveCooling) {
+			this.temperature = Math.max(this.adaptiveTemperature(this.temperature), minTemperature);
+			return;
+		}
 		this.temperature = Math.max(this.temperature * coolingConstant, minTemperature);
 		// this.temperature=Math.max(this.temperature-coolingConstant, minTemperature);
 		// // variant
@@ -254,7 +218,12 @@ public class FR91Layout extends Layout {
 		result = result + "\t C= " + this.C + "\n";
 		result = result + "\t initial temperature= " + this.temperature + "\n";
 		result = result + "\t minimal temperature= " + this.minTemperature + "\n";
-		result = result + "\t cooling constant= " + this.coolingConstant + "\n";
+		result = result + this.activeSetDescription();
+		if (this.adaptiveCooling)
+			result = result + "\t adaptive cooling (factor= " + this.adaptiveFactor + ")\n";
+		else
+			result = result + "\t cooling constant= " + this.coolingConstant + "\n";
+		result = result + "\t threads= " + this.threads + "\n";
 
 		return result;
 	}
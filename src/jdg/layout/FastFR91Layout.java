@@ -1,10 +1,12 @@
 package jdg.layout;
 
-import Jcg.geometry.Point_3;
-import Jcg.geometry.Vector_3;
+import java.util.concurrent.atomic.LongAdder;
+
 import jdg.graph.AdjacencyListGraph;
-import jdg.graph.Node;
+import jdg.graph.CompactGraph;
+import jdg.graph.FastMultipole;
 import jdg.graph.Octree;
+import jdg.graph.Quadtree;
 
 /**
  * A class implementing the Fruchterman and Reingold method with fast
@@ -23,8 +25,19 @@ public class FastFR91Layout extends Layout {
 	public double coolingConstant; // constant term: the temperature decreases linearly at each iteration
 	public boolean useCooling; // say whether performing simulated annealing
 
+	public static final int OCTREE = 0; // repulsive forces are approximated with an octree
+	public static final int QUADTREE = 1; // repulsive forces are approximated with a (2D) quadtree
+	public static final int FMM = 2; // repulsive forces are approximated with the fast multipole method (2D)
+	public int repulsion = QUADTREE; // method used for approximating repulsive forces
+	public int multipoleOrder = 8; // number of terms of the expansions used by the fast multipole method
+	public double theta = 1.; // opening criterion: a cell is approximated when (cell size / distance) < theta
+	public boolean incrementalTree = true; // say whether the octree is refitted between iterations (instead of being rebuilt)
+	public double rebuildThreshold = 0.05; // the octree is rebuilt when this fraction of nodes cannot be reinserted
+	public int octreeRebuilds = 0; // count the number of octree constructions
+	private Octree octree = null; // octree storing the vertex locations (kept between iterations)
+
 	public int iterationCount = 0; // count the number of performed iterations
-	private int countRepulsive = 0; // count the number of computed repulsive forces (to measure time performances)
+	private LongAdder countRepulsive = new LongAdder(); // count the number of computed repulsive forces (to measure time performances)
 
 	/**
 	 * Initialize the parameters of the force-directed layout
@@ -39,12 +52,60 @@ public class FastFR91Layout extends Layout {
 	 *            step length
 	 */
 	public FastFR91Layout(AdjacencyListGraph g, double w, double h) {
+		this(g, w, h, 1);
+	}
+
+	/**
+	 * Initialize the parameters of the force-directed layout
+	 * 
+	 * @param g
+	 *            input graph to draw
+	 * @param w
+	 *            width of the drawing area
+	 * @param h
+	 *            height of the drawing area
+	 * @param threads
+	 *            number of threads used for computing forces
+	 */
+	public FastFR91Layout(AdjacencyListGraph g, double w, double h, int threads) {
+		this(g==null ? null : new CompactGraph(g), w, h, threads);
+		this.g=g;
+	}
+
+	/**
+	 * Initialize the parameters of the force-directed layout, for a graph in compact (CSR) representation
+	 * 
+	 * @param g
+	 *            input graph to draw (nodes store the vertex locations)
+	 * @param w
+	 *            width of the drawing area
+	 * @param h
+	 *            height of the drawing area
+	 */
+	public FastFR91Layout(CompactGraph g, double w, double h) {
+		this(g, w, h, 1);
+	}
+
+	/**
+	 * Initialize the parameters of the force-directed layout, for a graph in compact (CSR) representation
+	 * 
+	 * @param g
+	 *            input graph to draw (nodes store the vertex locations)
+	 * @param w
+	 *            width of the drawing area
+	 * @param h
+	 *            height of the drawing area
+	 * @param threads
+	 *            number of threads used for computing forces
+	 */
+	public FastFR91Layout(CompactGraph g, double w, double h, int threads) {
 		System.out.print("Initializing force-directed method: fast Fruchterman-Reingold 91...");
 		if(g==null) {
 			System.out.println("Input graph not defined");
 			System.exit(0);
 		}
-		this.g=g;
+		this.csr=g;
+		this.setThreads(threads);
 		int N=g.sizeVertices();
 		
 		// set the parameters of the algorithm FR91
@@ -56,158 +117,188 @@ public class FastFR91Layout extends Layout {
 		this.temperature=w/5.; // the temperature is a fraction of the width of the drawing area
 		this.minTemperature=0.05;
 		this.coolingConstant=0.99;
+		this.displacementTolerance=this.minTemperature; // the layout has converged once the temperature is minimal
 		
-		System.out.println("done ("+N+" nodes)");
+		System.out.println("done ("+N+" nodes, "+this.threads+" threads)");
 		//System.out.println("k="+k+" - temperature="+temperature);
 		System.out.println(this.toString());
 	}
 
-	public double repulsiveForce(double distance) {
-		countRepulsive++;
-		return (k * k) / distance;
+	/**
+	 * Add to the displacement of each vertex the attractive forces of its neighbors
+	 * 
+	 * Remark: displacements are added to the arrays (dx, dy, dz)
+	 */
+	public void computeAllAttractiveForces() {
+		this.checkPositions();
+		final int[] rows = this.active; // active vertices (null: all vertices)
+		this.forEachActiveVertex(new VertexRange() {
+			public void run(int start, int end) {
+				ForceKernels.attractiveForces(csr.offsets, csr.targets, x, y, z, rows, start, end, k, dx, dy, dz);
+			}
+		});
 	}
 
-	public double attractiveForce(double distance) {
-		return (distance * distance) / k;
+	/**
+	 * Return the octree storing the current vertex locations: the octree of the previous iteration is refitted
+	 * (if incremental updates are enabled), and rebuilt only when its quality is too low
+	 */
+	public Octree buildOctree() {
+		this.checkPositions();
+		int N = this.csr.sizeVertices();
+		if (this.incrementalTree && this.octree != null && this.octree.sizePoints == N
+				&& this.octree.refit(this.x, this.y, this.z, this.rebuildThreshold))
+			return this.octree;
+		this.octree = new Octree(this.x, this.y, this.z, N, this.pool); // built in parallel with the worker threads of the layout
+		this.octreeRebuilds++;
+		return this.octree;
 	}
 
-	public Vector_3 computeAttractiveForce(Node u) {
-		Vector_3 disp = new Vector_3(0, 0, 0);
-		Vector_3 delta = new Vector_3(0, 0, 0);
-		double distance;
-
-		for (Node v : u.neighbors) {
-			delta = (Vector_3) u.getPoint().minus(v.getPoint());
-			distance = Math.sqrt((double) delta.squaredLength());
-			delta = delta.divisionByScalar(distance);
-
-			delta = delta.multiplyByScalar(this.attractiveForce(distance));
-			disp = disp.sum(delta);
-		}
-
-		return disp;
+	/**
+	 * Compute, for each vertex, the displacement due to repulsive forces (approximated with an octree)
+	 * 
+	 * Remark: displacements are stored in the arrays (dx, dy, dz)
+	 */
+	public void computeAllRepulsiveForces(final Octree fulltree) {
+		this.checkPositions();
+		final int[] rows = this.active; // active vertices (null: all vertices)
+		this.forEachActiveVertex(new VertexRange() {
+			public void run(int start, int end) {
+				double[] force = new double[3];
+				int[] stack = new int[fulltree.stackSize()];
+				long interactions = 0;
+				for (int p = start; p < end; p++) {
+					int i = (rows == null) ? p : rows[p];
+					interactions += fulltree.computeRepulsiveForce(x[i], y[i], z[i], theta, k * k, force, stack);
+					dx[i] = force[0] * C;
+					dy[i] = force[1] * C;
+					dz[i] = force[2] * C;
+				}
+				countRepulsive.add(interactions);
+			}
+		});
 	}
 
-	public Vector_3[] computeAllAttractiveForces() {
-
-		int N = this.g.vertices.size();
-
-		Vector_3[] attractiveForces = new Vector_3[N];
-		for (int i = 0; i < N; i++) {
-			attractiveForces[i] = this.computeAttractiveForce(this.g.vertices.get(i));
-		}
-		return attractiveForces;
+	/**
+	 * Build the quadtree storing the current vertex locations
+	 */
+	public Quadtree buildQuadtree() {
+		this.checkPositions();
+		return new Quadtree(this.x, this.y, this.csr.sizeVertices());
 	}
 
-	public Vector_3 computePartialRepulsiveForce(Node u, Octree tree) {
-
-		Vector_3 displacement = new Vector_3(0, 0, 0);
-		Point_3 supernode = tree.baryCenter;
-		Vector_3 delta = (Vector_3) supernode.minus(u.p);
-		double distance = Math.sqrt((double) delta.squaredLength());
-
-		if (tree.dimension / distance < 10) {
-			displacement = delta.multiplyByScalar(tree.nodeList.size() * this.repulsiveForce(distance) / distance);
-		}
-
-		else if (tree.subCubes == null && !tree.nodeList.isEmpty()) {
-			Node v = tree.nodeList.get(0);
-			delta = new Vector_3(0, 0, 0);
-			delta = (Vector_3) v.getPoint().minus(u.getPoint());
-			distance = Math.sqrt((double) delta.squaredLength());
-			delta = delta.divisionByScalar(distance);
-			delta = delta.multiplyByScalar(this.repulsiveForce(distance));
-			displacement = displacement.sum(delta);
-		}
-
-		else if (tree.subCubes != null) {
-			for (int k = 0; k < 8; k++) {
-				displacement = displacement.sum(this.computePartialRepulsiveForce(u, tree.subCubes.get(k)));
+	/**
+	 * Compute, for each vertex, the displacement due to repulsive forces (approximated with a quadtree)
+	 * 
+	 * Remark: displacements are stored in the arrays (dx, dy, dz)
+	 */
+	public void computeAllRepulsiveForces(final Quadtree tree) {
+		this.checkPositions();
+		final int[] rows = this.active; // active vertices (null: all vertices)
+		this.forEachActiveVertex(new VertexRange() {
+			public void run(int start, int end) {
+				double[] force = new double[2];
+				int[] stack = new int[tree.stackSize()];
+				long interactions = 0;
+				for (int p = start; p < end; p++) {
+					int i = (rows == null) ? p : rows[p];
+					interactions += tree.computeRepulsiveForce(x[i], y[i], theta, k * k, force, stack);
+					dx[i] = force[0] * C;
+					dy[i] = force[1] * C;
+					dz[i] = 0.;
+				}
+				countRepulsive.add(interactions);
 			}
-
-		}
-
-		return displacement.multiplyByScalar(this.C);
-
+		});
 	}
 
-	public Vector_3 computeTotalRepulsiveForce(Node u, Octree fulltree) {
-
-		Vector_3 displacement = new Vector_3(0, 0, 0);
-		Octree cell = fulltree.getSmallestContainer(u);
-		Octree ancester = cell.parent;
-
-		while (true) {
-
-			for (Octree subcube : ancester.subCubes) {
+	/**
+	 * Build the multipole and local expansions of the current vertex locations
+	 */
+	public FastMultipole buildMultipole() {
+		this.checkPositions();
+		return new FastMultipole(this.x, this.y, this.csr.sizeVertices(), this.multipoleOrder, this.pool);
+	}
 
-				if (!subcube.containsNode(u)) {
-					displacement = displacement.sum(this.computePartialRepulsiveForce(u, subcube));
+	/**
+	 * Compute, for each vertex, the displacement due to repulsive forces (approximated with the fast multipole method)
+	 * 
+	 * Remark: displacements are stored in the arrays (dx, dy, dz)
+	 */
+	public void computeAllRepulsiveForces(final FastMultipole fmm) {
+		this.checkPositions();
+		final int[] rows = this.active; // active vertices (null: all vertices)
+		this.forEachActiveVertex(new VertexRange() {
+			public void run(int start, int end) {
+				double[] force = new double[2];
+				long interactions = 0;
+				for (int p = start; p < end; p++) {
+					int i = (rows == null) ? p : rows[p];
+					interactions += fmm.computeRepulsiveForce(i, k * k, force);
+					dx[i] = force[0] * C;
+					dy[i] = force[1] * C;
+					dz[i] = 0.;
 				}
-
+				countRepulsive.add(interactions);
 			}
-
-			ancester = ancester.parent;
-			if (ancester == null) {
-				break;
-			}
-
-		}
-
-		return displacement;
-	}
-
-	public Vector_3[] computeAllRepulsiveForces(Octree fulltree) {
-
-		int N = this.g.vertices.size();
-		Vector_3[] RepulsiveForces = new Vector_3[N];
-
-		for (int i = 0; i < N; i++) {
-			RepulsiveForces[i] = this.computeTotalRepulsiveForce(this.g.vertices.get(i), fulltree);
-		}
-
-		return RepulsiveForces;
+		});
 	}
 
 	public void computeLayout() {
 		System.out.print("Performing iteration (fast FR91): " + this.iterationCount);
 		long startTime = System.nanoTime(), endTime; // for evaluating time performances
-
-		
-		
-			
-		
-		Octree fulltree = new Octree(this.g);
-
-		Vector_3[] repulsiveForces = this.computeAllRepulsiveForces(fulltree);
-		Vector_3[] attractiveForces = this.computeAllAttractiveForces();
-
-		int N = this.g.sizeVertices();
-
-		Vector_3 totalForce = new Vector_3(0,0,0);
-		double norme=0;
-		
-		for (int k = 0; k < N; k++) {
-			
-			totalForce = repulsiveForces[k].sum(attractiveForces[k]);
-			norme = Math.sqrt((double) totalForce.squaredLength());
-			totalForce  = totalForce.divisionByScalar(norme);
-			
-			this.g.getNode(k).p = this.g.getNode(k).p.sum(totalForce.multiplyByScalar(this.temperature));
-
+		this.checkPositions();
+		int processed = this.sizeActive(); // number of vertices whose forces are computed
+
+		if (this.repulsion == QUADTREE) {
+			Quadtree tree = this.buildQuadtree();
+			this.computeAllRepulsiveForces(tree);
+		} else if (this.repulsion == FMM) {
+			FastMultipole fmm = this.buildMultipole();
+			this.computeAllRepulsiveForces(fmm);
+		} else {
+			Octree fulltree = this.buildOctree();
+			this.computeAllRepulsiveForces(fulltree);
 		}
+		this.computeAllAttractiveForces();
+		double energy = ForceKernels.energy(dx, dy, dz, this.csr.sizeVertices());
+
+		// move all (active) nodes to their new locations
+		this.storePositions();
+		final int[] rows = this.active;
+		this.forEachActiveVertex(new VertexRange() {
+			public void run(int start, int end) {
+				ForceKernels.moveVertices(x, y, z, dx, dy, dz, rows, start, end, temperature);
+			}
+		});
+		this.updateConvergence(energy, (energy > 0. && processed > 0) ? this.temperature : 0.); // vertices with a non null displacement move by a distance 'temperature' (no move once all vertices are settled)
+		this.updateActiveSet(this.k);
 		
 		// evaluate time performances
 		endTime = System.nanoTime();
 		double duration = (double) (endTime - startTime) / 1000000000.;
-		System.out.println("iteration " + this.iterationCount + " done (" + duration + " seconds)");
+		if (this.activeSet)
+			System.out.println("iteration " + this.iterationCount + " done (" + duration + " seconds, " + processed + " active vertices)");
+		else
+			System.out.println("iteration " + this.iterationCount + " done (" + duration + " seconds)");
 
 		this.cooling(); // update temperature
 
 		this.iterationCount++; // increase counter (to count the number of performed iterations)
 	}
 
+	/**
+	 * Reduce the initial temperature, as {@link FR91Layout#warmStart()}
+	 */
+	public void warmStart() {
+		this.temperature = Math.min(this.temperature, FR91Layout.warmTemperature * this.k);
+	}
+
 	protected void cooling() {
+		if (this.adaptiveCooling) {
+			this.temperature = Math.max(this.adaptiveTemperature(this.temperature), minTemperature);
+			return;
+		}
 		this.temperature = Math.max(this.temperature * coolingConstant, minTemperature);
 		// this.temperature=Math.max(this.temperature-coolingConstant, minTemperature);
 		// // variant
@@ -220,7 +311,16 @@ public class FastFR91Layout extends Layout {
 		result = result + "\t C= " + this.C + "\n";
 		result = result + "\t initial temperature= " + this.temperature + "\n";
 		result = result + "\t minimal temperature= " + this.minTemperature + "\n";
-		result = result + "\t cooling constant= " + this.coolingConstant + "\n";
+		result = result + this.activeSetDescription();
+		if (this.adaptiveCooling)
+			result = result + "\t adaptive cooling (factor= " + this.adaptiveFactor + ")\n";
+		else
+			result = result + "\t cooling constant= " + this.coolingConstant + "\n";
+		result = result + "\t threads= " + this.threads + "\n";
+		if (this.repulsion == FMM)
+			result = result + "\t repulsive forces: fast multipole method (order= " + this.multipoleOrder + ")\n";
+		else
+			result = result + "\t repulsive forces: " + (this.repulsion == QUADTREE ? "quadtree" : "octree") + " (theta= " + this.theta + ")\n";
 
 		return result;
 	}
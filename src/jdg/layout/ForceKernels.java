@@ -0,0 +1,280 @@
+package jdg.layout;
+
+/**
+ * Force computations working on vertex locations stored in arrays (one array per coordinate).
+ * <p>
+ * The kernels do not allocate objects: displacements are written in arrays provided by the caller,
+ * which are reused at each iteration. Each kernel processes a range of vertices, and only writes
+ * the displacements of the vertices in that range (ranges can thus be processed in parallel).
+ * The range is either a range of vertex indices (rows==null), or a range of positions in an array
+ * of vertex indices 'rows' (e.g. the active vertices, see Layout.activeSet).
+ * <p>
+ * Remark: attractive forces and moves are computed with operations performed in the same order as with Jcg vectors,
+ * so that results are identical to the ones computed with Vector_3 and Point_3. Repulsive forces are computed with
+ * a single division per pair (no square root), results may differ in the last bits
+ * <p>
+ * Remark: when the class jdg.layout.VectorKernels is available (source directory src-vector, compiled and run with
+ * the option '--add-modules jdk.incubator.vector'), repulsive forces are computed with the vector API (see useVectorAPI)
+ */
+final class ForceKernels {
+
+	private ForceKernels() {
+	}
+
+	/**
+	 * Repulsive force kernels: the same computations as repulsiveForces() and planarRepulsiveForces()
+	 * (extended by VectorKernels, which is loaded by reflection)
+	 */
+	static abstract class Repulsion {
+		abstract long repulsiveForces(double[] x, double[] y, double[] z, int n, int[] rows, int start, int end, double k2, double C,
+				double[] dx, double[] dy, double[] dz);
+
+		abstract long planarRepulsiveForces(double[] x, double[] y, int n, int[] rows, int start, int end, double k2, double C,
+				double[] dx, double[] dy, double[] dz);
+	}
+
+	/**
+	 * Vector API kernels (null when the class VectorKernels or the module jdk.incubator.vector is not available)
+	 */
+	static final Repulsion vectorKernels=loadVectorKernels();
+
+	/**
+	 * Say whether repulsive forces are computed with the vector API kernels, when they are available
+	 */
+	static boolean useVectorAPI=true;
+
+	/**
+	 * Return an instance of jdg.layout.VectorKernels, or null if it cannot be loaded
+	 */
+	private static Repulsion loadVectorKernels() {
+		try {
+			Class<?> c=Class.forName("jdg.layout.VectorKernels");
+			return (Repulsion)c.getDeclaredConstructor().newInstance();
+		} catch(ReflectiveOperationException e) {
+			return null; // class not compiled: scalar kernels
+		} catch(LinkageError e) {
+			return null; // module jdk.incubator.vector not resolved: scalar kernels
+		}
+	}
+
+	/**
+	 * Say whether repulsive forces are computed with the vector API
+	 */
+	static boolean vectorized() {
+		return vectorKernels!=null && useVectorAPI;
+	}
+
+	/**
+	 * Number of vertices in a tile: the locations of a tile are reused by several vertices while they are in the L1 cache
+	 */
+	static int tileSize=1024;
+
+	/**
+	 * Compute the displacements of vertices start..end-1 due to the repulsive forces of all vertices
+	 * (force k2/d between two vertices at distance d, giving a displacement k2*(p-q)/d^2): results are stored in (dx, dy, dz)
+	 * <p>
+	 * The vertices are processed by tiles of tileSize vertices, and four vertices of the range at a time
+	 * (the four sums are independent, and each location read from the tile is used four times).
+	 * Pairs of coinciding vertices are ignored.
+	 * <p>
+	 * Remark: the result of a vertex does not depend on the range containing it (tiles are always summed in the same order)
+	 *
+	 * @param n  number of vertices
+	 * @param rows  the vertices to process are rows[start..end-1] (null: vertices start..end-1)
+	 * @param k2  squared natural spring length
+	 * @param C  step
+	 * @return the number of computed interactions
+	 */
+	static long repulsiveForces(double[] x, double[] y, double[] z, int n, int[] rows, int start, int end, double k2, double C,
+			double[] dx, double[] dy, double[] dz) {
+		if(vectorized())
+			return vectorKernels.repulsiveForces(x, y, z, n, rows, start, end, k2, C, dx, dy, dz);
+		for(int p=start;p<end;p++) {
+			int i=(rows==null) ? p : rows[p];
+			dx[i]=0.;
+			dy[i]=0.;
+			dz[i]=0.;
+		}
+		for(int first=0;first<n;first+=tileSize) {
+			int last=Math.min(n, first+tileSize);
+			int p=start;
+			for(;p+4<=end;p+=4) {
+				int i0=(rows==null) ? p : rows[p], i1=(rows==null) ? p+1 : rows[p+1];
+				int i2=(rows==null) ? p+2 : rows[p+2], i3=(rows==null) ? p+3 : rows[p+3];
+				double x0=x[i0], y0=y[i0], z0=z[i0], x1=x[i1], y1=y[i1], z1=z[i1];
+				double x2=x[i2], y2=y[i2], z2=z[i2], x3=x[i3], y3=y[i3], z3=z[i3];
+				double fx0=0., fy0=0., fz0=0., fx1=0., fy1=0., fz1=0.;
+				double fx2=0., fy2=0., fz2=0., fx3=0., fy3=0., fz3=0.;
+				for(int j=first;j<last;j++) {
+					double qx=x[j], qy=y[j], qz=z[j];
+					double ex0=x0-qx, ey0=y0-qy, ez0=z0-qz, d0=ex0*ex0+ey0*ey0+ez0*ez0;
+					double ex1=x1-qx, ey1=y1-qy, ez1=z1-qz, d1=ex1*ex1+ey1*ey1+ez1*ez1;
+					double ex2=x2-qx, ey2=y2-qy, ez2=z2-qz, d2=ex2*ex2+ey2*ey2+ez2*ez2;
+					double ex3=x3-qx, ey3=y3-qy, ez3=z3-qz, d3=ex3*ex3+ey3*ey3+ez3*ez3;
+					double f0=(d0>0.) ? 1./d0 : 0., f1=(d1>0.) ? 1./d1 : 0.; // coinciding vertices are ignored
+					double f2=(d2>0.) ? 1./d2 : 0., f3=(d3>0.) ? 1./d3 : 0.;
+					fx0+=ex0*f0; fy0+=ey0*f0; fz0+=ez0*f0;
+					fx1+=ex1*f1; fy1+=ey1*f1; fz1+=ez1*f1;
+					fx2+=ex2*f2; fy2+=ey2*f2; fz2+=ez2*f2;
+					fx3+=ex3*f3; fy3+=ey3*f3; fz3+=ez3*f3;
+				}
+				dx[i0]+=fx0; dy[i0]+=fy0; dz[i0]+=fz0;
+				dx[i1]+=fx1; dy[i1]+=fy1; dz[i1]+=fz1;
+				dx[i2]+=fx2; dy[i2]+=fy2; dz[i2]+=fz2;
+				dx[i3]+=fx3; dy[i3]+=fy3; dz[i3]+=fz3;
+			}
+			for(;p<end;p++) { // remaining vertices of the range
+				int i=(rows==null) ? p : rows[p];
+				double px=x[i], py=y[i], pz=z[i];
+				double fx=0., fy=0., fz=0.;
+				for(int j=first;j<last;j++) {
+					double ex=px-x[j], ey=py-y[j], ez=pz-z[j], d=ex*ex+ey*ey+ez*ez;
+					double f=(d>0.) ? 1./d : 0.;
+					fx+=ex*f; fy+=ey*f; fz+=ez*f;
+				}
+				dx[i]+=fx; dy[i]+=fy; dz[i]+=fz;
+			}
+		}
+		double scale=k2*C;
+		for(int p=start;p<end;p++) {
+			int i=(rows==null) ? p : rows[p];
+			dx[i]=dx[i]*scale;
+			dy[i]=dy[i]*scale;
+			dz[i]=dz[i]*scale;
+		}
+		return (long)(end-start)*(n-1);
+	}
+
+	/**
+	 * Compute the displacements of vertices start..end-1 due to the repulsive forces of all vertices,
+	 * for planar drawings (all z-coordinates are zero): same as repulsiveForces(), without the third coordinate
+	 *
+	 * @return the number of computed interactions
+	 */
+	static long planarRepulsiveForces(double[] x, double[] y, int n, int[] rows, int start, int end, double k2, double C,
+			double[] dx, double[] dy, double[] dz) {
+		if(vectorized())
+			return vectorKernels.planarRepulsiveForces(x, y, n, rows, start, end, k2, C, dx, dy, dz);
+		for(int p=start;p<end;p++) {
+			int i=(rows==null) ? p : rows[p];
+			dx[i]=0.;
+			dy[i]=0.;
+			dz[i]=0.;
+		}
+		for(int first=0;first<n;first+=tileSize) {
+			int last=Math.min(n, first+tileSize);
+			int p=start;
+			for(;p+4<=end;p+=4) {
+				int i0=(rows==null) ? p : rows[p], i1=(rows==null) ? p+1 : rows[p+1];
+				int i2=(rows==null) ? p+2 : rows[p+2], i3=(rows==null) ? p+3 : rows[p+3];
+				double x0=x[i0], y0=y[i0], x1=x[i1], y1=y[i1], x2=x[i2], y2=y[i2], x3=x[i3], y3=y[i3];
+				double fx0=0., fy0=0., fx1=0., fy1=0., fx2=0., fy2=0., fx3=0., fy3=0.;
+				for(int j=first;j<last;j++) {
+					double qx=x[j], qy=y[j];
+					double ex0=x0-qx, ey0=y0-qy, d0=ex0*ex0+ey0*ey0;
+					double ex1=x1-qx, ey1=y1-qy, d1=ex1*ex1+ey1*ey1;
+					double ex2=x2-qx, ey2=y2-qy, d2=ex2*ex2+ey2*ey2;
+					double ex3=x3-qx, ey3=y3-qy, d3=ex3*ex3+ey3*ey3;
+					double f0=(d0>0.) ? 1./d0 : 0., f1=(d1>0.) ? 1./d1 : 0.; // coinciding vertices are ignored
+					double f2=(d2>0.) ? 1./d2 : 0., f3=(d3>0.) ? 1./d3 : 0.;
+					fx0+=ex0*f0; fy0+=ey0*f0;
+					fx1+=ex1*f1; fy1+=ey1*f1;
+					fx2+=ex2*f2; fy2+=ey2*f2;
+					fx3+=ex3*f3; fy3+=ey3*f3;
+				}
+				dx[i0]+=fx0; dy[i0]+=fy0;
+				dx[i1]+=fx1; dy[i1]+=fy1;
+				dx[i2]+=fx2; dy[i2]+=fy2;
+				dx[i3]+=fx3; dy[i3]+=fy3;
+			}
+			for(;p<end;p++) { // remaining vertices of the range
+				int i=(rows==null) ? p : rows[p];
+				double px=x[i], py=y[i];
+				double fx=0., fy=0.;
+				for(int j=first;j<last;j++) {
+					double ex=px-x[j], ey=py-y[j], d=ex*ex+ey*ey;
+					double f=(d>0.) ? 1./d : 0.;
+					fx+=ex*f; fy+=ey*f;
+				}
+				dx[i]+=fx; dy[i]+=fy;
+			}
+		}
+		double scale=k2*C;
+		for(int p=start;p<end;p++) {
+			int i=(rows==null) ? p : rows[p];
+			dx[i]=dx[i]*scale;
+			dy[i]=dy[i]*scale;
+		}
+		return (long)(end-start)*(n-1);
+	}
+
+	/**
+	 * Say whether all vertices lie in the plane z=0
+	 */
+	static boolean isPlanar(double[] z, int n) {
+		for(int i=0;i<n;i++)
+			if(z[i]!=0.)
+				return false;
+		return true;
+	}
+
+	/**
+	 * Add to the displacements of vertices start..end-1 the attractive forces of their neighbors
+	 * (force d^2/k between two adjacent vertices at distance d)
+	 *
+	 * @param offsets  offsets of the neighbor lists (CSR representation)
+	 * @param targets  concatenated neighbor lists (CSR representation)
+	 * @param rows  the vertices to process are rows[start..end-1] (null: vertices start..end-1)
+	 * @param k  natural spring length
+	 */
+	static void attractiveForces(int[] offsets, int[] targets, double[] x, double[] y, double[] z, int[] rows, int start, int end,
+			double k, double[] dx, double[] dy, double[] dz) {
+		for(int p=start;p<end;p++) {
+			int i=(rows==null) ? p : rows[p];
+			double px=x[i], py=y[i], pz=z[i];
+			double fx=0., fy=0., fz=0.;
+			for(int e=offsets[i];e<offsets[i+1];e++) {
+				int j=targets[e];
+				double ex=x[j]-px, ey=y[j]-py, ez=z[j]-pz;
+				double distance=Math.sqrt(ex*ex+ey*ey+ez*ez);
+				if(distance==0.)
+					continue; // coinciding neighbors do not attract each other
+				double force=(distance*distance)/k;
+				fx+=(ex/distance)*force;
+				fy+=(ey/distance)*force;
+				fz+=(ez/distance)*force;
+			}
+			dx[i]+=fx;
+			dy[i]+=fy;
+			dz[i]+=fz;
+		}
+	}
+
+	/**
+	 * Return the energy of the layout: the sum of the squared norms of the displacements of vertices 0..n-1
+	 */
+	static double energy(double[] dx, double[] dy, double[] dz, int n) {
+		double result=0.;
+		for(int i=0;i<n;i++)
+			result+=dx[i]*dx[i]+dy[i]*dy[i]+dz[i]*dz[i];
+		return result;
+	}
+
+	/**
+	 * Move vertices start..end-1: each vertex is moved by a distance 'temperature' in the direction of its displacement
+	 * (vertices with a null displacement do not move)
+	 */
+	static void moveVertices(double[] x, double[] y, double[] z, double[] dx, double[] dy, double[] dz, int[] rows, int start, int end,
+			double temperature) {
+		for(int p=start;p<end;p++) {
+			int i=(rows==null) ? p : rows[p];
+			double norm=Math.sqrt(dx[i]*dx[i]+dy[i]*dy[i]+dz[i]*dz[i]);
+			if(norm==0.)
+				continue;
+			x[i]+=(dx[i]/norm)*temperature;
+			y[i]+=(dy[i]/norm)*temperature;
+			z[i]+=(dz[i]/norm)*temperature;
+		}
+	}
+
+}
@@ -0,0 +1,200 @@
+package jdg.layout;
+
+import java.util.Arrays;
+
+import jdg.graph.AdjacencyListGraph;
+import jdg.graph.CompactGraph;
+
+/**
+ * The grid variant of the algorithm by Fruchterman and Reingold (1991): repulsive forces
+ * are only computed between vertices at distance smaller than 2k.
+ * <p>
+ * At each iteration vertices are sorted into the cells of a uniform grid (cells of size 2k, by default),
+ * with a counting sort: the repulsive forces applied to a vertex come from the 3x3 cells around it.
+ * Iterations take near linear time on graphs having uniform density (e.g. meshes).
+ */
+public class GridFR91Layout extends FR91Layout {
+	public double radiusFactor = 2.; // repulsive forces are computed between vertices at distance smaller than radiusFactor*k
+	public static int maxCellsPerVertex = 4; // the cells are enlarged when the grid would be too large
+
+	// the grid (arrays are reused at each iteration)
+	double cellSize; // side length of the cells
+	double originX, originY; // bottom left corner of the grid
+	int columns, rows; // number of cells in each direction
+	private int[] cellOf = new int[0]; // cell containing each vertex
+	private int[] cellStart = new int[0]; // vertices of cell c are stored in sorted[cellStart[c]..cellStart[c+1]-1]
+	private int[] sorted = new int[0]; // vertices sorted by cell
+
+	/**
+	 * Initialize the parameters of the force-directed layout
+	 *
+	 * @param g
+	 *            input graph to draw
+	 * @param w
+	 *            width of the drawing area
+	 * @param h
+	 *            height of the drawing area
+	 */
+	public GridFR91Layout(AdjacencyListGraph g, double w, double h) {
+		this(g, w, h, 1);
+	}
+
+	/**
+	 * Initialize the parameters of the force-directed layout
+	 *
+	 * @param g
+	 *            input graph to draw
+	 * @param w
+	 *            width of the drawing area
+	 * @param h
+	 *            height of the drawing area
+	 * @param threads
+	 *            number of threads used for computing forces
+	 */
+	public GridFR91Layout(AdjacencyListGraph g, double w, double h, int threads) {
+		this(g==null ? null : new CompactGraph(g), w, h, threads);
+		this.g=g;
+	}
+
+	/**
+	 * Initialize the parameters of the force-directed layout, for a graph in compact (CSR) representation
+	 *
+	 * @param g
+	 *            input graph to draw (nodes store the vertex locations)
+	 * @param w
+	 *            width of the drawing area
+	 * @param h
+	 *            height of the drawing area
+	 * @param threads
+	 *            number of threads used for computing forces
+	 */
+	public GridFR91Layout(CompactGraph g, double w, double h, int threads) {
+		super(g, w, h, threads);
+		System.out.println("\t grid of cells of size " + this.radiusFactor + "k (repulsion radius= " + this.radiusFactor * this.k + ")");
+	}
+
+	/**
+	 * Sort the vertices into the cells of the grid (counting sort)
+	 */
+	public void buildGrid() {
+		this.checkPositions();
+		int N = this.csr.sizeVertices();
+		double xmin = Double.MAX_VALUE, xmax = -Double.MAX_VALUE, ymin = Double.MAX_VALUE, ymax = -Double.MAX_VALUE;
+		for (int i = 0; i < N; i++) {
+			if (x[i] < xmin)
+				xmin = x[i];
+			if (x[i] > xmax)
+				xmax = x[i];
+			if (y[i] < ymin)
+				ymin = y[i];
+			if (y[i] > ymax)
+				ymax = y[i];
+		}
+		if (N == 0)
+			xmin = xmax = ymin = ymax = 0.;
+
+		// cells of size 2k (at least), the number of cells is linear in the number of vertices
+		this.cellSize = Math.max(this.radiusFactor * this.k, 1e-9);
+		double maxCells = (double) maxCellsPerVertex * Math.max(N, 1);
+		double area = ((xmax - xmin) / this.cellSize + 1) * ((ymax - ymin) / this.cellSize + 1);
+		if (area > maxCells)
+			this.cellSize = this.cellSize * Math.sqrt(area / maxCells);
+		this.originX = xmin;
+		this.originY = ymin;
+		this.columns = (int) ((xmax - xmin) / this.cellSize) + 1;
+		this.rows = (int) ((ymax - ymin) / this.cellSize) + 1;
+		int cells = this.columns * this.rows;
+
+		if (this.cellOf.length < N) {
+			this.cellOf = new int[N];
+			this.sorted = new int[N];
+		}
+		if (this.cellStart.length < cells + 1)
+			this.cellStart = new int[cells + 1];
+		else
+			Arrays.fill(this.cellStart, 0, cells + 1, 0);
+
+		// counting sort
+		for (int i = 0; i < N; i++) {
+			int c = this.cell(x[i], y[i]);
+			this.cellOf[i] = c;
+			this.cellStart[c + 1]++;
+		}
+		for (int c = 0; c < cells; c++)
+			this.cellStart[c + 1] = this.cellStart[c + 1] + this.cellStart[c];
+		for (int i = 0; i < N; i++) { // cellStart[c] is used as insertion position, then shifted back
+			int c = this.cellOf[i];
+			this.sorted[this.cellStart[c]++] = i;
+		}
+		for (int c = cells; c > 0; c--)
+			this.cellStart[c] = this.cellStart[c - 1];
+		this.cellStart[0] = 0;
+	}
+
+	/**
+	 * Return the index of the cell containing the point (px, py)
+	 */
+	private int cell(double px, double py) {
+		int i = Math.min((int) ((px - this.originX) / this.cellSize), this.columns - 1);
+		int j = Math.min((int) ((py - this.originY) / this.cellSize), this.rows - 1);
+		return i + j * this.columns;
+	}
+
+	/**
+	 * Compute the displacements of vertices start..end-1 (or activeRows[start..end-1]) due to the repulsive forces
+	 * of the vertices lying in the 3x3 neighboring cells (and at distance smaller than the repulsion radius)
+	 *
+	 * @return the number of computed interactions
+	 */
+	private long computeRepulsiveForces(int[] activeRows, int start, int end) {
+		double k2 = this.k * this.k, radius = this.radiusFactor * this.k;
+		double r2 = radius * radius;
+		long interactions = 0;
+		for (int p = start; p < end; p++) {
+			int i = (activeRows == null) ? p : activeRows[p];
+			double px = x[i], py = y[i], pz = z[i];
+			double fx = 0., fy = 0., fz = 0.;
+			int c = this.cellOf[i];
+			int ci = c % this.columns, cj = c / this.columns;
+			for (int b = Math.max(cj - 1, 0); b <= Math.min(cj + 1, this.rows - 1); b++) {
+				for (int a = Math.max(ci - 1, 0); a <= Math.min(ci + 1, this.columns - 1); a++) {
+					int d = a + b * this.columns;
+					for (int s = this.cellStart[d]; s < this.cellStart[d + 1]; s++) {
+						int j = this.sorted[s];
+						double ex = px - x[j], ey = py - y[j], ez = pz - z[j];
+						double d2 = ex * ex + ey * ey + ez * ez;
+						if (d2 == 0. || d2 >= r2)
+							continue; // the vertex itself (or a coinciding vertex), or a far vertex
+						double distance = Math.sqrt(d2);
+						double force = k2 / distance;
+						fx += (ex / distance) * force;
+						fy += (ey / distance) * force;
+						fz += (ez / distance) * force;
+						interactions++;
+					}
+				}
+			}
+			dx[i] = fx * this.C;
+			dy[i] = fy * this.C;
+			dz[i] = fz * this.C;
+		}
+		return interactions;
+	}
+
+	/**
+	 * Compute, for each vertex, the displacement due to the repulsive forces of the vertices
+	 * in the neighboring cells of the grid
+	 *
+	 * Remark: displacements are stored in the arrays (dx, dy, dz)
+	 */
+	public void computeAllRepulsiveForces() {
+		this.buildGrid();
+		final int[] activeRows = this.active; // active vertices (null: all vertices)
+		this.forEachActiveVertex(new VertexRange() {
+			public void run(int start, int end) {
+				countRepulsive.add(computeRepulsiveForces(activeRows, start, end));
+			}
+		});
+	}
+
+}
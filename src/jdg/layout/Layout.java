@@ -1,8 +1,11 @@
 package jdg.layout;
 
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import jdg.graph.AdjacencyListGraph;
+import jdg.graph.CompactGraph;
 import jdg.graph.Node;
 
 import Jcg.geometry.Point_3;
@@ -14,8 +17,41 @@ import Jcg.geometry.Point_3;
  * @version october 2017
  */
 public abstract class Layout {
-	public AdjacencyListGraph g;
+	public AdjacencyListGraph g; // input graph (null when the layout is computed on a compact graph)
+	public CompactGraph csr; // compact representation of the graph (used for computing forces)
 	public double w, h; // dimensions of the drawing area
+
+	public int threads=1; // number of threads used for computing forces
+	protected ForkJoinPool pool=null; // worker threads (null when forces are computed sequentially)
+	public static int chunkSize=256; // number of vertices processed by one parallel task
+
+	protected double[] x, y, z; // vertex locations, used for computing forces (null until the locations are read)
+	protected double[] dx, dy, dz; // displacements of the vertices (reused at each iteration)
+
+	// convergence (energy and displacements are updated at each iteration)
+	public double energy=Double.POSITIVE_INFINITY; // energy of the last iteration (sum of the squared norms of the forces)
+	public double previousEnergy=Double.POSITIVE_INFINITY; // energy of the previous iteration
+	public double maxDisplacement=Double.POSITIVE_INFINITY; // largest move of a vertex during the last iteration
+	public double displacementTolerance=0.; // the layout has converged when no vertex moves more than this distance
+	public double energyTolerance=1e-3; // the layout has converged when the relative change of the energy is smaller than this...
+	public int convergenceWindow=10; // ...during this number of consecutive iterations
+	protected int stableIterations=0; // number of consecutive iterations with a small relative change of the energy
+	public int maxIterations=1000; // maximal number of iterations performed by computeLayoutUntilConvergence()
+	public boolean adaptiveCooling=false; // say whether the temperature is updated according to the progress (Hu, 2005)
+	public double adaptiveFactor=0.9; // the temperature is multiplied or divided by this factor (adaptive cooling)
+	protected int progress=0; // number of consecutive iterations decreasing the energy (adaptive cooling)
+
+	// active-set mode: settled vertices are frozen (their forces are not computed, and they do not move)
+	public boolean activeSet=false; // say whether settled vertices are frozen
+	public double settleRatio=0.1; // a vertex is settled when its recent displacement is smaller than this fraction of the edge length
+	public double driftFactor=0.5; // weight of the last move in the recent displacement (exponential moving average)
+	public int recheckInterval=10; // all vertices are active (re-checked) once every recheckInterval iterations
+	protected int[] active=null; // indices of the active vertices: active[0..activeCount-1] (null when all vertices are active)
+	protected int activeCount=0;
+	private double[] previous; // locations of the active vertices before their move (3 coordinates per vertex)
+	private double[] drift; // recent displacement of each vertex (3 coordinates per vertex)
+	private boolean[] marked; // vertices active at the next iteration
+	private int partialIterations=0; // number of iterations since all vertices have been re-checked
 	
 	public static int seed=10;
 	/** Random generator */	
@@ -35,10 +71,359 @@ public abstract class Layout {
 		}		
 	}
 	
+	/**
+	 * Initialize vertex locations with Pivot MDS (see PivotMDS), in a drawing of size WxH:
+	 * the average edge length is sqrt(WxH/n)
+	 *
+	 * @param threads  number of threads used for the breadth-first searches and the matrix products
+	 */
+	public static void setPivotMDSPoints(AdjacencyListGraph g, double w, double h, int threads) {
+		int n=g.sizeVertices();
+		ForkJoinPool pool=(threads>1) ? new ForkJoinPool(threads) : null;
+		double[][] p=new PivotMDS(new CompactGraph(g), pool, seed).computeCoordinates();
+		if(pool!=null)
+			pool.shutdown();
+		double scale=Math.sqrt(w*h/n);
+		for(int i=0;i<n;i++)
+			g.getNode(i).setPoint(new Point_3(scale*p[0][i], scale*p[1][i], 0.0));
+	}
+	
+	/**
+	 * Initialize vertex locations with the spectral layout (see SpectralLayout), in a drawing of size WxH:
+	 * the average edge length is sqrt(WxH/n)
+	 *
+	 * @param iterations  maximal number of iterations of the spectral layout
+	 * @param threads  number of threads used for the matrix-vector products
+	 */
+	public static void setSpectralPoints(AdjacencyListGraph g, double w, double h, int iterations, int threads) {
+		SpectralLayout layout=new SpectralLayout(g, w, h, threads);
+		layout.maxIterations=iterations;
+		layout.computeLayoutUntilConvergence();
+		layout.writePositions();
+		layout.setThreads(1); // release the worker threads
+	}
+	
+	/**
+	 * Read the vertex locations stored in the nodes: this must be done each time the nodes are moved
+	 * outside the layout (the locations are read automatically before the first iteration)
+	 */
+	public void readPositions() {
+		int n=this.csr.sizeVertices();
+		this.allocatePositions(n);
+		this.active=null; // all vertices are re-checked
+		for(int i=0;i<n;i++) {
+			Node u=this.csr.getNode(i);
+			this.x[i]=u.p.x;
+			this.y[i]=u.p.y;
+			this.z[i]=(u.p.z!=null) ? u.p.z : 0.;
+		}
+	}
+
+	/**
+	 * Allocate the location arrays (and the displacement arrays), without reading the nodes
+	 */
+	protected void allocatePositions(int n) {
+		if(this.x==null || this.x.length!=n) {
+			this.x=new double[n];
+			this.y=new double[n];
+			this.z=new double[n];
+			this.dx=new double[n];
+			this.dy=new double[n];
+			this.dz=new double[n];
+		}
+	}
+
+	/**
+	 * Initialize the vertex locations with Pivot MDS (instead of random locations): the drawing is already unfolded,
+	 * with an average edge length equal to the natural length sqrt(WxH/n). The locations are also stored in the nodes.
+	 * <p>
+	 * Remark: the layout then starts with a small temperature (see warmStart())
+	 */
+	public void setPivotMDSPositions() {
+		int n=this.csr.sizeVertices();
+		double[][] p=new PivotMDS(this.csr, this.pool, seed).computeCoordinates();
+		double scale=Math.sqrt(this.w*this.h/n);
+		this.allocatePositions(n);
+		for(int i=0;i<n;i++) {
+			this.x[i]=scale*p[0][i];
+			this.y[i]=scale*p[1][i];
+			this.z[i]=0.;
+		}
+		this.writePositions();
+		this.warmStart();
+	}
+
+	/**
+	 * Adapt the parameters of the layout to initial locations which are already a good drawing
+	 * (by default nothing is done)
+	 */
+	public void warmStart() {
+	}
+
+	/**
+	 * Store the vertex locations computed by the layout in the nodes (to be called before drawing the graph)
+	 * <p>
+	 * Remark: iterations only update the location arrays, nodes are not modified by computeLayout()
+	 */
+	public void writePositions() {
+		if(this.x==null)
+			return;
+		int n=this.csr.sizeVertices();
+		for(int i=0;i<n;i++)
+			this.csr.getNode(i).setPoint(new Point_3(this.x[i], this.y[i], this.z[i]));
+	}
+
+	/**
+	 * Copy the vertex locations computed by the layout in the given arrays (of size at least n), without modifying the nodes
+	 *
+	 * @return false if the locations are not defined yet
+	 */
+	public boolean copyPositions(double[] x, double[] y, double[] z) {
+		if(this.x==null)
+			return false;
+		int n=this.csr.sizeVertices();
+		System.arraycopy(this.x, 0, x, 0, n);
+		System.arraycopy(this.y, 0, y, 0, n);
+		System.arraycopy(this.z, 0, z, 0, n);
+		return true;
+	}
+
+	/**
+	 * Read the vertex locations, if this has not been done yet
+	 */
+	protected void checkPositions() {
+		if(this.x==null)
+			this.readPositions();
+	}
+
+	/**
+	 * Set the number of threads used for computing forces (1 for sequential computations)
+	 */
+	public void setThreads(int threads) {
+		this.threads=Math.max(1, threads);
+		if(this.pool!=null)
+			this.pool.shutdown();
+		this.pool=(this.threads>1) ? new ForkJoinPool(this.threads) : null;
+	}
+
+	/**
+	 * A computation performed on a range of vertices
+	 */
+	protected interface VertexRange {
+		/** Process vertices with indices in start..end-1 */
+		void run(int start, int end);
+	}
+
+	/**
+	 * Process vertices 0..n-1: the vertices are partitioned into chunks which are processed in parallel
+	 * (or sequentially if a single thread is used)
+	 * <p>
+	 * Remark: the results do not depend on the number of threads, as long as each chunk only writes
+	 * the values of its own vertices
+	 */
+	protected void forEachVertex(int n, VertexRange task) {
+		if(this.pool==null || n<=chunkSize)
+			task.run(0, n);
+		else
+			this.pool.invoke(new RangeAction(task, 0, n));
+	}
+
+	/**
+	 * Recursively split a range of vertices into chunks of size at most chunkSize
+	 */
+	private static class RangeAction extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final VertexRange task;
+		private final int start, end;
+
+		RangeAction(VertexRange task, int start, int end) {
+			this.task=task;
+			this.start=start;
+			this.end=end;
+		}
+
+		protected void compute() {
+			if(this.end-this.start<=chunkSize) {
+				this.task.run(this.start, this.end);
+				return;
+			}
+			int middle=(this.start+this.end)>>>1;
+			invokeAll(new RangeAction(this.task, this.start, middle), new RangeAction(this.task, middle, this.end));
+		}
+	}
+
+	/**
+	 * Return the number of vertices processed by the current iteration (the active vertices, see activeSet)
+	 */
+	public int sizeActive() {
+		return (this.active==null) ? this.csr.sizeVertices() : this.activeCount;
+	}
+
+	/**
+	 * Process the vertices of the current iteration: the task gets ranges of positions in the array 'active'
+	 * (ranges of vertices when all vertices are active, i.e. when 'active' is null)
+	 */
+	protected void forEachActiveVertex(VertexRange task) {
+		this.forEachVertex(this.sizeActive(), task);
+	}
+
+	/**
+	 * Store the locations of the active vertices (active-set mode): to be called before the vertices are moved
+	 */
+	protected void storePositions() {
+		if(this.activeSet==false)
+			return;
+		int n=this.csr.sizeVertices();
+		if(this.previous==null || this.previous.length!=3*n) {
+			this.previous=new double[3*n];
+			this.drift=new double[3*n];
+		}
+		for(int p=0;p<this.sizeActive();p++) {
+			int i=(this.active==null) ? p : this.active[p];
+			this.previous[3*i]=x[i];
+			this.previous[3*i+1]=y[i];
+			this.previous[3*i+2]=z[i];
+		}
+	}
+
+	/**
+	 * Return the description of the active-set mode (a line of toString()), or an empty string if it is not used
+	 */
+	protected String activeSetDescription() {
+		if(this.activeSet==false)
+			return "";
+		return "\t active set (settle ratio= "+this.settleRatio+", re-check every "+this.recheckInterval+" iterations)\n";
+	}
+
+	/**
+	 * Compute the vertices active at the next iteration (active-set mode), once the active vertices have moved.
+	 * <p>
+	 * Each vertex tracks its recent displacement: an exponential moving average of its moves (the moves of a vertex
+	 * oscillating around its location cancel out). A vertex is settled when its recent displacement is smaller than
+	 * settleRatio times the edge length 'scale'. An active vertex remains active if it is not settled, and wakes its
+	 * frozen neighbors up. All vertices are re-checked once every recheckInterval iterations.
+	 * <p>
+	 * Remark: the displacements (dx, dy, dz) of frozen vertices are those of their last evaluation (used for the energy)
+	 *
+	 * @param scale
+	 *            natural edge length of the layout
+	 */
+	protected void updateActiveSet(double scale) {
+		int n=this.csr.sizeVertices();
+		if(this.activeSet==false) {
+			this.active=null;
+			return;
+		}
+		if(this.marked==null || this.marked.length!=n)
+			this.marked=new boolean[n];
+		double threshold=this.settleRatio*scale;
+		for(int p=0;p<this.sizeActive();p++) {
+			int i=(this.active==null) ? p : this.active[p];
+			double mx=this.driftFactor*(x[i]-previous[3*i])+(1.-this.driftFactor)*drift[3*i];
+			double my=this.driftFactor*(y[i]-previous[3*i+1])+(1.-this.driftFactor)*drift[3*i+1];
+			double mz=this.driftFactor*(z[i]-previous[3*i+2])+(1.-this.driftFactor)*drift[3*i+2];
+			drift[3*i]=mx;
+			drift[3*i+1]=my;
+			drift[3*i+2]=mz;
+			if(mx*mx+my*my+mz*mz<threshold*threshold)
+				continue; // settled vertex
+			this.marked[i]=true;
+			for(int e=this.csr.offsets[i];e<this.csr.offsets[i+1];e++)
+				this.marked[this.csr.targets[e]]=true;
+		}
+		this.partialIterations++;
+		if(this.partialIterations>=this.recheckInterval) { // all vertices are re-checked
+			this.partialIterations=0;
+			for(int i=0;i<n;i++)
+				this.marked[i]=false;
+			this.active=null;
+			return;
+		}
+		if(this.active==null || this.active.length!=n)
+			this.active=new int[n];
+		int count=0;
+		for(int i=0;i<n;i++) {
+			if(this.marked[i]) {
+				this.active[count++]=i;
+				this.marked[i]=false;
+			}
+		}
+		this.activeCount=count;
+		if(count==n)
+			this.active=null;
+	}
+
+	/**
+	 * Store the energy and the largest vertex move of the last iteration
+	 */
+	protected void updateConvergence(double energy, double maxDisplacement) {
+		this.previousEnergy=this.energy;
+		this.energy=energy;
+		this.maxDisplacement=maxDisplacement;
+		if(this.previousEnergy<Double.POSITIVE_INFINITY && Math.abs(this.energy-this.previousEnergy)<=this.energyTolerance*this.previousEnergy) // no change at the first iteration
+			this.stableIterations++;
+		else
+			this.stableIterations=0;
+	}
+
+	/**
+	 * Say whether the layout has converged: vertices do not move more than displacementTolerance,
+	 * or the relative change of the energy has been smaller than energyTolerance during the last iterations
+	 * <p>
+	 * Remark: the energy fluctuates from one iteration to the next one (in particular when forces are approximated),
+	 * a single small change is not enough
+	 */
+	public boolean hasConverged() {
+		return this.maxDisplacement<=this.displacementTolerance || this.stableIterations>=this.convergenceWindow;
+	}
+
+	/**
+	 * Adaptive cooling (Hu, 2005): the temperature increases after five consecutive iterations
+	 * decreasing the energy, and decreases as soon as the energy does not decrease
+	 *
+	 * @return the new temperature
+	 */
+	protected double adaptiveTemperature(double temperature) {
+		if(this.energy<this.previousEnergy) {
+			this.progress++;
+			if(this.progress>=5) {
+				this.progress=0;
+				return temperature/this.adaptiveFactor;
+			}
+			return temperature;
+		}
+		this.progress=0;
+		return temperature*this.adaptiveFactor;
+	}
+
+	/**
+	 * Perform iterations until the layout has converged, or maxIterations iterations have been performed
+	 * <p>
+	 * Remark: the new positions are stored in the nodes by writePositions()
+	 *
+	 * @return the number of performed iterations
+	 */
+	public int computeLayoutUntilConvergence() {
+		long startTime=System.nanoTime();
+		int iterations=0;
+		while(iterations<this.maxIterations) {
+			this.computeLayout();
+			iterations++;
+			if(this.hasConverged())
+				break;
+		}
+		double duration=(double)(System.nanoTime()-startTime)/1000000000.;
+		String status=this.hasConverged() ? "converged" : "not converged";
+		System.out.println("Layout "+status+" after "+iterations+" iterations ("+duration+" seconds)");
+		return iterations;
+	}
+
 	/**
 	 * Perform one iteration of the Force-Directed algorithm.
 	 * Positions of vertices are updated according to their
 	 * mutual attractive and repulsive forces.
+	 * <p>
+	 * Remark: the new positions are stored in the nodes by writePositions()
 	 */	
 	public abstract void computeLayout();
 			
@@ -0,0 +1,174 @@
+package jdg.layout;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import jdg.graph.Node;
+
+/**
+ * A worker thread performing the iterations of a layout, while the vertex locations are drawn by another thread.
+ * <p>
+ * After each iteration the worker copies the vertex locations in a buffer and publishes it atomically:
+ * the drawing thread always gets the locations of a complete iteration, without locking. Three buffers are used:
+ * the buffer filled by the worker, the last published buffer, and the buffer read by the drawing thread
+ * (published and filled buffers are exchanged with an atomic operation, so that a buffer is never written while it is read).
+ * <p>
+ * Remark: nodes are only modified by the drawing thread (see updateNodes()), the worker only works on the location
+ * arrays of the layout (except for the multilevel layout, whose first iteration stores the locations of each level in the nodes)
+ */
+public class LayoutThread implements Runnable {
+	public final Layout layout; // the layout computed by the worker
+	public volatile boolean stopWhenConverged=false; // say whether continuous iterations stop once the layout has converged (set by the drawing thread)
+
+	private final Thread thread;
+	private volatile boolean running=false; // say whether iterations are performed continuously
+	private volatile boolean stopped=false; // say whether the worker must terminate
+	private final AtomicInteger pendingSteps=new AtomicInteger(); // number of single iterations requested
+	private volatile int iterations=0; // number of iterations performed by the worker
+
+	/**
+	 * Vertex locations computed at a given iteration
+	 */
+	private static class Positions {
+		final double[] x, y, z;
+		int iteration=-1; // iteration which computed the locations (-1 if not defined)
+
+		Positions(int n) {
+			this.x=new double[n];
+			this.y=new double[n];
+			this.z=new double[n];
+		}
+	}
+
+	private Positions filled; // buffer filled by the worker
+	private final AtomicReference<Positions> published; // last published buffer
+	private Positions drawn; // buffer read by the drawing thread
+
+	/**
+	 * Create the worker thread of a layout (the worker is paused until start() or step() is called)
+	 * <p>
+	 * Remark: the layout reads the vertex locations stored in the nodes before its first iteration
+	 */
+	public LayoutThread(Layout layout) {
+		this.layout=layout;
+		int n=layout.csr.sizeVertices();
+		this.filled=new Positions(n);
+		this.published=new AtomicReference<Positions>(new Positions(n));
+		this.drawn=new Positions(n);
+		this.thread=new Thread(this, "layout");
+		this.thread.setDaemon(true); // the worker does not prevent the application from terminating
+		this.thread.start();
+	}
+
+	/**
+	 * Perform iterations continuously
+	 */
+	public void start() {
+		this.running=true;
+		LockSupport.unpark(this.thread);
+	}
+
+	/**
+	 * Stop the continuous iterations (the current iteration is completed)
+	 */
+	public void pause() {
+		this.running=false;
+	}
+
+	/**
+	 * Perform one iteration (when the worker is paused)
+	 */
+	public void step() {
+		this.pendingSteps.incrementAndGet();
+		LockSupport.unpark(this.thread);
+	}
+
+	/**
+	 * Terminate the worker (the current iteration is completed, but its result is not published)
+	 */
+	public void terminate() {
+		this.stopped=true;
+		this.running=false;
+		LockSupport.unpark(this.thread);
+	}
+
+	public boolean isRunning() {
+		return this.running;
+	}
+
+	public int getIterations() {
+		return this.iterations;
+	}
+
+	/**
+	 * Perform the requested iterations.
+	 * <p>
+	 * Remark: iterations are performed while holding the lock of the layout, in case a terminated worker
+	 * of the same layout has not completed its last iteration (the drawing thread never waits for this lock).
+	 * If an iteration fails, the error is reported and the continuous iterations are stopped (the worker waits
+	 * for the next request)
+	 */
+	public void run() {
+		synchronized(this.layout) {
+			this.layout.readPositions();
+		}
+		while(this.stopped==false) {
+			if(this.running==false) {
+				if(this.pendingSteps.get()==0) {
+					LockSupport.park(this); // wait for start(), step() or terminate()
+					continue;
+				}
+				this.pendingSteps.decrementAndGet();
+			}
+			synchronized(this.layout) {
+				try {
+					this.layout.computeLayout();
+				}
+				catch(RuntimeException | Error e) {
+					System.out.println("Error: layout iteration failed ("+e+")");
+					e.printStackTrace();
+					this.running=false;
+					this.pendingSteps.set(0);
+					continue;
+				}
+				this.iterations++;
+				if(this.stopped)
+					return;
+				this.publish();
+			}
+			if(this.stopWhenConverged && this.layout.hasConverged())
+				this.running=false;
+		}
+	}
+
+	/**
+	 * Copy the current vertex locations in the filled buffer, and exchange it with the published buffer
+	 */
+	private void publish() {
+		if(this.layout.copyPositions(this.filled.x, this.filled.y, this.filled.z)==false)
+			return;
+		this.filled.iteration=this.iterations;
+		this.filled=this.published.getAndSet(this.filled);
+	}
+
+	/**
+	 * Store in the nodes the vertex locations of the last published iteration (to be called by the drawing thread)
+	 *
+	 * @return true if new locations have been stored
+	 */
+	public boolean updateNodes() {
+		if(this.published.get().iteration<=this.drawn.iteration)
+			return false; // no new iteration
+		this.drawn=this.published.getAndSet(this.drawn);
+		int n=this.layout.csr.sizeVertices();
+		for(int i=0;i<n;i++) {
+			Node u=this.layout.csr.getNode(i);
+			u.p.setX(this.drawn.x[i]);
+			u.p.setY(this.drawn.y[i]);
+			u.p.setZ(this.drawn.z[i]);
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,285 @@
+package jdg.layout;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import jdg.graph.AdjacencyListGraph;
+import jdg.graph.CompactGraph;
+import jdg.graph.GraphBuilder;
+import jdg.graph.Node;
+
+import Jcg.geometry.Point_3;
+
+/**
+ * A multilevel implementation of the force-directed paradigm (as in the method by Walshaw, 2003)
+ * <p>
+ * -) the graph is coarsened by collapsing a maximal matching, until it is small: each node stores
+ * its representative in the coarser graph (field 'descedant') <br>
+ * -) the coarsest graph is drawn with the fast FR91 method, starting from random locations <br>
+ * -) locations are interpolated from each level to the finer one, and refined with a few iterations
+ * of the fast FR91 method (the temperature is proportional to the natural spring length of the level)
+ * <p>
+ * The first call to computeLayout() computes the whole hierarchy, next calls perform
+ * iterations of the fast FR91 method on the input graph.
+ * <p>
+ * Remark: the settings of this layout (repulsion, activeSet, adaptiveCooling and the convergence criteria)
+ * are copied into the layout of each level, before every iteration on the input graph.
+ */
+public class MultilevelLayout extends Layout {
+	public int coarsestSize = 50; // coarsening stops when the graph has at most this number of vertices
+	public double minReduction = 0.8; // coarsening stops when the size of a level is larger than this fraction of the finer one
+	public int coarsestIterations = 300; // number of iterations performed on the coarsest graph
+	public int refinementIterations = 30; // number of iterations performed at each refinement level
+	public double refinementTemperature = 2.; // initial temperature of each refinement (relative to the spring length of the level)
+	public double refinementCooling = 0.9; // cooling constant used during refinements
+	public int repulsion = FastFR91Layout.QUADTREE; // method used for approximating repulsive forces (at every level)
+
+	public ArrayList<CompactGraph> levels = null; // hierarchy of graphs (levels[0] is the input graph)
+	private FastFR91Layout finest = null; // layout of the input graph (defined once the hierarchy has been drawn)
+	private Random random = new Random(seed); // used for computing matchings and interpolating locations
+
+	/**
+	 * Initialize the multilevel layout
+	 *
+	 * @param g
+	 *            input graph to draw
+	 * @param w
+	 *            width of the drawing area
+	 * @param h
+	 *            height of the drawing area
+	 */
+	public MultilevelLayout(AdjacencyListGraph g, double w, double h) {
+		this(g, w, h, 1);
+	}
+
+	/**
+	 * Initialize the multilevel layout
+	 *
+	 * @param g
+	 *            input graph to draw
+	 * @param w
+	 *            width of the drawing area
+	 * @param h
+	 *            height of the drawing area
+	 * @param threads
+	 *            number of threads used for computing forces
+	 */
+	public MultilevelLayout(AdjacencyListGraph g, double w, double h, int threads) {
+		this(g==null ? null : new CompactGraph(g), w, h, threads);
+		this.g=g;
+	}
+
+	/**
+	 * Initialize the multilevel layout, for a graph in compact (CSR) representation
+	 *
+	 * @param g
+	 *            input graph to draw (nodes store the vertex locations)
+	 * @param w
+	 *            width of the drawing area
+	 * @param h
+	 *            height of the drawing area
+	 * @param threads
+	 *            number of threads used for computing forces
+	 */
+	public MultilevelLayout(CompactGraph g, double w, double h, int threads) {
+		System.out.print("Initializing force-directed method: multilevel Fruchterman-Reingold...");
+		if(g==null) {
+			System.out.println("Input graph not defined");
+			System.exit(0);
+		}
+		this.csr=g;
+		this.w=w;
+		this.h=h;
+		this.setThreads(threads);
+		System.out.println("done ("+g.sizeVertices()+" nodes, "+this.threads+" threads)");
+	}
+
+	/**
+	 * Compute the coarser graph obtained by collapsing a maximal matching of g: vertices are visited in random order,
+	 * and each vertex is matched with its unmatched neighbor of minimal weight.
+	 * <p>
+	 * Remark: the field 'descedant' of each node of g is set to its representative in the coarser graph,
+	 * whose node weights are the sums of the weights of their representatives
+	 *
+	 * @return the coarser graph
+	 */
+	public static CompactGraph coarsen(CompactGraph g, Random random) {
+		int n=g.sizeVertices();
+		int[] order=new int[n]; // random permutation of the vertices
+		for(int i=0;i<n;i++) {
+			int j=random.nextInt(i+1);
+			order[i]=order[j];
+			order[j]=i;
+		}
+
+		int[] map=new int[n]; // index of the representative of each vertex in the coarser graph
+		for(int i=0;i<n;i++)
+			map[i]=-1;
+		int size=0; // number of vertices of the coarser graph
+		for(int i: order) {
+			if(map[i]>=0)
+				continue;
+			int mate=-1;
+			for(int e=g.offsets[i];e<g.offsets[i+1];e++) {
+				int j=g.targets[e];
+				if(map[j]<0 && j!=i && (mate<0 || g.getNode(j).weight<g.getNode(mate).weight))
+					mate=j;
+			}
+			map[i]=size;
+			if(mate>=0)
+				map[mate]=size;
+			size++;
+		}
+
+		GraphBuilder builder=new GraphBuilder(size, g.targets.length/2);
+		for(int i=0;i<n;i++) {
+			for(int e=g.offsets[i];e<g.offsets[i+1];e++) {
+				int j=g.targets[e];
+				if(i<j && map[i]!=map[j])
+					builder.addEdge(map[i], map[j]);
+			}
+		}
+		CompactGraph coarse=builder.toCompactGraph();
+		for(int i=0;i<size;i++)
+			coarse.getNode(i).weight=0.;
+		for(int i=0;i<n;i++) {
+			Node u=g.getNode(i);
+			u.descedant=coarse.getNode(map[i]);
+			u.descedant.weight=u.descedant.weight+u.weight;
+		}
+		return coarse;
+	}
+
+	/**
+	 * Compute the hierarchy of coarser graphs
+	 */
+	public void computeLevels() {
+		System.out.print("Coarsening the graph...");
+		this.levels=new ArrayList<CompactGraph>();
+		this.levels.add(this.csr);
+		CompactGraph current=this.csr;
+		while(current.sizeVertices()>this.coarsestSize) {
+			CompactGraph coarse=coarsen(current, this.random);
+			if(coarse.sizeVertices()>this.minReduction*current.sizeVertices())
+				break; // the matching is too small (e.g. star-like graphs)
+			this.levels.add(coarse);
+			current=coarse;
+		}
+		System.out.println("done ("+this.levels.size()+" levels, coarsest graph: "+current.sizeVertices()+" nodes)");
+	}
+
+	/**
+	 * Create the fast FR91 layout of one level (sharing the worker threads of the multilevel layout)
+	 */
+	private FastFR91Layout createLayout(CompactGraph level) {
+		FastFR91Layout layout=new FastFR91Layout(level, this.w, this.h);
+		layout.threads=this.threads;
+		layout.pool=this.pool;
+		this.copySettings(layout);
+		return layout;
+	}
+
+	/**
+	 * Copy the settings of the multilevel layout into the fast FR91 layout of one level
+	 */
+	private void copySettings(FastFR91Layout layout) {
+		layout.repulsion=this.repulsion;
+		layout.activeSet=this.activeSet;
+		layout.settleRatio=this.settleRatio;
+		layout.driftFactor=this.driftFactor;
+		layout.recheckInterval=this.recheckInterval;
+		layout.adaptiveCooling=this.adaptiveCooling;
+		layout.adaptiveFactor=this.adaptiveFactor;
+		layout.displacementTolerance=this.displacementTolerance;
+		layout.energyTolerance=this.energyTolerance;
+		layout.convergenceWindow=this.convergenceWindow;
+	}
+
+	/**
+	 * Draw the hierarchy, from the coarsest graph to the input graph
+	 */
+	public void computeMultilevelLayout() {
+		long startTime=System.nanoTime();
+		if(this.levels==null)
+			this.computeLevels();
+
+		// draw the coarsest graph, starting from random locations
+		int last=this.levels.size()-1;
+		CompactGraph coarsest=this.levels.get(last);
+		double w1=this.w/2., h1=this.h/2.;
+		for(int i=0;i<coarsest.sizeVertices();i++)
+			coarsest.getNode(i).setPoint(new Point_3(w1-2*w1*this.random.nextDouble(), h1-2*h1*this.random.nextDouble(), 0.));
+		FastFR91Layout layout=this.createLayout(coarsest);
+		for(int i=0;i<this.coarsestIterations;i++)
+			layout.computeLayout();
+		layout.writePositions();
+
+		// interpolate and refine
+		for(int l=last-1;l>=0;l--) {
+			CompactGraph level=this.levels.get(l);
+			layout=this.createLayout(level);
+			double jitter=0.1*layout.k; // matched vertices must not coincide
+			for(int i=0;i<level.sizeVertices();i++) {
+				Node u=level.getNode(i);
+				Point_3 p=u.descedant.getPoint();
+				u.setPoint(new Point_3(p.x+jitter*(2*this.random.nextDouble()-1), p.y+jitter*(2*this.random.nextDouble()-1), p.z));
+			}
+			layout.temperature=this.refinementTemperature*layout.k;
+			layout.coolingConstant=this.refinementCooling;
+			for(int i=0;i<this.refinementIterations;i++)
+				layout.computeLayout();
+			layout.writePositions();
+		}
+		this.finest=layout;
+
+		double duration=(double)(System.nanoTime()-startTime)/1000000000.;
+		System.out.println("Multilevel layout computed ("+duration+" seconds)");
+	}
+
+	/**
+	 * Draw the whole hierarchy (first call), then perform one iteration of the fast FR91 method on the input graph
+	 */
+	public void computeLayout() {
+		if(this.finest==null)
+			this.computeMultilevelLayout();
+		else {
+			this.copySettings(this.finest); // settings may have changed since the hierarchy was drawn
+			this.finest.computeLayout();
+		}
+	}
+
+	/**
+	 * Say whether the layout of the input graph has converged (once the whole hierarchy has been drawn)
+	 */
+	public boolean hasConverged() {
+		return this.finest!=null && this.finest.hasConverged();
+	}
+
+	public void readPositions() {
+		if(this.finest!=null)
+			this.finest.readPositions();
+	}
+
+	public void writePositions() {
+		if(this.finest!=null)
+			this.finest.writePositions();
+	}
+
+	public boolean copyPositions(double[] x, double[] y, double[] z) {
+		return this.finest!=null && this.finest.copyPositions(x, y, z);
+	}
+
+	public String toString() {
+		String result = "multilevel force-directed algorihm (Walshaw)\n";
+		result = result + "\t area= " + w + " x " + h + "\n";
+		result = result + "\t coarsest size= " + this.coarsestSize + "\n";
+		result = result + "\t iterations= " + this.coarsestIterations + " (coarsest graph), " + this.refinementIterations + " (each refinement)\n";
+		result = result + this.activeSetDescription();
+		if (this.adaptiveCooling)
+			result = result + "\t adaptive cooling (factor= " + this.adaptiveFactor + ")\n";
+		result = result + "\t repulsive forces: " + (this.repulsion == FastFR91Layout.FMM ? "fast multipole method" : (this.repulsion == FastFR91Layout.QUADTREE ? "quadtree" : "octree")) + "\n";
+		result = result + "\t threads= " + this.threads + "\n";
+		return result;
+	}
+
+}
@@ -0,0 +1,326 @@
+package jdg.layout;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import jdg.graph.CompactGraph;
+import jdg.util.ChunkTask;
+
+/**
+ * Pivot MDS (Brandes and Pich, 2006): a fast approximation of classical multidimensional scaling, used for computing
+ * initial vertex locations.
+ * <p>
+ * -) graph distances are computed from k pivots (chosen with the max/min strategy), with breadth-first searches <br>
+ * -) the n x k matrix C of squared distances is double centered <br>
+ * -) the coordinates are the projections C*v1 and C*v2, where v1 and v2 are the two main eigenvectors of the k x k
+ * matrix C^T*C (computed with the power iteration)
+ * <p>
+ * Time O(k(n+m) + nk^2), memory O(nk). The coordinates are scaled so that the average edge length is 1.
+ * The number of pivots is lowered when the n x k matrix would not fit in a single array.
+ * <p>
+ * Remark: large breadth-first search levels are explored in parallel; the distances, and thus the coordinates,
+ * do not depend on the number of threads
+ */
+public class PivotMDS {
+	public int pivotCount=50; // number of pivots (k)
+	public int maxIterations=200; // maximal number of steps of the power iteration
+	public double tolerance=1e-9; // the power iteration stops when the eigenvectors do not change more than this
+	public static int chunkSize=1024; // number of vertices (or frontier vertices) processed by one parallel task
+	private static final long maxArraySize=Integer.MAX_VALUE-8; // largest array length supported by the JVM
+
+	private final CompactGraph g;
+	private final ForkJoinPool pool; // worker threads (null for sequential computations)
+	private final Random random;
+
+	/**
+	 * @param g  the input graph
+	 * @param pool  worker threads (null for sequential computations)
+	 * @param seed  seed of the random generator (used for the first pivot and for separating coinciding vertices)
+	 */
+	public PivotMDS(CompactGraph g, ForkJoinPool pool, long seed) {
+		this.g=g;
+		this.pool=pool;
+		this.random=new Random(seed);
+	}
+
+	/**
+	 * Compute 2D coordinates of the vertices
+	 *
+	 * @return the arrays of x and y coordinates
+	 */
+	public double[][] computeCoordinates() {
+		System.out.print("Computing Pivot MDS coordinates...");
+		long startTime=System.nanoTime();
+		int n=this.g.sizeVertices();
+		final int k=(int)Math.min(Math.min(this.pivotCount, n), maxArraySize/Math.max(n, 1)); // the n x k matrix is stored in one array
+		if(k<3 && n>=3)
+			throw new Error("Error: the graph is too large for Pivot MDS ("+n+" vertices, the "+n+" x 3 distance matrix does not fit in an array)");
+		if(k<3) { // too small graph: random locations
+			double[][] result=new double[2][n];
+			for(int i=0;i<n;i++) {
+				result[0][i]=this.random.nextDouble();
+				result[1][i]=this.random.nextDouble();
+			}
+			System.out.println("done (random locations)");
+			return result;
+		}
+		final double[] c=this.centeredDistances(k);
+
+		// B=C^T*C (computed by blocks of vertices, the blocks are summed in a fixed order)
+		final int blocks=(n+chunkSize-1)/chunkSize;
+		final double[][] partial=new double[blocks][];
+		final int size=n;
+		ChunkTask.forEach(this.pool, blocks, new ChunkTask() {
+			public void run(int b) {
+				double[] sum=new double[k*k];
+				for(int v=b*chunkSize;v<Math.min(size, (b+1)*chunkSize);v++) {
+					int row=v*k;
+					for(int i=0;i<k;i++) {
+						double ci=c[row+i];
+						for(int j=i;j<k;j++)
+							sum[i*k+j]+=ci*c[row+j];
+					}
+				}
+				partial[b]=sum;
+			}
+		});
+		double[] B=new double[k*k];
+		for(int b=0;b<blocks;b++)
+			for(int i=0;i<k*k;i++)
+				B[i]+=partial[b][i];
+		for(int i=0;i<k;i++)
+			for(int j=0;j<i;j++)
+				B[i*k+j]=B[j*k+i];
+
+		double[][] vectors=this.eigenvectors(B, k);
+
+		// projections on the eigenvectors
+		double[][] result=new double[2][n];
+		for(int v=0;v<n;v++) {
+			for(int i=0;i<k;i++) {
+				result[0][v]+=c[v*k+i]*vectors[0][i];
+				result[1][v]+=c[v*k+i]*vectors[1][i];
+			}
+		}
+		this.normalize(result);
+
+		double duration=(double)(System.nanoTime()-startTime)/1000000000.;
+		System.out.println("done ("+k+" pivots, "+duration+" seconds)");
+		return result;
+	}
+
+	/**
+	 * Compute the double centered matrix of squared distances from the pivots (stored by rows: c[v*k+i])
+	 */
+	private double[] centeredDistances(int k) {
+		int n=this.g.sizeVertices();
+		double[] c=new double[n*k];
+		int[] minDistance=new int[n];
+		Arrays.fill(minDistance, Integer.MAX_VALUE);
+		int[] distance=new int[n];
+		int pivot=this.random.nextInt(n);
+		for(int i=0;i<k;i++) {
+			this.bfs(pivot, distance);
+			int maxDistance=0;
+			for(int v=0;v<n;v++)
+				maxDistance=Math.max(maxDistance, distance[v]);
+			int farthest=0;
+			for(int v=0;v<n;v++) {
+				int d=(distance[v]>=0) ? distance[v] : maxDistance+1; // vertices in other components
+				c[v*k+i]=(double)d*d;
+				if(distance[v]>=0 && distance[v]<minDistance[v])
+					minDistance[v]=distance[v];
+				if(minDistance[v]>minDistance[farthest])
+					farthest=v;
+			}
+			pivot=farthest; // max/min strategy
+		}
+
+		// double centering: c_vi= -1/2 (d_vi^2 - mean of row v - mean of column i + mean of all entries)
+		double[] columnMean=new double[k];
+		double total=0.;
+		for(int v=0;v<n;v++)
+			for(int i=0;i<k;i++)
+				columnMean[i]+=c[v*k+i];
+		for(int i=0;i<k;i++) {
+			total+=columnMean[i];
+			columnMean[i]=columnMean[i]/n;
+		}
+		total=total/((double)n*k);
+		for(int v=0;v<n;v++) {
+			double rowMean=0.;
+			for(int i=0;i<k;i++)
+				rowMean+=c[v*k+i];
+			rowMean=rowMean/k;
+			for(int i=0;i<k;i++)
+				c[v*k+i]=-0.5*(c[v*k+i]-rowMean-columnMean[i]+total);
+		}
+		return c;
+	}
+
+	/**
+	 * Breadth-first search from a source vertex: the levels are explored one after the other, the vertices
+	 * of large levels are processed in parallel (the distances do not depend on the order of the visits)
+	 *
+	 * @param distance  array storing the distances (-1 for vertices not connected to the source)
+	 */
+	void bfs(int source, int[] distance) {
+		int n=this.g.sizeVertices();
+		Arrays.fill(distance, -1);
+		distance[source]=0;
+		int[] frontier=new int[] { source };
+		int level=0;
+		while(frontier.length>0) {
+			level++;
+			if(this.pool==null || frontier.length<=chunkSize)
+				frontier=this.expand(frontier, 0, frontier.length, distance, level);
+			else
+				frontier=this.parallelExpand(frontier, distance, level, n);
+		}
+	}
+
+	/**
+	 * Visit the neighbors of the vertices frontier[start..end-1] (sequential): return the vertices discovered
+	 */
+	private int[] expand(int[] frontier, int start, int end, int[] distance, int level) {
+		int[] next=new int[16];
+		int size=0;
+		for(int f=start;f<end;f++) {
+			int u=frontier[f];
+			for(int e=this.g.offsets[u];e<this.g.offsets[u+1];e++) {
+				int v=this.g.targets[e];
+				if(distance[v]<0) {
+					distance[v]=level;
+					if(size==next.length)
+						next=Arrays.copyOf(next, 2*size);
+					next[size++]=v;
+				}
+			}
+		}
+		return Arrays.copyOf(next, size);
+	}
+
+	/**
+	 * Visit the neighbors of the frontier in parallel: each vertex is claimed by a single task (atomic operation)
+	 */
+	private int[] parallelExpand(final int[] frontier, final int[] distance, final int level, int n) {
+		final AtomicIntegerArray claimed=new AtomicIntegerArray(n);
+		final int tasks=(frontier.length+chunkSize-1)/chunkSize;
+		final int[][] discovered=new int[tasks][];
+		ChunkTask.forEach(this.pool, tasks, new ChunkTask() {
+			public void run(int t) {
+				int[] next=new int[16];
+				int size=0;
+				for(int f=t*chunkSize;f<Math.min(frontier.length, (t+1)*chunkSize);f++) {
+					int u=frontier[f];
+					for(int e=g.offsets[u];e<g.offsets[u+1];e++) {
+						int v=g.targets[e];
+						if(distance[v]<0 && claimed.compareAndSet(v, 0, 1)) {
+							if(size==next.length)
+								next=Arrays.copyOf(next, 2*size);
+							next[size++]=v;
+						}
+					}
+				}
+				discovered[t]=Arrays.copyOf(next, size);
+			}
+		});
+		int total=0;
+		for(int t=0;t<tasks;t++)
+			total+=discovered[t].length;
+		int[] result=new int[total];
+		int position=0;
+		for(int t=0;t<tasks;t++) {
+			for(int v: discovered[t])
+				distance[v]=level; // distances are written once all tasks have been completed
+			System.arraycopy(discovered[t], 0, result, position, discovered[t].length);
+			position+=discovered[t].length;
+		}
+		return result;
+	}
+
+	/**
+	 * Compute the two main eigenvectors of a symmetric k x k matrix (simultaneous power iteration,
+	 * with Gram-Schmidt orthonormalization)
+	 */
+	private double[][] eigenvectors(double[] B, int k) {
+		double[][] v=new double[2][k];
+		for(int i=0;i<k;i++) {
+			v[0][i]=this.random.nextDouble()-0.5;
+			v[1][i]=this.random.nextDouble()-0.5;
+		}
+		orthonormalize(v);
+		for(int iteration=0;iteration<this.maxIterations;iteration++) {
+			double[][] w=new double[2][k];
+			for(int a=0;a<2;a++)
+				for(int i=0;i<k;i++)
+					for(int j=0;j<k;j++)
+						w[a][i]+=B[i*k+j]*v[a][j];
+			orthonormalize(w);
+			double change=0.;
+			for(int a=0;a<2;a++) {
+				double dot=0.;
+				for(int i=0;i<k;i++)
+					dot+=w[a][i]*v[a][i];
+				change=Math.max(change, 1.-Math.abs(dot));
+			}
+			v=w;
+			if(change<this.tolerance)
+				break;
+		}
+		return v;
+	}
+
+	private static void orthonormalize(double[][] v) {
+		normalize(v[0]);
+		double dot=0.;
+		for(int i=0;i<v[1].length;i++)
+			dot+=v[0][i]*v[1][i];
+		for(int i=0;i<v[1].length;i++)
+			v[1][i]-=dot*v[0][i];
+		normalize(v[1]);
+	}
+
+	private static void normalize(double[] v) {
+		double norm=0.;
+		for(int i=0;i<v.length;i++)
+			norm+=v[i]*v[i];
+		norm=Math.sqrt(norm);
+		if(norm==0.)
+			return;
+		for(int i=0;i<v.length;i++)
+			v[i]=v[i]/norm;
+	}
+
+	/**
+	 * Scale the coordinates so that the average edge length is 1 (centered at the origin), and separate
+	 * coinciding vertices (vertices having the same distances to all pivots) with a small random perturbation
+	 */
+	private void normalize(double[][] p) {
+		int n=this.g.sizeVertices();
+		double sum=0.;
+		int edges=0;
+		for(int u=0;u<n;u++) {
+			for(int e=this.g.offsets[u];e<this.g.offsets[u+1];e++) {
+				int v=this.g.targets[e];
+				sum+=Math.sqrt((p[0][u]-p[0][v])*(p[0][u]-p[0][v])+(p[1][u]-p[1][v])*(p[1][u]-p[1][v]));
+				edges++;
+			}
+		}
+		double scale=(sum>0.) ? edges/sum : 1.;
+		double cx=0., cy=0.;
+		for(int u=0;u<n;u++) {
+			cx+=p[0][u];
+			cy+=p[1][u];
+		}
+		cx=cx/n;
+		cy=cy/n;
+		for(int u=0;u<n;u++) {
+			p[0][u]=(p[0][u]-cx)*scale+0.01*(this.random.nextDouble()-0.5);
+			p[1][u]=(p[1][u]-cy)*scale+0.01*(this.random.nextDouble()-0.5);
+		}
+	}
+
+}
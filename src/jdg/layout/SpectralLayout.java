@@ -0,0 +1,549 @@
+package jdg.layout;
+
+import jdg.graph.AdjacencyListGraph;
+import jdg.graph.CompactGraph;
+
+/**
+ * A spectral layout (Koren, 2005): the coordinates are the two degree-normalized eigenvectors u2 and u3 of the
+ * Laplacian (the solutions of L*u=lambda*D*u with the smallest non trivial eigenvalues).
+ * <p>
+ * Equivalently, u2 and u3 are the eigenvectors of M=(I+D^-1*A)/2 (each vertex moves half-way to the barycenter of
+ * its neighbors) with the largest eigenvalues, after the constant vector. They are computed with an orthogonalized
+ * power iteration on a block of 'blockSize' vectors (Zhou and Saad, 2007):
+ * <p>
+ * -) the block is multiplied by a Chebyshev polynomial of M, which damps the eigenvalues in [0, c]
+ * (c is the smallest Ritz value of the block): this converges much faster than plain powers of M, whose eigenvalues
+ * are all close to 1 on large graphs. The degree is chosen from the Ritz values: the largest Ritz value is amplified
+ * by at most a factor 'amplification' relative to [0, c] (otherwise the other vectors of the block are lost in the
+ * rounding errors), and the degree is at most 'degree' (reached when the spectral gap is small) <br>
+ * -) the vectors are D-orthonormalized (against the constant vector and against each other) <br>
+ * -) Rayleigh-Ritz: the vectors are rotated into the eigenvectors of M restricted to the block
+ * <p>
+ * The block is initialized with Pivot MDS, which is already close to the eigenvectors.
+ * <p>
+ * Each iteration of the layout performs at most (degree+1) products of the block by M: time O(degree*blockSize*(n+m)),
+ * memory O(blockSize*n+m). The products are computed in parallel (one vertex range per task).
+ * <p>
+ * Remark: the layout is meant for connected graphs (the eigenvectors of a disconnected graph are
+ * constant on each connected component)
+ */
+public class SpectralLayout extends Layout {
+	public int degree=100; // maximal degree of the Chebyshev polynomial applied at each iteration of the layout
+	public double amplification=1e8; // maximal amplification of the largest Ritz value by the polynomial (relative to [0, c])
+	public int blockSize=4; // number of vectors of the power iteration (at least 2)
+	public double edgeLength; // average length of an edge in the drawing
+	public boolean pivotMDS=true; // say whether the vectors are initialized with Pivot MDS (otherwise with the current locations)
+
+	public int iterationCount=0; // count the number of performed iterations
+
+	private double[] u, v, t; // block of vectors of the power iteration, stored by vertex: u[i*b+j] (and two work blocks)
+	private int b; // number of vectors of the block
+	private double[] ritzValues; // eigenvalues of M restricted to the block (in decreasing order)
+	private double[] degrees; // vertex degrees (at least 1)
+	private int lastDegree=0; // degree of the polynomial used by the last filtering step
+
+	/**
+	 * Initialize the spectral layout
+	 *
+	 * @param g
+	 *            input graph to draw
+	 * @param w
+	 *            width of the drawing area
+	 * @param h
+	 *            height of the drawing area
+	 */
+	public SpectralLayout(AdjacencyListGraph g, double w, double h) {
+		this(g, w, h, 1);
+	}
+
+	/**
+	 * Initialize the spectral layout
+	 *
+	 * @param g
+	 *            input graph to draw
+	 * @param w
+	 *            width of the drawing area
+	 * @param h
+	 *            height of the drawing area
+	 * @param threads
+	 *            number of threads used for computing the layout
+	 */
+	public SpectralLayout(AdjacencyListGraph g, double w, double h, int threads) {
+		this(g==null ? null : new CompactGraph(g), w, h, threads);
+		this.g=g;
+	}
+
+	/**
+	 * Initialize the spectral layout, for a graph in compact (CSR) representation
+	 *
+	 * @param g
+	 *            input graph to draw (nodes store the vertex locations)
+	 * @param w
+	 *            width of the drawing area
+	 * @param h
+	 *            height of the drawing area
+	 * @param threads
+	 *            number of threads used for computing the layout
+	 */
+	public SpectralLayout(CompactGraph g, double w, double h, int threads) {
+		System.out.print("Initializing spectral layout (degree-normalized eigenvectors)...");
+		if(g==null) {
+			System.out.println("Input graph not defined");
+			System.exit(0);
+		}
+		this.csr=g;
+		this.w=w;
+		this.h=h;
+		this.setThreads(threads);
+		int N=g.sizeVertices();
+		this.edgeLength=Math.sqrt(w*h/Math.max(N, 1)); // as the natural spring length of FR91
+		this.energyTolerance=1e-4; // the energy is the sum of the two eigenvalues
+		this.convergenceWindow=1; // the Ritz values increase at each step (no fluctuations): the layout stops once they are stable
+		this.displacementTolerance=1e-3*this.edgeLength;
+		System.out.println("done ("+N+" nodes, "+this.threads+" threads)");
+		System.out.println(this.toString());
+	}
+
+	/**
+	 * Initialize the block of vectors: the two Pivot MDS coordinates (or the current locations) p and q,
+	 * then p*q, p^2-q^2 (smooth vectors, close to the next eigenvectors) and random vectors
+	 */
+	private void initializeVectors() {
+		int n=this.csr.sizeVertices();
+		this.b=Math.max(2, Math.min(this.blockSize, n-1));
+		this.degrees=new double[n];
+		for(int i=0;i<n;i++)
+			this.degrees[i]=Math.max(1, this.csr.offsets[i+1]-this.csr.offsets[i]);
+		this.u=new double[n*b];
+		this.v=new double[n*b];
+		this.t=new double[n*b];
+		this.ritzValues=new double[b];
+
+		double[] p, q;
+		if(this.pivotMDS) {
+			double[][] c=new PivotMDS(this.csr, this.pool, seed).computeCoordinates();
+			p=c[0];
+			q=c[1];
+		}
+		else {
+			p=this.x;
+			q=this.y;
+		}
+		for(int i=0;i<n;i++) {
+			this.u[i*b]=p[i];
+			this.u[i*b+1]=q[i];
+			for(int j=2;j<b;j++) {
+				if(j==2)
+					this.u[i*b+j]=p[i]*q[i];
+				else if(j==3)
+					this.u[i*b+j]=p[i]*p[i]-q[i]*q[i];
+				else
+					this.u[i*b+j]=generator.nextDouble()-0.5;
+			}
+		}
+		this.orthonormalize(this.u);
+		this.rayleighRitz(); // initial Ritz values (used for the first filter)
+	}
+
+	/**
+	 * One filtering step: Chebyshev filter, orthonormalization and Rayleigh-Ritz
+	 */
+	private void filter() {
+		double c=Math.max(this.ritzValues[this.b-1], 0.01); // eigenvalues in [0, c] are damped
+		this.lastDegree=this.chooseDegree(c);
+		this.chebyshevFilter(c, this.lastDegree);
+		this.orthonormalize(this.u);
+		this.rayleighRitz();
+	}
+
+	/**
+	 * Return the largest degree d such that T_d amplifies the largest Ritz value by at most a factor 'amplification'
+	 * (T_d(y)=cosh(d*acosh(y)) for y>=1, and |T_d|<=1 on [0, c]), between 1 and degree
+	 */
+	private int chooseDegree(double c) {
+		double y=2.*this.ritzValues[0]/c-1.; // image of the largest Ritz value
+		if(y<=1.)
+			return this.degree; // no gap between the block and the damped eigenvalues
+		double d=Math.log(2.*this.amplification)/Math.log(y+Math.sqrt(y*y-1.)); // acosh(a) is about log(2a)
+		return (int)Math.max(1, Math.min(this.degree, Math.floor(d)));
+	}
+
+	/**
+	 * Compute result=alpha*M*x+beta*x+gamma*previous for the vertices in start..end-1 (the b values of a vertex
+	 * are contiguous: each edge reads a single cache line)
+	 */
+	private void multiply(double[] x, double[] previous, double[] result, double alpha, double beta, double gamma, int start, int end) {
+		if(this.b==4) {
+			multiply4(x, previous, result, alpha, beta, gamma, start, end);
+			return;
+		}
+		int[] offsets=this.csr.offsets, targets=this.csr.targets;
+		int b=this.b;
+		double[] sum=new double[b];
+		for(int i=start;i<end;i++) {
+			int row=i*b;
+			if(offsets[i+1]==offsets[i]) { // isolated vertex: (M*x)_i=x_i
+				for(int j=0;j<b;j++)
+					sum[j]=x[row+j];
+			}
+			else {
+				for(int j=0;j<b;j++)
+					sum[j]=0.;
+				for(int e=offsets[i];e<offsets[i+1];e++) {
+					int target=targets[e]*b;
+					for(int j=0;j<b;j++)
+						sum[j]+=x[target+j];
+				}
+				for(int j=0;j<b;j++)
+					sum[j]=0.5*(x[row+j]+sum[j]/this.degrees[i]);
+			}
+			for(int j=0;j<b;j++) {
+				double value=alpha*sum[j]+beta*x[row+j];
+				if(gamma!=0.)
+					value+=gamma*previous[row+j];
+				result[row+j]=value;
+			}
+		}
+	}
+
+	/**
+	 * Same as multiply(), for blocks of 4 vectors (the default block size): the sums are kept in local variables,
+	 * and the operations are performed in the same order (the results are identical)
+	 */
+	private void multiply4(double[] x, double[] previous, double[] result, double alpha, double beta, double gamma, int start, int end) {
+		int[] offsets=this.csr.offsets, targets=this.csr.targets;
+		double[] degrees=this.degrees;
+		for(int i=start;i<end;i++) {
+			int row=4*i;
+			double s0, s1, s2, s3;
+			if(offsets[i+1]==offsets[i]) { // isolated vertex: (M*x)_i=x_i
+				s0=x[row];
+				s1=x[row+1];
+				s2=x[row+2];
+				s3=x[row+3];
+			}
+			else {
+				s0=0.;
+				s1=0.;
+				s2=0.;
+				s3=0.;
+				for(int e=offsets[i];e<offsets[i+1];e++) {
+					int target=4*targets[e];
+					s0+=x[target];
+					s1+=x[target+1];
+					s2+=x[target+2];
+					s3+=x[target+3];
+				}
+				double d=degrees[i];
+				s0=0.5*(x[row]+s0/d);
+				s1=0.5*(x[row+1]+s1/d);
+				s2=0.5*(x[row+2]+s2/d);
+				s3=0.5*(x[row+3]+s3/d);
+			}
+			double v0=alpha*s0+beta*x[row], v1=alpha*s1+beta*x[row+1], v2=alpha*s2+beta*x[row+2], v3=alpha*s3+beta*x[row+3];
+			if(gamma!=0.) {
+				v0+=gamma*previous[row];
+				v1+=gamma*previous[row+1];
+				v2+=gamma*previous[row+2];
+				v3+=gamma*previous[row+3];
+			}
+			result[row]=v0;
+			result[row+1]=v1;
+			result[row+2]=v2;
+			result[row+3]=v3;
+		}
+	}
+
+	/**
+	 * Compute result=alpha*M*x+beta*x+gamma*previous for a block of vectors (in parallel)
+	 */
+	private void multiply(final double[] x, final double[] previous, final double[] result, final double alpha, final double beta, final double gamma) {
+		this.forEachVertex(this.csr.sizeVertices(), new VertexRange() {
+			public void run(int start, int end) {
+				multiply(x, previous, result, alpha, beta, gamma, start, end);
+			}
+		});
+	}
+
+	/**
+	 * Replace u by T(M)*u, where T is the Chebyshev polynomial of degree d mapping [0, c] to [-1, 1]
+	 * (three-term recurrence: T_k+1(y)=2y*T_k(y)-T_k-1(y), with y=(M-c/2)/(c/2))
+	 * <p>
+	 * Remark: T_k grows like (2y)^k outside [0, c] (T_100 is about 1e260 at M=1 for c=0.01), the two last terms are
+	 * rescaled (by the same factor) when they become large: the result is T(M)*u up to a constant factor.
+	 * The component along the constant vector is removed at each step (this commutes with M): otherwise its rounding
+	 * errors are amplified more than the block itself, and the block collapses on the constant vector
+	 */
+	private void chebyshevFilter(double c, int d) {
+		double e=c/2., center=c/2.;
+		this.multiply(this.u, null, this.v, 1./e, -center/e, 0.); // v=T_1(M)*u
+		for(int k=2;k<=d;k++) {
+			this.multiply(this.v, this.u, this.t, 2./e, -2.*center/e, -1.); // t=T_k(M)*u
+			this.removeMean(this.t); // the constant vector (eigenvalue 1) would be amplified most
+			double[] r=this.u; // u=T_k-1, v=T_k
+			this.u=this.v;
+			this.v=this.t;
+			this.t=r;
+			this.rescale();
+		}
+		double[] r=this.u;
+		this.u=this.v;
+		this.v=r;
+	}
+
+	/**
+	 * Divide the two last terms u and v of the Chebyshev recurrence by the largest entry of v, when it exceeds 1e50
+	 */
+	private void rescale() {
+		double max=0.;
+		for(int i=0;i<this.v.length;i++)
+			max=Math.max(max, Math.abs(this.v[i]));
+		if(max<=1e50 || Double.isInfinite(max))
+			return;
+		double factor=1./max;
+		for(int i=0;i<this.v.length;i++) {
+			this.u[i]*=factor;
+			this.v[i]*=factor;
+		}
+	}
+
+	/**
+	 * D-orthonormalize a block of vectors, for the inner product (x, y)=sum of d_i*x_i*y_i: the components along
+	 * the constant vector are removed, then x is replaced by x*R^-1, where R^T*R is the Cholesky factorization
+	 * of the Gram matrix x^T*D*x (twice, for stability)
+	 * <p>
+	 * Remark: a degenerate vector (linearly dependent on the previous ones, or not finite) is replaced by a random vector,
+	 * at most 4*b times
+	 */
+	private void orthonormalize(double[] x) {
+		for(int attempt=0;attempt<4*this.b;attempt++) {
+			int j=this.tryOrthonormalize(x);
+			if(j<0)
+				return;
+			this.randomize(x, j); // degenerate block
+		}
+		throw new Error("Error: the block of vectors cannot be orthonormalized");
+	}
+
+	/**
+	 * Try to D-orthonormalize a block of vectors
+	 *
+	 * @return  -1 if the block has been orthonormalized, otherwise the index of a degenerate vector
+	 */
+	private int tryOrthonormalize(double[] x) {
+		int n=this.csr.sizeVertices();
+		int b=this.b;
+		this.removeMean(x);
+
+		for(int pass=0;pass<2;pass++) {
+			double[][] R=new double[b][b]; // Gram matrix, then Cholesky factor (upper triangular)
+			for(int i=0;i<n;i++)
+				for(int j=0;j<b;j++)
+					for(int l=j;l<b;l++)
+						R[j][l]+=this.degrees[i]*x[i*b+j]*x[i*b+l];
+			for(int j=0;j<b;j++)
+				for(int l=j;l<b;l++)
+					if(Double.isFinite(R[j][l])==false)
+						return Double.isFinite(R[j][j]) ? l : j;
+			for(int j=0;j<b;j++) {
+				double diagonal=R[j][j];
+				for(int k=0;k<j;k++)
+					diagonal-=R[k][j]*R[k][j];
+				if((diagonal>1e-24*Math.max(R[j][j], 1e-300))==false) // degenerate block (relative to the norm of the vector)
+					return j;
+				R[j][j]=Math.sqrt(diagonal);
+				for(int l=j+1;l<b;l++) {
+					double value=R[j][l];
+					for(int k=0;k<j;k++)
+						value-=R[k][j]*R[k][l];
+					R[j][l]=value/R[j][j];
+				}
+			}
+			for(int i=0;i<n;i++) { // solve y*R=x (forward substitution, for each vertex)
+				int row=i*b;
+				for(int j=0;j<b;j++) {
+					double value=x[row+j];
+					for(int k=0;k<j;k++)
+						value-=x[row+k]*R[k][j];
+					x[row+j]=value/R[j][j];
+				}
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Remove from a block of vectors their components along the constant vector (D-weighted means)
+	 */
+	private void removeMean(double[] x) {
+		int n=this.csr.sizeVertices();
+		int b=this.b;
+		double totalDegree=0.;
+		double[] mean=new double[b];
+		for(int i=0;i<n;i++) {
+			totalDegree+=this.degrees[i];
+			for(int j=0;j<b;j++)
+				mean[j]+=this.degrees[i]*x[i*b+j];
+		}
+		for(int i=0;i<n;i++)
+			for(int j=0;j<b;j++)
+				x[i*b+j]-=mean[j]/totalDegree;
+	}
+
+	/**
+	 * Replace the j-th vector of a block by a random vector
+	 */
+	private void randomize(double[] x, int j) {
+		int n=this.csr.sizeVertices();
+		for(int i=0;i<n;i++)
+			x[i*this.b+j]=generator.nextDouble()-0.5;
+	}
+
+	/**
+	 * Rayleigh-Ritz step: compute H=u^T*D*M*u (symmetric, because D*M=(D+A)/2), and rotate the (D-orthonormal)
+	 * block into the eigenvectors of H, by decreasing eigenvalues
+	 */
+	private void rayleighRitz() {
+		int n=this.csr.sizeVertices();
+		int b=this.b;
+		this.multiply(this.u, null, this.v, 1., 0., 0.);
+		double[][] H=new double[b][b];
+		for(int i=0;i<n;i++)
+			for(int j=0;j<b;j++)
+				for(int l=j;l<b;l++)
+					H[j][l]+=this.degrees[i]*this.u[i*b+j]*this.v[i*b+l];
+		for(int j=0;j<b;j++)
+			for(int l=0;l<j;l++)
+				H[j][l]=H[l][j];
+		double[][] Q=jacobiEigenvectors(H, this.ritzValues);
+		for(int i=0;i<n;i++) {
+			int row=i*b;
+			for(int j=0;j<b;j++) {
+				double sum=0.;
+				for(int l=0;l<b;l++)
+					sum+=this.u[row+l]*Q[l][j];
+				this.t[row+j]=sum;
+			}
+		}
+		double[] r=this.u;
+		this.u=this.t;
+		this.t=r;
+	}
+
+	/**
+	 * Compute the eigenvalues and eigenvectors of a small symmetric matrix (cyclic Jacobi method)
+	 *
+	 * @param H  the symmetric matrix (modified)
+	 * @param values  the eigenvalues, in decreasing order
+	 * @return the matrix whose columns are the eigenvectors
+	 */
+	private static double[][] jacobiEigenvectors(double[][] H, double[] values) {
+		int b=H.length;
+		double[][] Q=new double[b][b];
+		for(int j=0;j<b;j++)
+			Q[j][j]=1.;
+		for(int sweep=0;sweep<50;sweep++) {
+			double off=0.;
+			for(int p=0;p<b;p++)
+				for(int q=p+1;q<b;q++)
+					off+=H[p][q]*H[p][q];
+			if(off<1e-30)
+				break;
+			for(int p=0;p<b;p++) {
+				for(int q=p+1;q<b;q++) {
+					if(H[p][q]==0.)
+						continue;
+					double theta=(H[q][q]-H[p][p])/(2.*H[p][q]);
+					double tan=Math.signum(theta)/(Math.abs(theta)+Math.sqrt(theta*theta+1.));
+					if(theta==0.)
+						tan=1.;
+					double cos=1./Math.sqrt(tan*tan+1.), sin=tan*cos;
+					for(int k=0;k<b;k++) { // H=H*R
+						double hp=H[k][p], hq=H[k][q];
+						H[k][p]=cos*hp-sin*hq;
+						H[k][q]=sin*hp+cos*hq;
+					}
+					for(int k=0;k<b;k++) { // H=R^T*H
+						double hp=H[p][k], hq=H[q][k];
+						H[p][k]=cos*hp-sin*hq;
+						H[q][k]=sin*hp+cos*hq;
+					}
+					for(int k=0;k<b;k++) { // Q=Q*R
+						double qp=Q[k][p], qq=Q[k][q];
+						Q[k][p]=cos*qp-sin*qq;
+						Q[k][q]=sin*qp+cos*qq;
+					}
+				}
+			}
+		}
+		// sort the eigenvalues (and the columns of Q) in decreasing order
+		double[][] result=new double[b][b];
+		boolean[] used=new boolean[b];
+		for(int j=0;j<b;j++) {
+			int best=-1;
+			for(int l=0;l<b;l++)
+				if(used[l]==false && (best<0 || H[l][l]>H[best][best]))
+					best=l;
+			used[best]=true;
+			values[j]=H[best][best];
+			for(int k=0;k<b;k++)
+				result[k][j]=Q[k][best];
+		}
+		return result;
+	}
+
+	/**
+	 * Perform one filtering step, and update the vertex locations: the two first vectors of the block are scaled so
+	 * that the average edge length is edgeLength (their signs are chosen to match the previous locations)
+	 */
+	public void computeLayout() {
+		System.out.print("Performing iteration (spectral layout): " + this.iterationCount);
+		long startTime=System.nanoTime();
+		int n=this.csr.sizeVertices();
+		if(this.x==null && this.pivotMDS)
+			this.allocatePositions(n); // the current locations are not used
+		this.checkPositions();
+		if(this.u==null)
+			this.initializeVectors();
+
+		this.filter();
+
+		// scale the drawing
+		double[] u=this.u;
+		int b=this.b;
+		int[] offsets=this.csr.offsets, targets=this.csr.targets;
+		double sum=0., dotX=0., dotY=0.;
+		for(int i=0;i<n;i++) {
+			for(int e=offsets[i];e<offsets[i+1];e++)
+				sum+=Math.hypot(u[i*b]-u[targets[e]*b], u[i*b+1]-u[targets[e]*b+1]);
+			dotX+=u[i*b]*this.x[i];
+			dotY+=u[i*b+1]*this.y[i];
+		}
+		double scale=(sum>0.) ? this.edgeLength*offsets[n]/sum : 1.;
+		double sx=(dotX<0.) ? -scale : scale, sy=(dotY<0.) ? -scale : scale;
+		double maxMove=0.;
+		for(int i=0;i<n;i++) {
+			double nx=sx*u[i*b], ny=sy*u[i*b+1];
+			maxMove=Math.max(maxMove, Math.hypot(nx-this.x[i], ny-this.y[i]));
+			this.x[i]=nx;
+			this.y[i]=ny;
+			this.z[i]=0.;
+		}
+		double energy=2.*(1.-this.ritzValues[0])+2.*(1.-this.ritzValues[1]); // eigenvalues of L*u=lambda*D*u
+		this.updateConvergence(energy, maxMove);
+
+		double duration=(double)(System.nanoTime()-startTime)/1000000000.;
+		System.out.println("iteration " + this.iterationCount + " done (" + duration + " seconds, degree " + this.lastDegree + ", eigenvalues= " + energy + ")");
+		this.iterationCount++;
+	}
+
+	public String toString() {
+		String result = "spectral layout (degree-normalized eigenvectors, Koren)\n";
+		result = result + "\t area= " + w + " x " + h + "\n";
+		result = result + "\t edge length= " + this.edgeLength + "\n";
+		result = result + "\t Chebyshev degree= at most " + this.degree + " (amplification= " + this.amplification + "), block size= " + this.blockSize + "\n";
+		result = result + "\t initialization= " + (this.pivotMDS ? "Pivot MDS" : "current locations") + "\n";
+		return result;
+	}
+
+}
@@ -0,0 +1,350 @@
+package jdg.layout;
+
+import java.util.Arrays;
+
+import jdg.graph.AdjacencyListGraph;
+import jdg.graph.CompactGraph;
+
+/**
+ * A layout minimizing the sparse stress model (Ortmann, Klimenta and Brandes, 2016): the graph distances are only computed
+ * from k pivot vertices (with BFS), instead of all pairs.
+ * <p>
+ * Stress terms of a vertex v: <br>
+ * -) pairs (v, u) at graph distance at most 'radius' (the neighbors of v when radius=1): target distance d(u,v), weight 1/d(u,v)^2 <br>
+ * -) pairs (v, p) for each pivot p farther than 'radius': target distance d(v,p), weight s/d(v,p)^2, where s is the number
+ * of vertices of the region of p (vertices closer to p than to other pivots) at distance at most d(v,p)/2 from p.
+ * The pivot stands for the vertices of its region.
+ * <p>
+ * Each iteration moves all vertices with the localized majorization update (Jacobi iteration): new locations are computed
+ * from the locations of the previous iteration, so that vertices are processed in parallel.
+ * <p>
+ * Time and memory: O(k(n+m)) for the distances (plus the pairs within the radius), O(kn+m) per iteration (radius=1).
+ * <p>
+ * Remark: pairs of vertices in distinct connected components have no stress term
+ */
+public class StressLayout extends Layout {
+	public int pivotCount=100; // number of pivots (k)
+	public int radius=1; // pairs at graph distance at most radius have their own stress term
+	public double edgeLength; // length of an edge in the drawing (distances are graph distances times edgeLength)
+
+	public int iterationCount=0; // count the number of performed iterations
+
+	// sparse stress model (computed before the first iteration)
+	int[] pivots=null; // the pivot vertices
+	int[] pivotDistances; // pivotDistances[v*k+i]: graph distance between vertex v and pivot i (-1 if not connected)
+	float[] pivotWeights; // pivotWeights[v*k+i]: weight of the term (v, pivot i) (0 if the term is not defined)
+	int[] nearOffsets; // pairs within the radius: the vertices close to v are nearTargets[nearOffsets[v]..nearOffsets[v+1]-1]
+	int[] nearTargets;
+	int[] nearDistances; // graph distances of the pairs within the radius
+
+	private double[] nx, ny; // new locations (Jacobi iteration)
+	private double[] stress; // stress of the terms of each vertex (last iteration)
+	private double[] moves; // distance moved by each vertex (last iteration)
+
+	/**
+	 * Initialize the stress layout
+	 *
+	 * @param g
+	 *            input graph to draw
+	 * @param w
+	 *            width of the drawing area
+	 * @param h
+	 *            height of the drawing area
+	 */
+	public StressLayout(AdjacencyListGraph g, double w, double h) {
+		this(g, w, h, 1);
+	}
+
+	/**
+	 * Initialize the stress layout
+	 *
+	 * @param g
+	 *            input graph to draw
+	 * @param w
+	 *            width of the drawing area
+	 * @param h
+	 *            height of the drawing area
+	 * @param threads
+	 *            number of threads used for computing the layout
+	 */
+	public StressLayout(AdjacencyListGraph g, double w, double h, int threads) {
+		this(g==null ? null : new CompactGraph(g), w, h, threads);
+		this.g=g;
+	}
+
+	/**
+	 * Initialize the stress layout, for a graph in compact (CSR) representation
+	 *
+	 * @param g
+	 *            input graph to draw (nodes store the vertex locations)
+	 * @param w
+	 *            width of the drawing area
+	 * @param h
+	 *            height of the drawing area
+	 * @param threads
+	 *            number of threads used for computing the layout
+	 */
+	public StressLayout(CompactGraph g, double w, double h, int threads) {
+		System.out.print("Initializing stress majorization (sparse stress model)...");
+		if(g==null) {
+			System.out.println("Input graph not defined");
+			System.exit(0);
+		}
+		this.csr=g;
+		this.w=w;
+		this.h=h;
+		this.setThreads(threads);
+		int N=g.sizeVertices();
+		this.edgeLength=Math.sqrt(w*h/Math.max(N, 1)); // as the natural spring length of FR91
+		this.energyTolerance=1e-4; // the stress decreases at almost every iteration
+		this.convergenceWindow=3;
+		this.displacementTolerance=1e-3*this.edgeLength;
+		System.out.println("done ("+N+" nodes, "+this.threads+" threads)");
+		System.out.println(this.toString());
+	}
+
+	/**
+	 * Compute the graph distances between the vertices and a set of k pivots (chosen with the max/min strategy:
+	 * each pivot is the vertex maximizing its distance to the previous pivots), and the weights of the stress terms
+	 */
+	public void computeDistances() {
+		System.out.print("Computing distances from pivots...");
+		long startTime=System.nanoTime();
+		int n=this.csr.sizeVertices();
+		int k=Math.min(this.pivotCount, n);
+		if((long)n*k>Integer.MAX_VALUE)
+			throw new Error("Error: too many pivots ("+k+") for "+n+" vertices");
+		this.pivots=new int[k];
+		this.pivotDistances=new int[n*k];
+		int[] minDistance=new int[n]; // distance to the closest pivot
+		int[] region=new int[n]; // closest pivot
+		Arrays.fill(minDistance, Integer.MAX_VALUE);
+		int[] queue=new int[n];
+		int[] d=new int[n];
+		int next=(n>0) ? generator.nextInt(n) : 0;
+		for(int i=0;i<k;i++) {
+			this.pivots[i]=next;
+			bfs(this.csr, next, d, queue);
+			int farthest=-1;
+			for(int v=0;v<n;v++) {
+				this.pivotDistances[v*k+i]=d[v];
+				if(d[v]>=0 && d[v]<minDistance[v]) {
+					minDistance[v]=d[v];
+					region[v]=i;
+				}
+				if(farthest<0 || minDistance[v]>minDistance[farthest])
+					farthest=v; // vertices not reached yet (other components) are chosen first
+			}
+			next=farthest;
+		}
+
+		// weight of the term (v, p): number of vertices of the region of p at distance at most d(v,p)/2 from p
+		int maxDistance=0;
+		for(int v=0;v<n;v++)
+			if(minDistance[v]!=Integer.MAX_VALUE)
+				maxDistance=Math.max(maxDistance, minDistance[v]);
+		int[][] closer=new int[k][maxDistance+1]; // closer[i][r]: number of vertices of the region of pivot i at distance at most r
+		for(int v=0;v<n;v++)
+			if(minDistance[v]!=Integer.MAX_VALUE) // vertices of components without pivot belong to no region
+				closer[region[v]][minDistance[v]]++;
+		for(int i=0;i<k;i++)
+			for(int r=1;r<=maxDistance;r++)
+				closer[i][r]=closer[i][r]+closer[i][r-1];
+		this.pivotWeights=new float[n*k];
+		for(int v=0;v<n;v++) {
+			for(int i=0;i<k;i++) {
+				int distance=this.pivotDistances[v*k+i];
+				if(distance>this.radius) // closer pairs have their own term
+					this.pivotWeights[v*k+i]=(float)(closer[i][Math.min(distance/2, maxDistance)]/((double)distance*distance));
+			}
+		}
+
+		this.computeNearPairs();
+		double duration=(double)(System.nanoTime()-startTime)/1000000000.;
+		System.out.println("done ("+k+" pivots, "+this.nearTargets.length+" close pairs, "+duration+" seconds)");
+	}
+
+	/**
+	 * Compute the graph distances from a source vertex (breadth-first search)
+	 *
+	 * @param result  array storing the distances (-1 for vertices not connected to the source)
+	 * @param queue  array of size at least n, used as queue
+	 */
+	static void bfs(CompactGraph g, int source, int[] result, int[] queue) {
+		Arrays.fill(result, -1);
+		result[source]=0;
+		int head=0, tail=0;
+		queue[tail++]=source;
+		while(head<tail) {
+			int u=queue[head++];
+			for(int e=g.offsets[u];e<g.offsets[u+1];e++) {
+				int v=g.targets[e];
+				if(result[v]<0) {
+					result[v]=result[u]+1;
+					queue[tail++]=v;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Compute the pairs of vertices at distance at most 'radius' (BFS truncated at depth radius, from each vertex)
+	 */
+	private void computeNearPairs() {
+		int n=this.csr.sizeVertices();
+		if(this.radius<=1) { // the pairs are the edges
+			this.nearOffsets=this.csr.offsets;
+			this.nearTargets=this.csr.targets;
+			this.nearDistances=new int[this.csr.targets.length];
+			Arrays.fill(this.nearDistances, 1);
+			return;
+		}
+		int[] mark=new int[n]; // distance+1 from the current source (0 if not visited)
+		int[] queue=new int[n];
+		this.nearOffsets=new int[n+1];
+		int[] targets=new int[Math.max(16, 2*this.csr.targets.length)], dist=new int[targets.length];
+		int size=0;
+		for(int s=0;s<n;s++) {
+			int head=0, tail=0;
+			queue[tail++]=s;
+			mark[s]=1;
+			while(head<tail) {
+				int u=queue[head++];
+				if(mark[u]>this.radius)
+					continue;
+				for(int e=this.csr.offsets[u];e<this.csr.offsets[u+1];e++) {
+					int v=this.csr.targets[e];
+					if(mark[v]==0) {
+						mark[v]=mark[u]+1;
+						queue[tail++]=v;
+						if(size==targets.length) {
+							targets=Arrays.copyOf(targets, 2*size);
+							dist=Arrays.copyOf(dist, 2*size);
+						}
+						targets[size]=v;
+						dist[size]=mark[u];
+						size++;
+					}
+				}
+			}
+			for(int i=0;i<tail;i++)
+				mark[queue[i]]=0;
+			this.nearOffsets[s+1]=size;
+		}
+		this.nearTargets=Arrays.copyOf(targets, size);
+		this.nearDistances=Arrays.copyOf(dist, size);
+	}
+
+	/**
+	 * Compute the new locations of vertices start..end-1 (localized majorization):
+	 * x_v= sum_j w_vj (x_j + d_vj (x_v-x_j)/|x_v-x_j|) / sum_j w_vj
+	 */
+	private void updateVertices(int start, int end) {
+		int k=this.pivots.length;
+		double L=this.edgeLength;
+		for(int v=start;v<end;v++) {
+			double px=x[v], py=y[v];
+			double sumX=0., sumY=0., sumW=0., energy=0.;
+			for(int e=this.nearOffsets[v];e<this.nearOffsets[v+1];e++) {
+				int u=this.nearTargets[e];
+				double target=this.nearDistances[e]*L;
+				double weight=1./(target*target);
+				double ex=px-x[u], ey=py-y[u];
+				double distance=Math.sqrt(ex*ex+ey*ey);
+				sumW+=weight;
+				if(distance>0.) {
+					sumX+=weight*(x[u]+target*ex/distance);
+					sumY+=weight*(y[u]+target*ey/distance);
+				}
+				else {
+					sumX+=weight*x[u];
+					sumY+=weight*y[u];
+				}
+				energy+=weight*(distance-target)*(distance-target);
+			}
+			for(int i=0;i<k;i++) {
+				double weight=this.pivotWeights[v*k+i];
+				if(weight==0.)
+					continue;
+				int p=this.pivots[i];
+				double target=this.pivotDistances[v*k+i]*L;
+				weight=weight/(L*L);
+				double ex=px-x[p], ey=py-y[p];
+				double distance=Math.sqrt(ex*ex+ey*ey);
+				sumW+=weight;
+				if(distance>0.) {
+					sumX+=weight*(x[p]+target*ex/distance);
+					sumY+=weight*(y[p]+target*ey/distance);
+				}
+				else {
+					sumX+=weight*x[p];
+					sumY+=weight*y[p];
+				}
+				energy+=weight*(distance-target)*(distance-target);
+			}
+			if(sumW>0.) {
+				nx[v]=sumX/sumW;
+				ny[v]=sumY/sumW;
+			}
+			else { // isolated vertex
+				nx[v]=px;
+				ny[v]=py;
+			}
+			this.stress[v]=energy;
+			double mx=nx[v]-px, my=ny[v]-py;
+			this.moves[v]=Math.sqrt(mx*mx+my*my);
+		}
+	}
+
+	/**
+	 * Perform one iteration of stress majorization (all vertices are moved in parallel)
+	 */
+	public void computeLayout() {
+		System.out.print("Performing iteration (stress majorization): " + this.iterationCount);
+		long startTime=System.nanoTime();
+		this.checkPositions();
+		if(this.pivots==null)
+			this.computeDistances();
+		int n=this.csr.sizeVertices();
+		if(this.nx==null || this.nx.length!=n) {
+			this.nx=new double[n];
+			this.ny=new double[n];
+			this.stress=new double[n];
+			this.moves=new double[n];
+		}
+
+		this.forEachVertex(n, new VertexRange() {
+			public void run(int start, int end) {
+				updateVertices(start, end);
+			}
+		});
+		double[] tx=this.x, ty=this.y;
+		this.x=this.nx;
+		this.y=this.ny;
+		this.nx=tx;
+		this.ny=ty;
+		Arrays.fill(this.z, 0.);
+
+		double energy=0., maxMove=0.;
+		for(int v=0;v<n;v++) {
+			energy+=this.stress[v];
+			maxMove=Math.max(maxMove, this.moves[v]);
+		}
+		this.updateConvergence(energy, maxMove);
+
+		double duration=(double)(System.nanoTime()-startTime)/1000000000.;
+		System.out.println("iteration " + this.iterationCount + " done (" + duration + " seconds, stress= " + energy + ")");
+		this.iterationCount++;
+	}
+
+	public String toString() {
+		String result = "stress majorization (sparse stress model)\n";
+		result = result + "\t area= " + w + " x " + h + "\n";
+		result = result + "\t edge length= " + this.edgeLength + "\n";
+		result = result + "\t pivots= " + this.pivotCount + "\n";
+		result = result + "\t radius= " + this.radius + "\n";
+		result = result + "\t threads= " + this.threads + "\n";
+		return result;
+	}
+
+}
@@ -0,0 +1,49 @@
+package jdg.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A task processing one chunk (of vertices, or of any array), for computations split into a fixed number of chunks
+ * (see jdg.layout.Layout.forEachVertex for computations on ranges of vertices)
+ * <p>
+ * Remark: the chunks do not depend on the number of threads, the results do not depend on the number of threads
+ * as long as each chunk only writes its own values
+ */
+public abstract class ChunkTask {
+
+	/** Process one chunk */
+	public abstract void run(int chunk);
+
+	/**
+	 * Process chunks 0..count-1, in parallel if a pool of threads is defined
+	 *
+	 * @param pool  worker threads (null for sequential computations)
+	 * @param count  number of chunks
+	 * @param task  the task processing each chunk
+	 */
+	public static void forEach(ForkJoinPool pool, final int count, final ChunkTask task) {
+		if(pool==null || count<=1) {
+			for(int i=0;i<count;i++)
+				task.run(i);
+			return;
+		}
+		pool.invoke(new RecursiveAction() {
+			protected void compute() {
+				List<RecursiveAction> tasks=new ArrayList<RecursiveAction>();
+				for(int i=0;i<count;i++) {
+					final int chunk=i;
+					tasks.add(new RecursiveAction() {
+						protected void compute() {
+							task.run(chunk);
+						}
+					});
+				}
+				invokeAll(tasks);
+			}
+		});
+	}
+
+}